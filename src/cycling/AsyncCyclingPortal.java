@@ -0,0 +1,453 @@
+package cycling;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * AsyncCyclingPortal gives every operation of CyclingPortalInterface as a method that
+ * returns straight away with a CompletableFuture, and runs the operation on an executor.
+ * Each method takes the same arguments as the method of the same name in the interface.
+ * Operations on a race, or on a stage or segment of it, are run one at a time in the
+ * order they were called, so a read of a race sees every write to it called before the
+ * read. Operations on different races run at the same time. Removing a team or rider
+ * can change the results of any race, so it runs after every operation already called on
+ * a race, and operations on races called after it wait for it. Other operations on teams
+ * and riders, and operations on the portal as a whole, are not ordered with anything else.
+ * The race of a stage, segment or race name is found when the operation is called,
+ * from an index the portal keeps without locking, so calling never waits on the portal.
+ * An operation on a race, stage or segment that does not exist when it is called fails
+ * straight away, without being queued.
+ * Exceptions thrown by an operation complete its future exceptionally as they are, so
+ * they are not wrapped or copied.
+ * Operations run against a ConcurrentCyclingPortal, which keeps them safe when they run
+ * at the same time. By default they run on virtual threads, or on a pool of daemon
+ * threads where virtual threads are not available.
+ *
+ * @version 1.0
+ *
+ */
+public class AsyncCyclingPortal implements AutoCloseable {
+
+	// private attributes
+	private final ConcurrentCyclingPortal portal;
+	private final Executor executor;
+	// Whether the executor was made by this portal, so is shut down when it is closed
+	private final boolean ownsExecutor;
+	// Queue of the operations on each race, keyed by race ID. Queues are kept when the portal
+	// is erased or loaded, as a race given the same ID must still run after what was queued
+	private final ConcurrentHashMap<Integer, SerialExecutor> raceQueues = new ConcurrentHashMap<>();
+	// Held while an operation on every race places its holds, so holds of different operations
+	// are in the same order in every queue and cannot wait on each other
+	private final Object holdLock = new Object();
+
+	/** Operation run against the portal
+	 *
+	 * @param <T> Type of the result of the operation
+	 */
+	@FunctionalInterface
+	private interface PortalCall<T> {
+		T call(ConcurrentCyclingPortal portal) throws Exception;
+	}
+
+	/** Operation run against the portal that has no result
+	 *
+	 */
+	@FunctionalInterface
+	private interface PortalAction {
+		void run(ConcurrentCyclingPortal portal) throws Exception;
+	}
+
+	/** AsyncCyclingPortal constructor, running on virtual threads if they are available
+	 *
+	 */
+	public AsyncCyclingPortal() {
+		this(new ConcurrentCyclingPortal(), SerialExecutor.sharedExecutor("async-portal"), true);
+	}
+
+	/** AsyncCyclingPortal constructor
+	 *
+	 * @param portal Portal the operations are run against
+	 * @param executor Executor the operations are run on, which is left running when
+	 *                 this portal is closed
+	 */
+	public AsyncCyclingPortal(ConcurrentCyclingPortal portal, Executor executor) {
+		this(portal, executor, false);
+	}
+
+	private AsyncCyclingPortal(ConcurrentCyclingPortal portal, Executor executor, boolean ownsExecutor) {
+		this.portal = portal;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+
+	// getters
+	public ConcurrentCyclingPortal getPortal() { return portal; }
+
+	/** Runs an operation on an executor
+	 *
+	 * @param runner Executor to run the operation on
+	 * @param call Operation to run
+	 * @return Future completed with the result of the operation, or the exception it threw
+	 * @param <T> Type of the result of the operation
+	 */
+	private <T> CompletableFuture<T> call(Executor runner, PortalCall<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			runner.execute(() -> {
+				try {
+					future.complete(call.call(portal));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/** Runs an operation with no result on an executor
+	 *
+	 * @param runner Executor to run the operation on
+	 * @param action Operation to run
+	 * @return Future completed once the operation has run, or with the exception it threw
+	 */
+	private CompletableFuture<Void> run(Executor runner, PortalAction action) {
+		return call(runner, p -> {
+			action.run(p);
+			return null;
+		});
+	}
+
+	/** Gets the queue of the operations on a race, creating it if needed. Queues are only
+	 *  made for races that exist, so calls with unknown IDs do not leave queues behind
+	 *
+	 * @param raceId ID of the race
+	 * @return Queue of the race
+	 * @throws IDNotRecognisedException If the ID does not match to any race
+	 */
+	private SerialExecutor queueOfRace(int raceId) throws IDNotRecognisedException {
+		if (!portal.isRaceRouted(raceId)) {
+			throw new IDNotRecognisedException("Race with inputted ID does not exist");
+		}
+		SerialExecutor[] made = new SerialExecutor[1];
+		SerialExecutor queue = raceQueues.computeIfAbsent(raceId, id -> made[0] = new SerialExecutor(executor));
+		// Race may have been removed, along with its queue, while the queue was being made
+		if (made[0] != null && !portal.isRaceRouted(raceId)) {
+			raceQueues.remove(raceId, queue);
+			throw new IDNotRecognisedException("Race with inputted ID does not exist");
+		}
+		return queue;
+	}
+
+	/** Runs an operation on a race in its queue
+	 *
+	 * @param raceId ID of the race
+	 * @param call Operation to run
+	 * @return Future completed with the result of the operation, or the exception it threw
+	 * @param <T> Type of the result of the operation
+	 */
+	private <T> CompletableFuture<T> callOnRace(int raceId, PortalCall<T> call) {
+		try {
+			return call(queueOfRace(raceId), call);
+		} catch (IDNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/** Runs an operation with no result on a race in its queue
+	 *
+	 * @param raceId ID of the race
+	 * @param action Operation to run
+	 * @return Future completed once the operation has run, or with the exception it threw
+	 */
+	private CompletableFuture<Void> runOnRace(int raceId, PortalAction action) {
+		try {
+			return run(queueOfRace(raceId), action);
+		} catch (IDNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/** Runs an operation with no result once every operation already called on a race has
+	 *  run, holding the queue of every race until it has run
+	 *
+	 * @param action Operation to run
+	 * @return Future completed once the operation has run, or with the exception it threw
+	 */
+	private CompletableFuture<Void> runOnEveryRace(PortalAction action) {
+		CompletableFuture<Void> release = new CompletableFuture<>();
+		ArrayList<CompletableFuture<Void>> holds = new ArrayList<>();
+		try {
+			synchronized (holdLock) {
+				for (int raceId : portal.routedRaces()) {
+					try {
+						holds.add(queueOfRace(raceId).hold(release));
+					} catch (IDNotRecognisedException e) {
+						// Race was removed while the races were being held, so there is nothing to wait for
+					}
+				}
+			}
+		} catch (RejectedExecutionException e) {
+			release.complete(null);
+			return CompletableFuture.failedFuture(e);
+		}
+
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		CompletableFuture.allOf(holds.toArray(new CompletableFuture<?>[0])).thenRun(() ->
+				run(executor, action).whenComplete((result, e) -> {
+					// Queues carry on once the operation has run, whether or not it threw
+					release.complete(null);
+					if (e == null) {
+						future.complete(null);
+					} else {
+						future.completeExceptionally(e);
+					}
+				}));
+		return future;
+	}
+
+	/** Gets the queue of the operations on the race a stage is in
+	 *
+	 * @param stageId ID of the stage
+	 * @return Queue of the race the stage is in
+	 * @throws IDNotRecognisedException If the ID does not match to any stage
+	 */
+	private SerialExecutor queueOfStage(int stageId) throws IDNotRecognisedException {
+		return queueOfRace(portal.findRaceOfStage(stageId));
+	}
+
+	/** Runs an operation on a stage in the queue of its race
+	 *
+	 * @param stageId ID of the stage
+	 * @param call Operation to run
+	 * @return Future completed with the result of the operation, or the exception it threw
+	 * @param <T> Type of the result of the operation
+	 */
+	private <T> CompletableFuture<T> callOnStage(int stageId, PortalCall<T> call) {
+		try {
+			return call(queueOfStage(stageId), call);
+		} catch (IDNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/** Runs an operation with no result on a stage in the queue of its race
+	 *
+	 * @param stageId ID of the stage
+	 * @param action Operation to run
+	 * @return Future completed once the operation has run, or with the exception it threw
+	 */
+	private CompletableFuture<Void> runOnStage(int stageId, PortalAction action) {
+		try {
+			return run(queueOfStage(stageId), action);
+		} catch (IDNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	// MiniCyclingPortalInterface
+
+	public CompletableFuture<int[]> getRaceIds() {
+		return call(executor, ConcurrentCyclingPortal::getRaceIds);
+	}
+
+	public CompletableFuture<Integer> createRace(String name, String description) {
+		return call(executor, p -> p.createRace(name, description));
+	}
+
+	public CompletableFuture<String> viewRaceDetails(int raceId) {
+		return callOnRace(raceId, p -> p.viewRaceDetails(raceId));
+	}
+
+	public CompletableFuture<Void> removeRaceById(int raceId) {
+		return runOnRace(raceId, p -> {
+			p.removeRaceById(raceId);
+			// Operations already queued still run on the queue, and fail as the race is gone
+			raceQueues.remove(raceId);
+		});
+	}
+
+	public CompletableFuture<Integer> getNumberOfStages(int raceId) {
+		return callOnRace(raceId, p -> p.getNumberOfStages(raceId));
+	}
+
+	public CompletableFuture<Integer> addStageToRace(int raceId, String stageName, String description, double length,
+			LocalDateTime startTime, StageType type) {
+		return callOnRace(raceId, p -> p.addStageToRace(raceId, stageName, description, length, startTime,
+				type));
+	}
+
+	public CompletableFuture<int[]> getRaceStages(int raceId) {
+		return callOnRace(raceId, p -> p.getRaceStages(raceId));
+	}
+
+	public CompletableFuture<Double> getStageLength(int stageId) {
+		return callOnStage(stageId, p -> p.getStageLength(stageId));
+	}
+
+	public CompletableFuture<Void> removeStageById(int stageId) {
+		return runOnStage(stageId, p -> p.removeStageById(stageId));
+	}
+
+	public CompletableFuture<Integer> addCategorizedClimbToStage(int stageId, Double location, SegmentType type,
+			Double averageGradient, Double length) {
+		return callOnStage(stageId, p -> p.addCategorizedClimbToStage(stageId, location, type, averageGradient, length));
+	}
+
+	public CompletableFuture<Integer> addIntermediateSprintToStage(int stageId, double location) {
+		return callOnStage(stageId, p -> p.addIntermediateSprintToStage(stageId, location));
+	}
+
+	public CompletableFuture<Void> removeSegment(int segmentId) {
+		SerialExecutor queue;
+		try {
+			queue = queueOfRace(portal.findRaceOfSegment(segmentId));
+		} catch (IDNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return run(queue, p -> p.removeSegment(segmentId));
+	}
+
+	public CompletableFuture<Void> concludeStagePreparation(int stageId) {
+		return runOnStage(stageId, p -> p.concludeStagePreparation(stageId));
+	}
+
+	public CompletableFuture<int[]> getStageSegments(int stageId) {
+		return callOnStage(stageId, p -> p.getStageSegments(stageId));
+	}
+
+	public CompletableFuture<Integer> createTeam(String name, String description) {
+		return call(executor, p -> p.createTeam(name, description));
+	}
+
+	public CompletableFuture<Void> removeTeam(int teamId) {
+		return runOnEveryRace(p -> p.removeTeam(teamId));
+	}
+
+	public CompletableFuture<int[]> getTeams() {
+		return call(executor, ConcurrentCyclingPortal::getTeams);
+	}
+
+	public CompletableFuture<int[]> getTeamRiders(int teamId) {
+		return call(executor, p -> p.getTeamRiders(teamId));
+	}
+
+	public CompletableFuture<Integer> createRider(int teamID, String name, int yearOfBirth) {
+		return call(executor, p -> p.createRider(teamID, name, yearOfBirth));
+	}
+
+	public CompletableFuture<Void> removeRider(int riderId) {
+		return runOnEveryRace(p -> p.removeRider(riderId));
+	}
+
+	public CompletableFuture<Void> registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints) {
+		return runOnStage(stageId, p -> p.registerRiderResultsInStage(stageId, riderId, checkpoints));
+	}
+
+	public CompletableFuture<BatchRegistrationReport> registerRiderResultsInStageBatch(int stageId, int[] riderIds,
+			LocalTime[][] checkpoints) {
+		return callOnStage(stageId, p -> p.registerRiderResultsInStageBatch(stageId, riderIds, checkpoints));
+	}
+
+	public CompletableFuture<LocalTime[]> getRiderResultsInStage(int stageId, int riderId) {
+		return callOnStage(stageId, p -> p.getRiderResultsInStage(stageId, riderId));
+	}
+
+	public CompletableFuture<LocalTime> getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) {
+		return callOnStage(stageId, p -> p.getRiderAdjustedElapsedTimeInStage(stageId, riderId));
+	}
+
+	public CompletableFuture<Void> deleteRiderResultsInStage(int stageId, int riderId) {
+		return runOnStage(stageId, p -> p.deleteRiderResultsInStage(stageId, riderId));
+	}
+
+	public CompletableFuture<int[]> getRidersRankInStage(int stageId) {
+		return callOnStage(stageId, p -> p.getRidersRankInStage(stageId));
+	}
+
+	public CompletableFuture<LocalTime[]> getRankedAdjustedElapsedTimesInStage(int stageId) {
+		return callOnStage(stageId, p -> p.getRankedAdjustedElapsedTimesInStage(stageId));
+	}
+
+	public CompletableFuture<int[]> getRidersPointsInStage(int stageId) {
+		return callOnStage(stageId, p -> p.getRidersPointsInStage(stageId));
+	}
+
+	public CompletableFuture<int[]> getRidersMountainPointsInStage(int stageId) {
+		return callOnStage(stageId, p -> p.getRidersMountainPointsInStage(stageId));
+	}
+
+	public CompletableFuture<Void> eraseCyclingPortal() {
+		return run(executor, ConcurrentCyclingPortal::eraseCyclingPortal);
+	}
+
+	public CompletableFuture<Void> saveCyclingPortal(String filename) {
+		return run(executor, p -> p.saveCyclingPortal(filename));
+	}
+
+	public CompletableFuture<Void> loadCyclingPortal(String filename) {
+		return run(executor, p -> p.loadCyclingPortal(filename));
+	}
+
+	// CyclingPortalInterface
+
+	public CompletableFuture<Void> removeRaceByName(String name) {
+		int raceId;
+		try {
+			raceId = portal.findRaceOfName(name);
+		} catch (NameNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		// Runs in the queue of the race, so it does not overtake operations already called on it
+		return runOnRace(raceId, p -> {
+			p.removeRaceByName(name);
+			raceQueues.remove(raceId);
+		});
+	}
+
+	public CompletableFuture<int[]> getRidersGeneralClassificationRank(int raceId) {
+		return callOnRace(raceId, p -> p.getRidersGeneralClassificationRank(raceId));
+	}
+
+	public CompletableFuture<LocalTime[]> getGeneralClassificationTimesInRace(int raceId) {
+		return callOnRace(raceId, p -> p.getGeneralClassificationTimesInRace(raceId));
+	}
+
+	public CompletableFuture<int[]> getRidersPointsInRace(int raceId) {
+		return callOnRace(raceId, p -> p.getRidersPointsInRace(raceId));
+	}
+
+	public CompletableFuture<int[]> getRidersMountainPointsInRace(int raceId) {
+		return callOnRace(raceId, p -> p.getRidersMountainPointsInRace(raceId));
+	}
+
+	public CompletableFuture<int[]> getRidersPointClassificationRank(int raceId) {
+		return callOnRace(raceId, p -> p.getRidersPointClassificationRank(raceId));
+	}
+
+	public CompletableFuture<int[]> getRidersMountainPointClassificationRank(int raceId) {
+		return callOnRace(raceId, p -> p.getRidersMountainPointClassificationRank(raceId));
+	}
+
+	/** Shuts down the executor if it was made by this portal, operations already called
+	 *  still run
+	 *
+	 */
+	@Override
+	public void close() {
+		if (ownsExecutor) {
+			// Queues reschedule themselves on the executor, so it is only shut down once they are empty
+			CompletableFuture<?>[] markers = raceQueues.values().stream()
+					.map(queue -> CompletableFuture.runAsync(() -> {}, queue))
+					.toArray(CompletableFuture<?>[]::new);
+			CompletableFuture.allOf(markers).whenComplete((result, e) -> ((ExecutorService) executor).shutdown());
+		}
+	}
+}
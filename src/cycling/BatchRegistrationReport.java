@@ -0,0 +1,71 @@
+package cycling;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Report returned after registering a batch of rider results in a stage, records which
+ *  rows of the batch were registered and why any rows were rejected.
+ *
+ */
+public class BatchRegistrationReport {
+
+	// private attributes
+	private int registered = 0;
+	// Rejected rows of the batch, ordered by row index
+	private final TreeMap<Integer, Exception> failures = new TreeMap<>();
+
+	// getters
+	public int getRegistered() { return registered; }
+
+	public boolean hasFailures() { return !failures.isEmpty(); }
+
+	/** Gets the exception a row was rejected with
+	 *
+	 * @param row Index of the row in the batch
+	 * @return Exception that rejected the row, or null if the row was registered
+	 */
+	public Exception getFailure(int row) { return failures.get(row); }
+
+	/** Gets the indexes of every row that was rejected
+	 *
+	 * @return Rejected rows, in ascending order
+	 */
+	public int[] getFailedRows() {
+		int[] rows = new int[failures.size()];
+		int i = 0;
+		for (int row : failures.keySet()) {
+			rows[i++] = row;
+		}
+		return rows;
+	}
+
+	/** Records that a row has been rejected
+	 *
+	 * @param row Index of the row in the batch
+	 * @param cause Exception the row would have thrown if registered on its own
+	 */
+	void addFailure(int row, Exception cause) {
+		failures.put(row, cause);
+	}
+
+	/** Records how many rows were registered
+	 *
+	 * @param registered Number of rows registered
+	 */
+	void setRegistered(int registered) {
+		this.registered = registered;
+	}
+
+	/** toString
+	 *
+	 * @return Concatenated information about the batch
+	 */
+	public String toString() {
+		StringBuilder details = new StringBuilder("BatchRegistrationReport[registered=" + registered
+				+ ", failed=" + failures.size());
+		for (Map.Entry<Integer, Exception> failure : failures.entrySet()) {
+			details.append(", row ").append(failure.getKey()).append("= ").append(failure.getValue().getMessage());
+		}
+		return details.append("]").toString();
+	}
+}
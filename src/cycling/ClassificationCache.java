@@ -0,0 +1,139 @@
+package cycling;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Cache of the classifications the portal has worked out for each race. Every entry is
+ *  stored against the version the race was at when it was worked out, so an entry is only
+ *  served while the race has not changed. The cache holds a bounded number of entries
+ *  across every race, evicting the least recently used entry once it is full.
+ *  Reads reorder the entries, so every method is synchronized for portals shared
+ *  between threads.
+ *
+ */
+final class ClassificationCache {
+
+	/** Classifications of a race that can be cached
+	 *
+	 */
+	enum Classification {
+		GENERAL_TIMES,
+		GENERAL_DURATIONS,
+		GENERAL_RANKS,
+		POINTS,
+		MOUNTAIN_POINTS,
+		POINTS_RANKS,
+		MOUNTAIN_RANKS
+	}
+
+	/** Cached classification, with the version of the race it was worked out at
+	 *
+	 */
+	private record Entry(int raceVersion, Object value) {}
+
+	// Number of entries held before the least recently used is evicted
+	private int capacity;
+	// Entries are kept in order of access, so the eldest is the least recently used
+	private final LinkedHashMap<Long, Entry> entries;
+	private long hits = 0;
+	private long misses = 0;
+
+	/** ClassificationCache constructor
+	 *
+	 * @param capacity Maximum number of classifications held
+	 */
+	public ClassificationCache(int capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > ClassificationCache.this.capacity;
+			}
+		};
+	}
+
+	// getters
+	public synchronized int getCapacity() { return capacity; }
+
+	public synchronized int size() { return entries.size(); }
+
+	public synchronized long getHits() { return hits; }
+
+	public synchronized long getMisses() { return misses; }
+
+	/** Sets how many classifications can be held, evicting the least recently used ones
+	 *  if more are already held
+	 *
+	 * @param capacity Maximum number of classifications held
+	 */
+	public synchronized void setCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Cache capacity cannot be negative");
+		}
+		this.capacity = capacity;
+		var eldest = entries.keySet().iterator();
+		while (entries.size() > capacity) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	/** Gets a cached classification, as long as the race has not changed since it was cached
+	 *
+	 * @param raceID ID of the race
+	 * @param classification Classification to get
+	 * @param raceVersion Current version of the race
+	 * @return Cached classification, or null if there is none for the current version
+	 * @param <T> Type of the classification
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> T get(int raceID, Classification classification, int raceVersion) {
+		Entry entry = entries.get(keyOf(raceID, classification));
+		if (entry == null || entry.raceVersion() != raceVersion) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return (T) entry.value();
+	}
+
+	/** Stores a classification, replacing any held for an older version of the race
+	 *
+	 * @param raceID ID of the race
+	 * @param classification Classification being stored
+	 * @param raceVersion Version of the race the classification was worked out at
+	 * @param value Classification to store, which must not be changed afterwards
+	 */
+	public synchronized void put(int raceID, Classification classification, int raceVersion, Object value) {
+		if (capacity > 0) {
+			entries.put(keyOf(raceID, classification), new Entry(raceVersion, value));
+		}
+	}
+
+	/** Removes every classification held for a race
+	 *
+	 * @param raceID ID of the race that has been removed
+	 */
+	public synchronized void removeRace(int raceID) {
+		for (Classification classification : Classification.values()) {
+			entries.remove(keyOf(raceID, classification));
+		}
+	}
+
+	/** Removes every classification held, the hit and miss counts are kept
+	 *
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/** Combines a race ID and a classification into a single key
+	 *
+	 * @param raceID ID of the race
+	 * @param classification Classification of the race
+	 * @return Key of the entry
+	 */
+	private static long keyOf(int raceID, Classification classification) {
+		return ((long) raceID << 8) | classification.ordinal();
+	}
+}
@@ -19,14 +19,15 @@ public class Climb extends Segment {
 
 	/** Climb constructor
 	 *
+	 * @param segmentID ID given to the climb by the portal
 	 * @param location Location of finish of climb
 	 * @param type Type of climb
 	 * @param averageGradient Average gradient of climb
 	 * @param length Length of climb
 	 */
-	public Climb(double location, SegmentType type, double averageGradient
+	public Climb(int segmentID, double location, SegmentType type, double averageGradient
 	, double length) {
-		super(location, type);
+		super(segmentID, location, type);
 
 		assert(length >= 0)
 				: "Length is a negative number, validity of length has not been checked";
@@ -39,6 +40,9 @@ public class Climb extends Segment {
 	public double getAverageGradient() { return averageGradient; }
 	public double getLength() { return length; }
 
+	@Override
+	public int getScoringRanks() { return getClimbPoints().length; }
+
 	// setters
 	public void setAverageGradient( double averageGradient) {
 		this.averageGradient = averageGradient;
@@ -50,9 +54,25 @@ public class Climb extends Segment {
 	/** Chooses which points to assign to a rider given the climb type
 	 */
 	public void assignClimbPoints() {
+		super.assignPoints(getClimbPoints());
+	}
+
+	/** Adds the mountain points of each scoring rider to their running total
+	 *
+	 * @param totals Mountain points of each rider keyed by rider ID, added to
+	 */
+	public void addClimbPointsTo(IntIntHashMap totals) {
+		super.addPointsTo(getClimbPoints(), totals);
+	}
+
+	/** Gets the points for each rank on the climb
+	 *
+	 * @return Points for each rank, based on the climb type
+	 */
+	private int[] getClimbPoints() {
 
 		// Switch case determines which points are applicable for climb
-		int[] chosenResults = switch (super.getType()) {
+		return switch (super.getType()) {
 			case C4 -> C4;
 			case C3 -> C3;
 			case C2 -> C2;
@@ -60,8 +80,6 @@ public class Climb extends Segment {
 			case HC -> HC;
 			default -> new int[0];
 		};
-
-		super.assignPoints(chosenResults);
 	}
 
 
@@ -0,0 +1,940 @@
+package cycling;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntSupplier;
+
+/**
+ * ConcurrentCyclingPortal is a CyclingPortal that can be shared between threads.
+ * Operations that add or remove teams, riders, races, stages or segments change the
+ * registries, so they hold the registry lock exclusively. Every other operation works
+ * on a single race, so it holds the registry lock shared along with the lock of the
+ * race. Race locks are striped, so operations on different races run at the same time.
+ * Reads take the race lock as well, as classifications are brought up to date when
+ * they are read.
+ * Locks are always taken registry first, then a single race, so they cannot deadlock.
+ * The answers to read queries are published along with the version they were worked
+ * out at. A read first tries to serve the published answer without locking, checking
+ * nothing has changed with optimistic stamps, and only locks if something has.
+ * The portal can also publish immutable snapshots of itself, which readers can query
+ * without any locking at all.
+ *
+ * @version 1.0
+ *
+ */
+// Held locks are only opened to be released when the try block ends, they are never read inside it
+@SuppressWarnings("try")
+public class ConcurrentCyclingPortal extends CyclingPortal {
+
+	// Number of race locks, a power of two so a race ID can be masked onto a stripe
+	private static final int STRIPES = 64;
+
+	// Held shared to read the registries, and exclusively to change them
+	private final StampedLock registryLock = new StampedLock();
+	// Races whose IDs share a stripe share a lock
+	private final StampedLock[] raceLocks = new StampedLock[STRIPES];
+	// Counts every successful change to the registries, only written while holding them exclusively
+	private int registryVersion = 0;
+
+	// Whether reads try published answers before locking
+	private volatile boolean optimisticReads = true;
+	// Published answers of read queries, keyed by query and the ID of the race or stage
+	private final ConcurrentHashMap<Long, Published> publishedReads = new ConcurrentHashMap<>();
+
+	/** Read queries whose answers are published
+	 *
+	 */
+	private enum Query {
+		RACE_STAGES,
+		STAGE_RANKS,
+		STAGE_ADJUSTED_TIMES,
+		GENERAL_TIMES,
+		GENERAL_RANKS,
+		POINTS,
+		MOUNTAIN_POINTS,
+		POINTS_RANKS,
+		MOUNTAIN_RANKS
+	}
+
+	/** Answer to a read query, which is current while the version it was worked out at
+	 *  is. The answer is never changed once published
+	 *
+	 * @param raceID ID of the race whose lock guards the answer
+	 * @param currentVersion Reads the current version of what the answer came from
+	 * @param version Version the answer was worked out at
+	 * @param value Answer to the query
+	 */
+	private record Published(int raceID, IntSupplier currentVersion, int version, Object value) {}
+
+	// Every race, and the race of each stage, segment and race name, read without locking to
+	// route operations to their race. Only changed while the registries are held exclusively
+	private final Set<Integer> raceRoutes = ConcurrentHashMap.newKeySet();
+	private final ConcurrentHashMap<Integer, Integer> stageRoutes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, Integer> segmentRoutes = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Integer> raceNameRoutes = new ConcurrentHashMap<>();
+
+	// Latest published snapshot, and whether a new one is published after every write
+	private final AtomicReference<PortalSnapshot> snapshot = new AtomicReference<>(PortalSnapshot.EMPTY);
+	private volatile boolean snapshotPublishing = false;
+	// Registry version the portal was last erased or loaded at, IDs are reused afterwards so
+	// nothing in a snapshot from before then can be reused
+	private int resetVersion = 0;
+
+	/** Change a write to the registries makes to the published snapshot
+	 *
+	 */
+	@FunctionalInterface
+	private interface SnapshotChange {
+		PortalSnapshot apply(PortalSnapshot previous, int structureVersion);
+	}
+
+	/** ConcurrentCyclingPortal constructor
+	 *
+	 */
+	public ConcurrentCyclingPortal() {
+		for (int i = 0 ; i < STRIPES ; i++) {
+			raceLocks[i] = new StampedLock();
+		}
+	}
+
+	/** Locks held by an operation, released in reverse order when closed
+	 *
+	 */
+	private static final class HeldLocks implements AutoCloseable {
+
+		private final Lock registry;
+		private final Lock race;
+
+		private HeldLocks(Lock registry, Lock race) {
+			this.registry = registry;
+			this.race = race;
+		}
+
+		@Override
+		public void close() {
+			if (race != null) {
+				race.unlock();
+			}
+			registry.unlock();
+		}
+	}
+
+	/** Takes the registry lock exclusively, for operations that change the registries
+	 *
+	 * @return Locks to release once the operation is done
+	 */
+	private HeldLocks lockRegistries() {
+		Lock registry = registryLock.asWriteLock();
+		registry.lock();
+		return new HeldLocks(registry, null);
+	}
+
+	/** Takes the registry lock shared, for operations that only read the registries
+	 *
+	 * @return Locks to release once the operation is done
+	 */
+	private HeldLocks lockRegistriesShared() {
+		Lock registry = registryLock.asReadLock();
+		registry.lock();
+		return new HeldLocks(registry, null);
+	}
+
+	/** Takes the registry lock shared and the lock of a race
+	 *
+	 * @param raceId ID of the race the operation works on
+	 * @return Locks to release once the operation is done
+	 */
+	private HeldLocks lockRace(int raceId) {
+		Lock registry = registryLock.asReadLock();
+		registry.lock();
+		Lock race = raceLocks[stripeOf(raceId)].asWriteLock();
+		race.lock();
+		return new HeldLocks(registry, race);
+	}
+
+	/** Takes the registry lock shared and the lock of the race a stage is in. If the
+	 *  stage does not exist only the registry lock is taken, so the operation can throw
+	 *
+	 * @param stageId ID of the stage the operation works on
+	 * @return Locks to release once the operation is done
+	 */
+	private HeldLocks lockStage(int stageId) {
+		Lock registry = registryLock.asReadLock();
+		registry.lock();
+		// Stage cannot be removed while the registry lock is held shared
+		Stage stage = stageRegistry.get(stageId);
+		if (stage == null) {
+			return new HeldLocks(registry, null);
+		}
+		Lock race = raceLocks[stripeOf(stage.getRaceID())].asWriteLock();
+		race.lock();
+		return new HeldLocks(registry, race);
+	}
+
+	/** Checks if a race exists without locking, for routing an operation to it. The race
+	 *  may be removed before the operation runs, which then throws as usual
+	 *
+	 * @param raceId ID of the race
+	 * @return True if the ID matches to a race
+	 */
+	boolean isRaceRouted(int raceId) {
+		return raceRoutes.contains(raceId);
+	}
+
+	/** Gets the IDs of every race without locking, for routing an operation to all of them
+	 *
+	 * @return Set of race IDs, which follows races being created and removed
+	 */
+	Set<Integer> routedRaces() {
+		return Collections.unmodifiableSet(raceRoutes);
+	}
+
+	/** Finds the race a stage is in without locking, for routing an operation to its race.
+	 *  The stage may be removed before the operation runs, which then throws as usual
+	 *
+	 * @param stageId ID of the stage
+	 * @return ID of the race the stage is in
+	 * @throws IDNotRecognisedException If the ID does not match to any stage
+	 */
+	int findRaceOfStage(int stageId) throws IDNotRecognisedException {
+		Integer raceId = stageRoutes.get(stageId);
+		if (raceId == null) {
+			throw new IDNotRecognisedException("Stage with inputted ID does not exist");
+		}
+		return raceId;
+	}
+
+	/** Finds the race a segment is in without locking, for routing an operation to its race
+	 *
+	 * @param segmentId ID of the segment
+	 * @return ID of the race the segment is in
+	 * @throws IDNotRecognisedException If the ID does not match to any segment
+	 */
+	int findRaceOfSegment(int segmentId) throws IDNotRecognisedException {
+		Integer raceId = segmentRoutes.get(segmentId);
+		if (raceId == null) {
+			throw new IDNotRecognisedException("Segment with inputted ID does not exist");
+		}
+		return raceId;
+	}
+
+	/** Finds the ID of a race from its name without locking, for routing an operation to it
+	 *
+	 * @param name Name of the race
+	 * @return ID of the race
+	 * @throws NameNotRecognisedException If the name does not match to any race
+	 */
+	int findRaceOfName(String name) throws NameNotRecognisedException {
+		Integer raceId = name == null ? null : raceNameRoutes.get(name);
+		if (raceId == null) {
+			throw new NameNotRecognisedException("Race name does not match any race on the system");
+		}
+		return raceId;
+	}
+
+	/** Chooses whether reads try the published answers without locking first
+	 *
+	 * @param optimisticReads True to try published answers first
+	 */
+	public void setOptimisticReads(boolean optimisticReads) {
+		this.optimisticReads = optimisticReads;
+	}
+
+	/** Gets the published answer to a query if nothing it came from has changed. Stamps
+	 *  are taken before the answer is looked up, so a change made while it is being read
+	 *  is always caught by validating them
+	 *
+	 * @param query Query being answered
+	 * @param id ID of the race or stage the query is about
+	 * @return Published answer, or null if there is none or it may be out of date
+	 * @param <T> Type of the answer
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T readPublished(Query query, int id) {
+		if (!optimisticReads) {
+			return null;
+		}
+		long registryStamp = registryLock.tryOptimisticRead();
+		Published published = publishedReads.get(keyOf(query, id));
+		if (published == null) {
+			return null;
+		}
+		StampedLock raceLock = raceLocks[stripeOf(published.raceID())];
+		long raceStamp = raceLock.tryOptimisticRead();
+		boolean current = published.currentVersion().getAsInt() == published.version();
+		// Version is only trusted if no writer held either lock while it was read
+		if (current && raceLock.validate(raceStamp) && registryLock.validate(registryStamp)) {
+			return (T) published.value();
+		}
+		return null;
+	}
+
+	/** Publishes the answer to a query about a race, the race lock must be held
+	 *
+	 * @param query Query being answered
+	 * @param raceId ID of the race
+	 * @param value Answer, which must not be changed afterwards
+	 */
+	private void publishRace(Query query, int raceId, Object value) {
+		Race race = raceRegistry.get(raceId);
+		publishedReads.put(keyOf(query, raceId),
+				new Published(raceId, race::getRaceVersion, race.getRaceVersion(), value));
+	}
+
+	/** Publishes the answer to a query about a stage, the lock of its race must be held
+	 *
+	 * @param query Query being answered
+	 * @param stageId ID of the stage
+	 * @param value Answer, which must not be changed afterwards
+	 */
+	private void publishStage(Query query, int stageId, Object value) {
+		Stage stage = stageRegistry.get(stageId);
+		publishedReads.put(keyOf(query, stageId),
+				new Published(stage.getRaceID(), stage::getVersion, stage.getVersion(), value));
+	}
+
+	/** Combines a query and an ID into a single key
+	 *
+	 * @param query Query being answered
+	 * @param id ID of the race or stage
+	 * @return Key of the published answer
+	 */
+	private static long keyOf(Query query, int id) {
+		return ((long) id << 8) | query.ordinal();
+	}
+
+	/** Gets the latest published snapshot of the portal, which can be queried without
+	 *  locking and never changes
+	 *
+	 * @return Latest published snapshot
+	 */
+	public PortalSnapshot getSnapshot() { return snapshot.get(); }
+
+	/** Chooses whether a snapshot is published after every write. When off, snapshots are
+	 *  only published by publishSnapshot, so a batch of writes can be published at once
+	 *
+	 * @param snapshotPublishing True to publish a snapshot after every write
+	 */
+	public void setSnapshotPublishing(boolean snapshotPublishing) {
+		try (HeldLocks held = lockRegistries()) {
+			this.snapshotPublishing = snapshotPublishing;
+			if (snapshotPublishing) {
+				snapshot.set(rebuildSnapshot(snapshot.get(), registryVersion));
+			}
+		}
+	}
+
+	/** Publishes a snapshot of the portal as it is now. Only the races and stages that have
+	 *  changed since the last snapshot are copied, the rest are shared with it
+	 *
+	 */
+	public void publishSnapshot() {
+		try (HeldLocks held = lockRegistriesShared()) {
+			PortalSnapshot previous;
+			PortalSnapshot next;
+			// Races are copied one at a time under their own lock, and the copy is retried
+			// if another snapshot was published meanwhile, as it may hold newer races
+			do {
+				previous = snapshot.get();
+				PortalSnapshot reusable = reusableSnapshot(previous);
+				next = PortalSnapshot.build(registryVersion, races, teams, reusable, (race, previousRace) -> {
+					Lock raceLock = raceLocks[stripeOf(race.getRaceID())].asWriteLock();
+					raceLock.lock();
+					try {
+						return RaceSnapshot.of(race, previousRace);
+					} finally {
+						raceLock.unlock();
+					}
+				});
+			} while (!snapshot.compareAndSet(previous, next));
+		}
+	}
+
+	/** Counts a change to the registries and publishes a snapshot of it, while they are still
+	 *  held exclusively so no race can change or be copied meanwhile. Only called once the
+	 *  change has succeeded, so writes that throw or leave the registries alone do not stop
+	 *  the results of stages reaching the published snapshot
+	 *
+	 * @param change Applies the write to the snapshot from just before it, copying only what
+	 *  the write touched
+	 */
+	private void publishAfterRegistryWrite(SnapshotChange change) {
+		int previousVersion = registryVersion++;
+		if (!snapshotPublishing) {
+			return;
+		}
+		PortalSnapshot previous = snapshot.get();
+		// Change can only be applied to a snapshot of the registries as they were before the write
+		if (previous.getStructureVersion() == previousVersion) {
+			snapshot.set(change.apply(previous, registryVersion));
+		} else {
+			snapshot.set(rebuildSnapshot(previous, registryVersion));
+		}
+	}
+
+	/** Builds a snapshot of the whole portal, the registries must be held exclusively
+	 *
+	 * @param previous Snapshot last published
+	 * @param structureVersion Current version of the registries
+	 * @return Snapshot of the portal as it is now
+	 */
+	private PortalSnapshot rebuildSnapshot(PortalSnapshot previous, int structureVersion) {
+		return PortalSnapshot.build(structureVersion, races, teams, reusableSnapshot(previous), RaceSnapshot::of);
+	}
+
+	/** Gets the snapshot whose races and stages a new snapshot may reuse
+	 *
+	 * @param previous Snapshot last published
+	 * @return Previous snapshot, or an empty one if it is from before the portal was last
+	 *  erased or loaded
+	 */
+	private PortalSnapshot reusableSnapshot(PortalSnapshot previous) {
+		return previous.getStructureVersion() < resetVersion ? PortalSnapshot.EMPTY : previous;
+	}
+
+	/** Gets the change to the snapshot of a write that added or removed something in a race
+	 *
+	 * @param raceId ID of the race that has changed
+	 * @return Change replacing only that race
+	 */
+	private SnapshotChange raceChanged(int raceId) {
+		Race race = raceRegistry.get(raceId);
+		return (previous, version) -> previous.withRace(version, raceId,
+				RaceSnapshot.of(race, previous.getRaceSnapshot(raceId)));
+	}
+
+	/** Finds the races a rider has results in, which change when the rider is removed
+	 *
+	 * @param riderId ID of the rider
+	 * @param changed Races found so far, which the rider's races are added to
+	 */
+	private void collectRacesOfRider(int riderId, ArrayList<Race> changed) {
+		RiderEntry rider = riderRegistry.get(riderId);
+		if (rider != null) {
+			rider.getStagesWithResults().forEachValue(stage -> {
+				Race race = raceRegistry.get(stage.getRaceID());
+				if (!changed.contains(race)) {
+					changed.add(race);
+				}
+			});
+		}
+	}
+
+	/** Replaces the races whose results have changed in a snapshot
+	 *
+	 * @param next Snapshot to replace the races in
+	 * @param version Version of the registries
+	 * @param changed Races that have changed
+	 * @return Snapshot with the races replaced
+	 */
+	private static PortalSnapshot withRaces(PortalSnapshot next, int version, ArrayList<Race> changed) {
+		for (Race race : changed) {
+			RaceSnapshot previousRace = next.getRaceSnapshot(race.getRaceID());
+			next = next.withRace(version, race.getRaceID(), RaceSnapshot.of(race, previousRace));
+		}
+		return next;
+	}
+
+	/** Publishes a snapshot after the results of a stage have changed, copying only the
+	 *  race the stage is in. The lock of the race must be held
+	 *
+	 * @param stageId ID of the stage that has changed
+	 */
+	private void publishAfterStageWrite(int stageId) {
+		if (!snapshotPublishing) {
+			return;
+		}
+		Stage stage = stageRegistry.get(stageId);
+		Race race = raceRegistry.get(stage.getRaceID());
+		PortalSnapshot previous;
+		PortalSnapshot next;
+		do {
+			previous = snapshot.get();
+			// Snapshots made before the registries last changed are replaced by the next full publish
+			if (previous.getStructureVersion() != registryVersion) {
+				return;
+			}
+			RaceSnapshot raceSnapshot = RaceSnapshot.of(race, previous.getRaceSnapshot(race.getRaceID()));
+			next = previous.withRace(previous.getStructureVersion(), race.getRaceID(), raceSnapshot);
+		} while (!snapshot.compareAndSet(previous, next));
+	}
+
+	@Override
+	protected void unregisterRace(Race race) {
+		super.unregisterRace(race);
+		raceRoutes.remove(race.getRaceID());
+		raceNameRoutes.remove(race.getName(), race.getRaceID());
+	}
+
+	@Override
+	protected void unregisterStage(Stage stage) {
+		super.unregisterStage(stage);
+		stageRoutes.remove(stage.getStageID());
+		for (Segment segment : stage.getSegments()) {
+			segmentRoutes.remove(segment.getSegmentID());
+		}
+	}
+
+	@Override
+	protected void clearRegistries() {
+		super.clearRegistries();
+		// IDs are given out again from the start after an erase, so no old route is kept
+		raceRoutes.clear();
+		stageRoutes.clear();
+		segmentRoutes.clear();
+		raceNameRoutes.clear();
+	}
+
+	@Override
+	protected void rebuildRegistries() {
+		super.rebuildRegistries();
+		for (Race race : races) {
+			raceRoutes.add(race.getRaceID());
+			raceNameRoutes.put(race.getName(), race.getRaceID());
+			for (Stage stage : race.getStages()) {
+				stageRoutes.put(stage.getStageID(), race.getRaceID());
+				for (Segment segment : stage.getSegments()) {
+					segmentRoutes.put(segment.getSegmentID(), race.getRaceID());
+				}
+			}
+		}
+	}
+
+	/** Finds the stripe a race is locked by, using fibonacci hashing so consecutive IDs
+	 *  are spread across the stripes
+	 *
+	 * @param raceId ID of the race
+	 * @return Index of the race lock
+	 */
+	private static int stripeOf(int raceId) {
+		return (raceId * 0x9E3779B9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES));
+	}
+
+	@Override
+	public void setResultStorageMode(ResultStorageMode mode) {
+		try (HeldLocks held = lockRegistries()) {
+			super.setResultStorageMode(mode);
+		}
+	}
+
+	@Override
+	public void setParallelAggregation(boolean enabled, int threshold) {
+		try (HeldLocks held = lockRegistries()) {
+			super.setParallelAggregation(enabled, threshold);
+		}
+	}
+
+	@Override
+	public int[] getRaceIds() {
+		try (HeldLocks held = lockRegistriesShared()) {
+			return super.getRaceIds();
+		}
+	}
+
+	@Override
+	public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
+		try (HeldLocks held = lockRegistries()) {
+			int raceId = super.createRace(name, description);
+			raceRoutes.add(raceId);
+			raceNameRoutes.put(name, raceId);
+			publishAfterRegistryWrite(raceChanged(raceId));
+			return raceId;
+		}
+	}
+
+	@Override
+	public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRace(raceId)) {
+			return super.viewRaceDetails(raceId);
+		}
+	}
+
+	@Override
+	public void removeRaceById(int raceId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRegistries()) {
+			super.removeRaceById(raceId);
+			// Answers about removed races and stages would otherwise still be served
+			publishedReads.clear();
+			publishAfterRegistryWrite((previous, version) -> previous.withoutRace(version, raceId));
+		}
+	}
+
+	@Override
+	public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRegistriesShared()) {
+			return super.getNumberOfStages(raceId);
+		}
+	}
+
+	@Override
+	public int addStageToRace(int raceId, String stageName, String description, double length, LocalDateTime startTime,
+			StageType type)
+			throws IDNotRecognisedException, IllegalNameException, InvalidNameException, InvalidLengthException {
+		try (HeldLocks held = lockRegistries()) {
+			int stageId = super.addStageToRace(raceId, stageName, description, length, startTime, type);
+			stageRoutes.put(stageId, raceId);
+			publishAfterRegistryWrite(raceChanged(raceId));
+			return stageId;
+		}
+	}
+
+	@Override
+	public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+		int[] published = readPublished(Query.RACE_STAGES, raceId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockRegistriesShared()) {
+			int[] stageIds = super.getRaceStages(raceId);
+			// Stages of a race only change while the registries are held exclusively
+			int version = registryVersion;
+			publishedReads.put(keyOf(Query.RACE_STAGES, raceId),
+					new Published(raceId, () -> registryVersion, version, stageIds));
+			return stageIds.clone();
+		}
+	}
+
+	@Override
+	public double getStageLength(int stageId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRegistriesShared()) {
+			return super.getStageLength(stageId);
+		}
+	}
+
+	@Override
+	public void removeStageById(int stageId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRegistries()) {
+			Stage stage = stageRegistry.get(stageId);
+			super.removeStageById(stageId);
+			publishedReads.clear();
+			publishAfterRegistryWrite(raceChanged(stage.getRaceID()));
+		}
+	}
+
+	@Override
+	public int addCategorizedClimbToStage(int stageId, Double location, SegmentType type, Double averageGradient,
+			Double length) throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+			InvalidStageTypeException {
+		try (HeldLocks held = lockRegistries()) {
+			int segmentId = super.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+			int raceId = stageRegistry.get(stageId).getRaceID();
+			segmentRoutes.put(segmentId, raceId);
+			publishAfterRegistryWrite(raceChanged(raceId));
+			return segmentId;
+		}
+	}
+
+	@Override
+	public int addIntermediateSprintToStage(int stageId, double location) throws IDNotRecognisedException,
+			InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
+		try (HeldLocks held = lockRegistries()) {
+			int segmentId = super.addIntermediateSprintToStage(stageId, location);
+			int raceId = stageRegistry.get(stageId).getRaceID();
+			segmentRoutes.put(segmentId, raceId);
+			publishAfterRegistryWrite(raceChanged(raceId));
+			return segmentId;
+		}
+	}
+
+	@Override
+	public void removeSegment(int segmentId) throws IDNotRecognisedException, InvalidStageStateException {
+		try (HeldLocks held = lockRegistries()) {
+			SegmentEntry segment = segmentRegistry.get(segmentId);
+			super.removeSegment(segmentId);
+			segmentRoutes.remove(segmentId);
+			publishAfterRegistryWrite(raceChanged(segment.getStage().getRaceID()));
+		}
+	}
+
+	@Override
+	public void concludeStagePreparation(int stageId) throws IDNotRecognisedException, InvalidStageStateException {
+		try (HeldLocks held = lockStage(stageId)) {
+			super.concludeStagePreparation(stageId);
+			publishAfterStageWrite(stageId);
+		}
+	}
+
+	@Override
+	public int[] getStageSegments(int stageId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRegistriesShared()) {
+			return super.getStageSegments(stageId);
+		}
+	}
+
+	@Override
+	public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
+		try (HeldLocks held = lockRegistries()) {
+			int teamId = super.createTeam(name, description);
+			publishAfterRegistryWrite((previous, version) -> previous.withTeam(version, teamId));
+			return teamId;
+		}
+	}
+
+	@Override
+	public void removeTeam(int teamId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRegistries()) {
+			// Races the riders have results in are found before the results are removed
+			ArrayList<Race> changed = new ArrayList<>();
+			Team team = teamRegistry.get(teamId);
+			if (team != null) {
+				for (Rider rider : team.getRiders()) {
+					collectRacesOfRider(rider.getRiderID(), changed);
+				}
+			}
+			super.removeTeam(teamId);
+			publishAfterRegistryWrite((previous, version) ->
+					withRaces(previous.withoutTeam(version, teamId), version, changed));
+		}
+	}
+
+	@Override
+	public int[] getTeams() {
+		try (HeldLocks held = lockRegistriesShared()) {
+			return super.getTeams();
+		}
+	}
+
+	@Override
+	public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRegistriesShared()) {
+			return super.getTeamRiders(teamId);
+		}
+	}
+
+	@Override
+	public int createRider(int teamID, String name, int yearOfBirth)
+			throws IDNotRecognisedException, IllegalArgumentException {
+		try (HeldLocks held = lockRegistries()) {
+			int riderId = super.createRider(teamID, name, yearOfBirth);
+			publishAfterRegistryWrite((previous, version) -> previous.withRider(version, riderId, teamID));
+			return riderId;
+		}
+	}
+
+	@Override
+	public void removeRider(int riderId) throws IDNotRecognisedException {
+		// Rider can have results in any race, so every race is locked out
+		try (HeldLocks held = lockRegistries()) {
+			ArrayList<Race> changed = new ArrayList<>();
+			collectRacesOfRider(riderId, changed);
+			RiderEntry rider = riderRegistry.get(riderId);
+			super.removeRider(riderId);
+			publishAfterRegistryWrite((previous, version) ->
+					withRaces(previous.withoutRider(version, riderId, rider.getTeam()), version, changed));
+		}
+	}
+
+	@Override
+	public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints)
+			throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointsException,
+			InvalidStageStateException {
+		try (HeldLocks held = lockStage(stageId)) {
+			super.registerRiderResultsInStage(stageId, riderId, checkpoints);
+			publishAfterStageWrite(stageId);
+		}
+	}
+
+	@Override
+	public BatchRegistrationReport registerRiderResultsInStageBatch(int stageId, int[] riderIds,
+			LocalTime[][] checkpoints) throws IDNotRecognisedException, InvalidStageStateException {
+		try (HeldLocks held = lockStage(stageId)) {
+			BatchRegistrationReport report = super.registerRiderResultsInStageBatch(stageId, riderIds, checkpoints);
+			publishAfterStageWrite(stageId);
+			return report;
+		}
+	}
+
+	@Override
+	public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockStage(stageId)) {
+			return super.getRiderResultsInStage(stageId, riderId);
+		}
+	}
+
+	@Override
+	public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockStage(stageId)) {
+			return super.getRiderAdjustedElapsedTimeInStage(stageId, riderId);
+		}
+	}
+
+	@Override
+	public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockStage(stageId)) {
+			super.deleteRiderResultsInStage(stageId, riderId);
+			publishAfterStageWrite(stageId);
+		}
+	}
+
+	@Override
+	public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+		int[] published = readPublished(Query.STAGE_RANKS, stageId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockStage(stageId)) {
+			int[] ranks = super.getRidersRankInStage(stageId);
+			publishStage(Query.STAGE_RANKS, stageId, ranks);
+			return ranks.clone();
+		}
+	}
+
+	@Override
+	public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
+		LocalTime[] published = readPublished(Query.STAGE_ADJUSTED_TIMES, stageId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockStage(stageId)) {
+			LocalTime[] times = super.getRankedAdjustedElapsedTimesInStage(stageId);
+			publishStage(Query.STAGE_ADJUSTED_TIMES, stageId, times);
+			return times.clone();
+		}
+	}
+
+	@Override
+	public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockStage(stageId)) {
+			return super.getRidersPointsInStage(stageId);
+		}
+	}
+
+	@Override
+	public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockStage(stageId)) {
+			return super.getRidersMountainPointsInStage(stageId);
+		}
+	}
+
+	@Override
+	public void eraseCyclingPortal() {
+		try (HeldLocks held = lockRegistries()) {
+			super.eraseCyclingPortal();
+			publishedReads.clear();
+			resetVersion = registryVersion + 1;
+			publishAfterRegistryWrite(this::rebuildSnapshot);
+		}
+	}
+
+	@Override
+	public void saveCyclingPortal(String filename) throws IOException {
+		// Every race is written out, so none can change while saving
+		try (HeldLocks held = lockRegistries()) {
+			super.saveCyclingPortal(filename);
+		}
+	}
+
+	@Override
+	public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+		try (HeldLocks held = lockRegistries()) {
+			super.loadCyclingPortal(filename);
+			publishedReads.clear();
+			resetVersion = registryVersion + 1;
+			publishAfterRegistryWrite(this::rebuildSnapshot);
+		}
+	}
+
+	@Override
+	public void removeRaceByName(String name) throws NameNotRecognisedException {
+		try (HeldLocks held = lockRegistries()) {
+			Race race = raceNames.get(name);
+			super.removeRaceByName(name);
+			publishedReads.clear();
+			publishAfterRegistryWrite((previous, version) -> previous.withoutRace(version, race.getRaceID()));
+		}
+	}
+
+	@Override
+	public LocalTime[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
+		LocalTime[] published = readPublished(Query.GENERAL_TIMES, raceId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockRace(raceId)) {
+			LocalTime[] times = super.getGeneralClassificationTimesInRace(raceId);
+			publishRace(Query.GENERAL_TIMES, raceId, times);
+			return times.clone();
+		}
+	}
+
+	@Override
+	public Duration[] getGeneralClassificationDurationsInRace(int raceId) throws IDNotRecognisedException {
+		try (HeldLocks held = lockRace(raceId)) {
+			return super.getGeneralClassificationDurationsInRace(raceId);
+		}
+	}
+
+	@Override
+	public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException {
+		int[] published = readPublished(Query.POINTS, raceId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockRace(raceId)) {
+			int[] points = super.getRidersPointsInRace(raceId);
+			publishRace(Query.POINTS, raceId, points);
+			return points.clone();
+		}
+	}
+
+	@Override
+	public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
+		int[] published = readPublished(Query.MOUNTAIN_POINTS, raceId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockRace(raceId)) {
+			int[] points = super.getRidersMountainPointsInRace(raceId);
+			publishRace(Query.MOUNTAIN_POINTS, raceId, points);
+			return points.clone();
+		}
+	}
+
+	@Override
+	public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
+		int[] published = readPublished(Query.GENERAL_RANKS, raceId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockRace(raceId)) {
+			int[] ranks = super.getRidersGeneralClassificationRank(raceId);
+			publishRace(Query.GENERAL_RANKS, raceId, ranks);
+			return ranks.clone();
+		}
+	}
+
+	@Override
+	public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
+		int[] published = readPublished(Query.POINTS_RANKS, raceId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockRace(raceId)) {
+			int[] ranks = super.getRidersPointClassificationRank(raceId);
+			publishRace(Query.POINTS_RANKS, raceId, ranks);
+			return ranks.clone();
+		}
+	}
+
+	@Override
+	public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException {
+		int[] published = readPublished(Query.MOUNTAIN_RANKS, raceId);
+		if (published != null) {
+			return published.clone();
+		}
+		try (HeldLocks held = lockRace(raceId)) {
+			int[] ranks = super.getRidersMountainPointClassificationRank(raceId);
+			publishRace(Query.MOUNTAIN_RANKS, raceId, ranks);
+			return ranks.clone();
+		}
+	}
+}
@@ -1,10 +1,16 @@
 package cycling;
 
 import java.io.*;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import cycling.ClassificationCache.Classification;
 
 /**
  * CyclingPortal is a compiling, functioning implementor
@@ -20,6 +26,100 @@ public class CyclingPortal implements CyclingPortalInterface {
 	protected ArrayList<Team> teams = new ArrayList<>();
 	protected ArrayList<Race> races = new ArrayList<>();
 
+	// Registries map IDs to the objects on the portal, so lookups do not search the lists
+	protected IntHashMap<Race> raceRegistry = new IntHashMap<>();
+	protected IntHashMap<Stage> stageRegistry = new IntHashMap<>();
+	// Segment registry also holds the stage each segment is in
+	protected IntHashMap<SegmentEntry> segmentRegistry = new IntHashMap<>();
+	protected IntHashMap<Team> teamRegistry = new IntHashMap<>();
+	// Rider registry also holds the team each rider belongs to
+	protected IntHashMap<RiderEntry> riderRegistry = new IntHashMap<>();
+
+	// Name indexes, names must be unique across the whole portal for each kind of object
+	protected HashMap<String, Race> raceNames = new HashMap<>();
+	protected HashSet<String> stageNames = new HashSet<>();
+	protected HashSet<String> teamNames = new HashSet<>();
+
+	// How stages and segments created on the portal store their results
+	protected ResultStorageMode resultStorageMode = ResultStorageMode.TREE;
+
+	public ResultStorageMode getResultStorageMode() { return resultStorageMode; }
+
+	/** Chooses how stages and segments created from now on store their results,
+	 *  columnar storage holds results as primitives and suits very large fields
+	 *
+	 * @param mode Storage to use for new stages and segments
+	 */
+	public void setResultStorageMode(ResultStorageMode mode) { this.resultStorageMode = mode; }
+
+	// Whether races read changed stages in parallel, and how many results they need to do so
+	protected boolean parallelAggregation = false;
+	protected int parallelAggregationThreshold = 20_000;
+
+	public boolean isParallelAggregation() { return parallelAggregation; }
+
+	public int getParallelAggregationThreshold() { return parallelAggregationThreshold; }
+
+	/** Chooses whether races read the stages that have changed in parallel, on the common
+	 *  fork join pool, when building their classifications
+	 *
+	 * @param enabled True to read stages in parallel
+	 * @param threshold Number of results in the changed stages below which they are still
+	 *                  read one at a time
+	 */
+	public void setParallelAggregation(boolean enabled, int threshold) {
+		this.parallelAggregation = enabled;
+		this.parallelAggregationThreshold = threshold;
+		for (Race race : races) {
+			race.setParallelThreshold(getRaceParallelThreshold());
+		}
+	}
+
+	// IDs are handed out by each portal, so portals in the same JVM do not share them
+	protected final IdAllocator teamIds = new IdAllocator(1);
+	protected final IdAllocator riderIds = new IdAllocator(1);
+	protected final IdAllocator raceIds = new IdAllocator(1);
+	protected final IdAllocator stageIds = new IdAllocator(1);
+	protected final IdAllocator segmentIds = new IdAllocator(1);
+
+	/** Sets how many IDs each thread reserves at a time when creating objects. Above one,
+	 *  threads creating objects at the same time do not contend for IDs, but IDs are no
+	 *  longer handed out in order
+	 *
+	 * @param blockSize Number of IDs reserved at a time, 1 hands them out in order
+	 */
+	public void setIdBlockSize(int blockSize) {
+		teamIds.setBlockSize(blockSize);
+		riderIds.setBlockSize(blockSize);
+		raceIds.setBlockSize(blockSize);
+		stageIds.setBlockSize(blockSize);
+		segmentIds.setBlockSize(blockSize);
+	}
+
+	// Classifications already worked out for each race, served until the race changes
+	protected ClassificationCache classificationCache = new ClassificationCache(256);
+
+	public long getClassificationCacheHits() { return classificationCache.getHits(); }
+
+	public long getClassificationCacheMisses() { return classificationCache.getMisses(); }
+
+	/** Sets how many race classifications are cached across every race, the least recently
+	 *  used are evicted once the cache is full
+	 *
+	 * @param capacity Maximum number of classifications cached, 0 turns caching off
+	 */
+	public void setClassificationCacheCapacity(int capacity) {
+		classificationCache.setCapacity(capacity);
+	}
+
+	/** Gets the threshold races are given, depending on whether parallel reads are enabled
+	 *
+	 * @return Number of changed results at which a race reads stages in parallel
+	 */
+	private int getRaceParallelThreshold() {
+		return parallelAggregation ? parallelAggregationThreshold : Integer.MAX_VALUE;
+	}
+
 	@Override
 	public int[] getRaceIds() {
 
@@ -37,19 +137,17 @@ public class CyclingPortal implements CyclingPortalInterface {
 	@Override
 	public int createRace(String name, String description) throws IllegalNameException, InvalidNameException {
 
-		// Check if the name is legal (not a duplicate)
-		String[] raceNames = new String[races.size()];
-		for (int i = 0; i < races.size(); i++) {
-			raceNames[i] = races.get(i).getName();
-		}
 		//Checks the name is unique
-		legalNameCheck(raceNames, name);
+		legalNameCheck(raceNames.keySet(), name);
 		// Checks if name should throw an invalid name exception
 		validNameCheck(name);
 
 		// New race is created
-		Race newRace = new Race(name, description);
+		Race newRace = new Race(raceIds.next(), name, description);
+		newRace.setParallelThreshold(getRaceParallelThreshold());
 		races.add(newRace);
+		raceRegistry.put(newRace.getRaceID(), newRace);
+		raceNames.put(name, newRace);
 		return newRace.getRaceID();
 	}
 
@@ -68,6 +166,8 @@ public class CyclingPortal implements CyclingPortalInterface {
 		Race raceToDelete = findRaceWithID(raceId);
 		// Removes race from list of races
 		races.remove(raceToDelete);
+		unregisterRace(raceToDelete);
+		classificationCache.removeRace(raceId);
 	}
 
 	@Override
@@ -90,30 +190,19 @@ public class CyclingPortal implements CyclingPortalInterface {
 		assert (stageName != null)
 				: "Stage name is null, validity check did not work.";
 		// Check if the name is legal (not a duplicate)
-		// Has to check every stage name on the system, so loops through races
-		ArrayList<String> names = new ArrayList<>();
-		for (Race raceWithStageNames : races) {
-			ArrayList<Stage> stages = raceWithStageNames.getStages();
-			// Loops through all stages and gets their names
-			for(Stage stageWithName : stages) {
-				names.add(stageWithName.getName());
-			}
-		}
-		// Converts to an array to check
-		String[] stageNamesArray = new String[names.size()];
-		for (int i = 0; i < names.size(); i++) {
-			stageNamesArray[i] = names.get(i);
-		}
-		// Function checks stage name
-		legalNameCheck(stageNamesArray, stageName);
+		// Stage names are unique across every race on the system
+		legalNameCheck(stageNames, stageName);
 		// Checks length is 5 or greater
 		if (length < 5) {
 			throw new InvalidLengthException("Length of stage is too short, needs to be greater than 5km");
 		}
 
 		// Creates the new stage and places it into the corresponding race
-		Stage newStage = new Stage(stageName, description, length, startTime, type);
+		Stage newStage = new Stage(stageIds.next(), stageName, description, length, startTime, type);
+		newStage.setStorageMode(resultStorageMode);
 		chosenRace.addStage(newStage);
+		stageRegistry.put(newStage.getStageID(), newStage);
+		stageNames.add(stageName);
 
 		return newStage.getStageID();
 
@@ -140,21 +229,13 @@ public class CyclingPortal implements CyclingPortalInterface {
 	@Override
 	public void removeStageById(int stageId) throws IDNotRecognisedException {
 
-		boolean found = false;
-		// Loops through races to find stage
-		for (Race raceToCheck : races) {
-			for (Stage stage : raceToCheck.getStages()) {
-				// As stage contains all info about results/segments, only stage needs to be removed
-				if (stageId == stage.getStageID()) {
-					raceToCheck.removeStage(stageId);
-					found = true;
-					break;
-				}
-			}
-		}
-		if (!found) {
+		Stage stageToRemove = stageRegistry.get(stageId);
+		if (stageToRemove == null) {
 			throw new IDNotRecognisedException("stage ID doesnt exist, unable to remove stage");
 		}
+		// As stage contains all info about results/segments, only stage needs to be removed
+		raceRegistry.get(stageToRemove.getRaceID()).removeStage(stageId);
+		unregisterStage(stageToRemove);
 
 	}
 
@@ -186,8 +267,11 @@ public class CyclingPortal implements CyclingPortalInterface {
 		}
 
 		// New climb is created
-		Climb newClimb = new Climb(location, type, length, averageGradient);
+		Climb newClimb = new Climb(segmentIds.next(), location, type, length, averageGradient);
+		newClimb.setStorageMode(resultStorageMode);
 		stage.addSegment(newClimb);
+		markRaceChanged(stage);
+		segmentRegistry.put(newClimb.getSegmentID(), new SegmentEntry(stage, newClimb));
 		return newClimb.getSegmentID();
 
 	}
@@ -211,9 +295,12 @@ public class CyclingPortal implements CyclingPortalInterface {
 		}
 
 		// Adds new sprint to the stage
-		Sprint newSprint = new Sprint(location);
+		Sprint newSprint = new Sprint(segmentIds.next(), location);
+		newSprint.setStorageMode(resultStorageMode);
 
 		stageForSegment.addSegment(newSprint);
+		markRaceChanged(stageForSegment);
+		segmentRegistry.put(newSprint.getSegmentID(), new SegmentEntry(stageForSegment, newSprint));
 
 		return newSprint.getSegmentID();
 	}
@@ -221,36 +308,24 @@ public class CyclingPortal implements CyclingPortalInterface {
 	@Override
 	public void removeSegment(int segmentId) throws IDNotRecognisedException, InvalidStageStateException {
 
-		boolean found = false;
-		// Search all races
-		for (Race raceToCheck : races) {
-			// Search all stages
-			for (Stage stageToCheck : raceToCheck.getStages()) {
-				// Once segment found remove it
-				for (Segment segmentToCheck : stageToCheck.getSegments()) {
-
-					if (segmentToCheck.getSegmentID() == segmentId) {
-						// Check stage state
-						if (stageToCheck.getState() == StageState.WAITING_FOR_RESULTS) {
-							throw new InvalidStageStateException("Stage is waiting for results, cannot remove segment");
-						} else {
-
-							assert (stageToCheck.getState() == StageState.PREPARING)
-									: "Stage state is not in preparing phase.";
-
-							// Removes segment
-							stageToCheck.removeSegment(segmentId);
-							found = true;
-							break;
-						}
-					}
-				}
-			}
-		}
-		// If ID not on system exception thrown
-		if (!found) {
-			throw new IDNotRecognisedException("Given ID does not correspond to any segment, could not remove");
+		// Registry gives the segment along with its stage
+		SegmentEntry segmentToRemove = findSegmentWithID(segmentId);
+		Stage stageToCheck = segmentToRemove.getStage();
+
+		// Check stage state
+		if (stageToCheck.getState() == StageState.WAITING_FOR_RESULTS) {
+			throw new InvalidStageStateException("Stage is waiting for results, cannot remove segment");
 		}
+
+		assert (stageToCheck.getState() == StageState.PREPARING)
+				: "Stage state is not in preparing phase.";
+		assert (stageToCheck.getSegments().get(segmentToRemove.getPosition()) == segmentToRemove.getSegment())
+				: "Segment position does not match its stage";
+
+		// Removes segment
+		stageToCheck.removeSegmentAt(segmentToRemove.getPosition());
+		segmentRegistry.remove(segmentId);
+		markRaceChanged(stageToCheck);
 	}
 
 	@Override
@@ -263,6 +338,7 @@ public class CyclingPortal implements CyclingPortalInterface {
 		}
 		// Sets stage state to waiting for results
 		stageToChange.setState(StageState.WAITING_FOR_RESULTS);
+		markRaceChanged(stageToChange);
 
 	}
 
@@ -278,19 +354,19 @@ public class CyclingPortal implements CyclingPortalInterface {
 	public int createTeam(String name, String description) throws IllegalNameException, InvalidNameException {
 
 		// checks if team name already in the system
-		for (Team teamToCheck : teams) {
-			if (teamToCheck.getTeamName().equals(name)) {
-				throw new IllegalNameException("Name already exists on the system, please choose another name");
-			}
+		if (teamNames.contains(name)) {
+			throw new IllegalNameException("Name already exists on the system, please choose another name");
 		}
 		// Checks if name is valid
 		validNameCheck(name);
 		assert (name != null)
 				: "Team name is null, validity check did not work.";
 		// create a new team
-		Team newTeam = new Team(name, description);
+		Team newTeam = new Team(teamIds.next(), name, description);
 		// add it to our list of teams
 		teams.add(newTeam);
+		teamRegistry.put(newTeam.getTeamID(), newTeam);
+		teamNames.add(name);
 		// return the team ID
 		return newTeam.getTeamID();
 	}
@@ -301,20 +377,14 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// checks team exists on system
 		Team teamToRemove = findTeamWithID(teamId);
 		// As riders are stored inside of teams, all results for riders need to be removed
-		// Loop through riders
+		// Loop through riders, only visiting the stages each rider has results in
 		for (Rider riderToCheck : teamToRemove.getRiders()) {
-			// For each rider loop through races and remove results
-			int riderId = riderToCheck.getRiderID();
-			// Goes through each race
-			for (Race raceToCheck : races) {
-				// Goes through each stage and removes results
-				for (Stage stageToCheck : raceToCheck.getStages()) {
-					// Removes results
-					stageToCheck.removeAllRiderResults(riderId);
-				}
-			}
+			RiderEntry rider = riderRegistry.get(riderToCheck.getRiderID());
+			rider.getStagesWithResults().forEachValue(this::markRaceChanged);
+			rider.removeAllResults();
 		}
 		teams.remove(teamToRemove);
+		unregisterTeam(teamToRemove);
 	}
 
 	@Override
@@ -353,9 +423,10 @@ public class CyclingPortal implements CyclingPortalInterface {
 
 		Team teamToAddRider = findTeamWithID(teamID);
 		// create a new rider
-		Rider newRider = new Rider(teamID, name, yearOfBirth);
+		Rider newRider = new Rider(riderIds.next(), teamID, name, yearOfBirth);
 		// places inside designated team
 		teamToAddRider.addRider(newRider);
+		riderRegistry.put(newRider.getRiderID(), new RiderEntry(teamToAddRider, newRider));
 
 
 		return newRider.getRiderID();
@@ -364,40 +435,16 @@ public class CyclingPortal implements CyclingPortalInterface {
 	@Override
 	public void removeRider(int riderId) throws IDNotRecognisedException {
 
-		boolean found = false;
-		// loop through all teams
-		for (Team teamToCheck : teams) {
-			// return rider ID
-			int[] riderIDs = teamToCheck.returnRiderIDs();
-
-			for (int ID : riderIDs) {
-				// if rider ID in list
-				if (ID == riderId) {
-					// remove rider in team
-					teamToCheck.removeRider(riderId);
-					found = true;
-					break;
-				}
-			}
-		}
-		if (!found) {
+		// Registry gives the team the rider is stored in
+		RiderEntry riderToRemove = riderRegistry.remove(riderId);
+		if (riderToRemove == null) {
 			throw new IDNotRecognisedException("Rider ID does not exist could not remove rider");
 		}
-		// Rider results are removed from the system
-		else {
-			// Goes through each race
-			for (Race raceToCheck : races) {
-				// Goes through each stage and removes results
-				for (Stage stageToCheck : raceToCheck.getStages()) {
-					// Removes results
-					stageToCheck.removeAllRiderResults(riderId);
-
-					assert(stageToCheck.getResult(riderId) == null)
-							: "Rider result has not been properly deleted";
-
-				}
-			}
-		}
+		// remove rider in team
+		riderToRemove.getTeam().removeRider(riderId);
+		// Rider results are removed from the stages the rider has results in
+		riderToRemove.getStagesWithResults().forEachValue(this::markRaceChanged);
+		riderToRemove.removeAllResults();
 	}
 
 	@Override
@@ -406,7 +453,7 @@ public class CyclingPortal implements CyclingPortalInterface {
 			InvalidStageStateException {
 
 		// Checks the entered rider Id is valid
-		checkRiderID(riderId);
+		RiderEntry rider = findRiderWithID(riderId);
 		// Stage ID is checked, and correct object is gotten
 		Stage stageToCheck = findStageWithID(stageId);
 		// Any exceptions are checked
@@ -424,7 +471,73 @@ public class CyclingPortal implements CyclingPortalInterface {
 
 			// Placed into stage class and put into respective stages
 			stageToCheck.processResults(riderId, checkpoints);
+			rider.addStageWithResults(stageToCheck);
+			markRaceChanged(stageToCheck);
+		}
+	}
+
+	/** Registers the results of many riders in a stage at once. Every row is validated
+	 *  before anything is registered, then the stage and its segments sort the new results
+	 *  once and the stage is adjusted once. Rows that would have thrown an exception if
+	 *  registered on their own are rejected and reported, without stopping the other rows.
+	 *
+	 * @param stageId The ID of the stage the results are being added to
+	 * @param riderIds The IDs of the riders, one per row
+	 * @param checkpoints The checkpoint times of each rider, one array per row
+	 * @return Report of how many rows were registered and why any were rejected
+	 * @throws IDNotRecognisedException If the ID does not match to any stage in the system
+	 * @throws InvalidStageStateException If the stage is not waiting for results
+	 */
+	public BatchRegistrationReport registerRiderResultsInStageBatch(int stageId, int[] riderIds,
+			LocalTime[][] checkpoints) throws IDNotRecognisedException, InvalidStageStateException {
+
+		if (riderIds.length != checkpoints.length) {
+			throw new IllegalArgumentException("Number of riders does not match the number of checkpoint rows");
+		}
+		// Stage ID is checked, and correct object is gotten
+		Stage stageToCheck = findStageWithID(stageId);
+		if (stageToCheck.getState() == StageState.PREPARING) {
+			throw new InvalidStageStateException("Stage is still being prepared, could not add results");
+		}
+
+		BatchRegistrationReport report = new BatchRegistrationReport();
+		int expectedCheckpoints = stageToCheck.getSegments().size() + 2;
+		// Rows that pass validation, and the row each rider is on
+		int[] validRiders = new int[riderIds.length];
+		LocalTime[][] validCheckpoints = new LocalTime[riderIds.length][];
+		RiderEntry[] validEntries = new RiderEntry[riderIds.length];
+		IntIntHashMap rowOfRider = new IntIntHashMap();
+		int valid = 0;
+
+		// Every row is validated before any results are added
+		for (int row = 0 ; row < riderIds.length ; row++) {
+			try {
+				RiderEntry rider = findRiderWithID(riderIds[row]);
+				if (checkpoints[row] == null || checkpoints[row].length != expectedCheckpoints) {
+					throw new InvalidCheckpointsException("Number of checkpoints is not n+2 the number of segments");
+				} else if (!stageToCheck.checkNewResult(riderIds[row]) || rowOfRider.containsKey(riderIds[row])) {
+					throw new DuplicatedResultException("Result is a duplicate, rider already has results registered");
+				}
+				rowOfRider.put(riderIds[row], row);
+				validRiders[valid] = riderIds[row];
+				validCheckpoints[valid] = checkpoints[row];
+				validEntries[valid] = rider;
+				valid++;
+			} catch (IDNotRecognisedException | InvalidCheckpointsException | DuplicatedResultException e) {
+				report.addFailure(row, e);
+			}
+		}
+
+		// Valid rows are all placed into the stage together
+		stageToCheck.processResultsBatch(Arrays.copyOf(validRiders, valid), Arrays.copyOf(validCheckpoints, valid));
+		for (int i = 0 ; i < valid ; i++) {
+			validEntries[i].addStageWithResults(stageToCheck);
 		}
+		report.setRegistered(valid);
+		if (valid > 0) {
+			markRaceChanged(stageToCheck);
+		}
+		return report;
 	}
 
 	@Override
@@ -454,11 +567,13 @@ public class CyclingPortal implements CyclingPortalInterface {
 	public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
 
 		// Checks the entered rider Id is valid
-		checkRiderID(riderId);
+		RiderEntry rider = findRiderWithID(riderId);
 		// Stage ID is checked, and correct object is gotten
 		Stage stageToCheck = findStageWithID(stageId);
 
 		stageToCheck.removeAllRiderResults(riderId);
+		rider.removeStageWithResults(stageId);
+		markRaceChanged(stageToCheck);
 	}
 
 	@Override
@@ -476,8 +591,7 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// Check the stage ID exists and outputs correct stage
 		Stage stageToCheck = findStageWithID(stageId);
 
-		stageToCheck.adjustRiderResults();
-		// Returns adjusted times
+		// Returns adjusted times, the stage adjusts them first if needed
 		return stageToCheck.getRankedAdjustedTimes();
 	}
 
@@ -504,13 +618,15 @@ public class CyclingPortal implements CyclingPortalInterface {
 
 		teams.clear();
 		races.clear();
+		clearRegistries();
+		classificationCache.clear();
 
 		// Resets the current IDs
-		Team.setCurrentTeamID(1);
-		Rider.setCurrentRiderID(1);
-		Race.setCurrentRaceID(1);
-		Stage.setCurrentStageID(1);
-		Segment.setCurrentSegmentID(1);
+		teamIds.reset(1);
+		riderIds.reset(1);
+		raceIds.reset(1);
+		stageIds.reset(1);
+		segmentIds.reset(1);
 
 		assert(teams.size() == 0)
 				: "Portal has not been properly erased";
@@ -522,68 +638,51 @@ public class CyclingPortal implements CyclingPortalInterface {
 
 		// Gets all the Ids
 		int[] idsToSave = new int[5];
-		idsToSave[0] = Team.getCurrentTeamID();
-		idsToSave[1] = Rider.getCurrentRiderID();
-		idsToSave[2] = Race.getCurrentRaceID();
-		idsToSave[3] = Stage.getCurrentStageID();
-		idsToSave[4] = Segment.getCurrentSegmentID();
+		idsToSave[0] = teamIds.peek();
+		idsToSave[1] = riderIds.peek();
+		idsToSave[2] = raceIds.peek();
+		idsToSave[3] = stageIds.peek();
+		idsToSave[4] = segmentIds.peek();
 
 		// Create a store object
 		Store objectsToStore = new Store(teams, races, idsToSave);
-		// Save it in a serialised
-		FileOutputStream fileOut = new FileOutputStream(filename + ".ser");
-		ObjectOutputStream out = new ObjectOutputStream(fileOut);
-		out.writeObject(objectsToStore);
-		out.close();
-		fileOut.close();
+		// Written in the binary portal format rather than serialised, with its own extension
+		PortalFile.write(objectsToStore, PortalFile.fileToSave(filename));
 
 	}
 
 	@Override
 	public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
 
-
-		// Loads serialised file
-		FileInputStream fileIn = new FileInputStream(filename + ".ser");
-		ObjectInputStream in = new ObjectInputStream(fileIn);
-
-		Object obj = in.readObject();
-		if (obj instanceof Store objectsToLoad) {
-
-			teams = objectsToLoad.getTeams();
-			races = objectsToLoad.getRaces();
-
-			int[] idsToLoad = objectsToLoad.getIds();
-			// Sets IDs
-			Team.setCurrentTeamID(idsToLoad[0]);
-			Rider.setCurrentRiderID(idsToLoad[1]);
-			Race.setCurrentRaceID(idsToLoad[2]);
-			Stage.setCurrentStageID(idsToLoad[3]);
-			Segment.setCurrentSegmentID(idsToLoad[4]);
-
-		} else {
-			throw new ClassNotFoundException("File loaded does not contain classes for cycling portal");
-		}
+		// Loads the saved file, falling back to a file saved with the old .ser extension
+		// Files serialised by older versions are rejected with an IOException
+		Store objectsToLoad = PortalFile.read(PortalFile.fileToLoad(filename), resultStorageMode);
+
+		teams = objectsToLoad.getTeams();
+		races = objectsToLoad.getRaces();
+		rebuildRegistries();
+		classificationCache.clear();
+
+		int[] idsToLoad = objectsToLoad.getIds();
+		// Sets IDs
+		teamIds.reset(idsToLoad[0]);
+		riderIds.reset(idsToLoad[1]);
+		raceIds.reset(idsToLoad[2]);
+		stageIds.reset(idsToLoad[3]);
+		segmentIds.reset(idsToLoad[4]);
 	}
 
 	@Override
 	public void removeRaceByName(String name) throws NameNotRecognisedException {
 
-		boolean found = false;
-		// Checks all races on the system
-		for (Race raceToCheck : races) {
-			// If name is equal
-			if (raceToCheck.getName().equals(name)) {
-				// Race ID is gotten
-				races.remove(raceToCheck);
-				found = true;
-				break;
-			}
-		}
-
-		if(!found) {
+		// Race is found through the name index
+		Race raceToRemove = raceNames.get(name);
+		if (raceToRemove == null) {
 			throw new NameNotRecognisedException("Race name does not match any race on the system");
 		}
+		races.remove(raceToRemove);
+		unregisterRace(raceToRemove);
+		classificationCache.removeRace(raceToRemove.getRaceID());
 	}
 
 	@Override
@@ -592,11 +691,46 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// Find the correct race
 		Race raceWithResults = findRaceWithID(raceId);
 
-		// Go through each stage of the race adding up rider times
-		// For each rider, add the time to a new result object for that rider
-		raceWithResults.collectResults();
-		// Output ordering
-		return raceWithResults.getRankedAdjustedTimes();
+		LocalTime[] times = classificationCache.get(raceId, Classification.GENERAL_TIMES,
+				raceWithResults.getRaceVersion());
+		if (times == null) {
+			// Go through each stage of the race adding up rider times
+			// For each rider, add the time to a new result object for that rider
+			raceWithResults.collectResults();
+			// Output ordering
+			times = raceWithResults.getRankedAdjustedTimes();
+			classificationCache.put(raceId, Classification.GENERAL_TIMES, raceWithResults.getRaceVersion(), times);
+		}
+		// Callers are given a copy so the cached array cannot be changed
+		return times.clone();
+	}
+
+	/** Gets the general classification times of a race as durations. Unlike
+	 *  getGeneralClassificationTimesInRace these do not wrap after 24 hours, so they are
+	 *  correct for races lasting several days
+	 *
+	 * @param raceId The ID of the race being queried
+	 * @return Total adjusted elapsed times of the riders, sorted by the general classification
+	 * @throws IDNotRecognisedException If the ID does not match any race in the system
+	 */
+	public Duration[] getGeneralClassificationDurationsInRace(int raceId) throws IDNotRecognisedException {
+
+		// Find the correct race
+		Race raceWithResults = findRaceWithID(raceId);
+
+		Duration[] durations = classificationCache.get(raceId, Classification.GENERAL_DURATIONS,
+				raceWithResults.getRaceVersion());
+		if (durations == null) {
+			raceWithResults.collectResults();
+			long[] totalTimes = raceWithResults.getRankedAdjustedNanos();
+			durations = new Duration[totalTimes.length];
+			for (int i = 0 ; i < totalTimes.length ; i++) {
+				durations[i] = Duration.ofNanos(totalTimes[i]);
+			}
+			classificationCache.put(raceId, Classification.GENERAL_DURATIONS, raceWithResults.getRaceVersion(),
+					durations);
+		}
+		return durations.clone();
 	}
 
 	@Override
@@ -605,10 +739,13 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// Find the correct race
 		Race raceWithResults = findRaceWithID(raceId);
 
-		raceWithResults.collectResults();
-		raceWithResults.collectPoints();
-
-		return raceWithResults.getRacePoints();
+		int[] points = classificationCache.get(raceId, Classification.POINTS, raceWithResults.getRaceVersion());
+		if (points == null) {
+			raceWithResults.collectPoints();
+			points = raceWithResults.getRacePoints();
+			classificationCache.put(raceId, Classification.POINTS, raceWithResults.getRaceVersion(), points);
+		}
+		return points.clone();
 	}
 
 	@Override
@@ -617,11 +754,15 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// Find the correct race
 		Race raceWithResults = findRaceWithID(raceId);
 
-		// Results are recollected on each call, in case a new rider is addec
-		raceWithResults.collectResults();
-		raceWithResults.collectMountainPoints();
-
-		return raceWithResults.getRacePoints();
+		int[] points = classificationCache.get(raceId, Classification.MOUNTAIN_POINTS,
+				raceWithResults.getRaceVersion());
+		if (points == null) {
+			// Only stages with new results are read again
+			raceWithResults.collectMountainPoints();
+			points = raceWithResults.getRaceMountainPoints();
+			classificationCache.put(raceId, Classification.MOUNTAIN_POINTS, raceWithResults.getRaceVersion(), points);
+		}
+		return points.clone();
 	}
 
 	@Override
@@ -630,9 +771,13 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// Find the correct race
 		Race raceWithResults = findRaceWithID(raceId);
 
-		raceWithResults.collectResults();
-
-		return raceWithResults.getRankedRiders();
+		int[] ranks = classificationCache.get(raceId, Classification.GENERAL_RANKS, raceWithResults.getRaceVersion());
+		if (ranks == null) {
+			raceWithResults.collectResults();
+			ranks = raceWithResults.getRankedRiders();
+			classificationCache.put(raceId, Classification.GENERAL_RANKS, raceWithResults.getRaceVersion(), ranks);
+		}
+		return ranks.clone();
 	}
 
 	@Override
@@ -641,11 +786,14 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// Find the correct race
 		Race raceWithResults = findRaceWithID(raceId);
 
-		// Collect results and points
-		raceWithResults.collectResults();
-		raceWithResults.collectPoints();
-
-		return raceWithResults.getRidersRankedByPoints();
+		int[] ranks = classificationCache.get(raceId, Classification.POINTS_RANKS, raceWithResults.getRaceVersion());
+		if (ranks == null) {
+			// Collect results and points
+			raceWithResults.collectPoints();
+			ranks = raceWithResults.getRidersRankedByPoints();
+			classificationCache.put(raceId, Classification.POINTS_RANKS, raceWithResults.getRaceVersion(), ranks);
+		}
+		return ranks.clone();
 	}
 
 	@Override
@@ -654,25 +802,27 @@ public class CyclingPortal implements CyclingPortalInterface {
 		// Find the correct race
 		Race raceWithResults = findRaceWithID(raceId);
 
-		// Collect results and points
-		raceWithResults.collectResults();
-		raceWithResults.collectMountainPoints();
-
-		return raceWithResults.getRidersRankedByPoints();
+		int[] ranks = classificationCache.get(raceId, Classification.MOUNTAIN_RANKS,
+				raceWithResults.getRaceVersion());
+		if (ranks == null) {
+			// Collect results and points
+			raceWithResults.collectMountainPoints();
+			ranks = raceWithResults.getRidersRankedByMountainPoints();
+			classificationCache.put(raceId, Classification.MOUNTAIN_RANKS, raceWithResults.getRaceVersion(), ranks);
+		}
+		return ranks.clone();
 	}
 
 	/** Checks if a name already exists, so exception can be thrown
 	 *
-	 * @param names			List of names that already exist
+	 * @param names			Set of names that already exist
 	 * @param chosenName	Name input by the user
 	 * @throws IllegalNameException If name already matches one on the system
 	 */
-	public void legalNameCheck(String[] names, String chosenName) throws IllegalNameException{
-		//Compares name to list of names already in system
-		for (String name: names) {
-			if (Objects.equals(name, chosenName)) {
-				throw new IllegalNameException("Name entered already matches one on the system, enter a new name");
-			}
+	public void legalNameCheck(Set<String> names, String chosenName) throws IllegalNameException{
+		//Looks the name up in the set of names already in system
+		if (names.contains(chosenName)) {
+			throw new IllegalNameException("Name entered already matches one on the system, enter a new name");
 		}
 	}
 
@@ -705,20 +855,22 @@ public class CyclingPortal implements CyclingPortalInterface {
 	 * @throws IDNotRecognisedException If the ID does not match any rider on the system
 	 */
 	public void checkRiderID(int riderID) throws IDNotRecognisedException {
+		findRiderWithID(riderID);
+	}
 
-		boolean exists = false;
+	/** Finds and validates a Rider using a given ID
+	 *
+	 * @param riderID ID of the rider to find
+	 * @return Registry entry holding the rider and the team it is in
+	 * @throws IDNotRecognisedException If the ID does not match any rider on the system
+	 */
+	protected RiderEntry findRiderWithID(int riderID) throws IDNotRecognisedException {
 
-		for(Team teamToCheck : teams) {
-			for (int riderIDToCheck : teamToCheck.returnRiderIDs()) {
-				if (riderID == riderIDToCheck) {
-					exists = true;
-					break;
-				}
-			}
-		}
-		if (!exists) {
+		RiderEntry rider = riderRegistry.get(riderID);
+		if (rider == null) {
 			throw new IDNotRecognisedException("Rider with corresponding ID does not exist on system.");
 		}
+		return rider;
 	}
 
 	/** Finds and validates a Race using a given ID
@@ -730,13 +882,11 @@ public class CyclingPortal implements CyclingPortalInterface {
 	 */
 	public Race findRaceWithID(int raceID) throws IDNotRecognisedException {
 
-		for (Race raceToCheck : races) {
-			if (raceID == raceToCheck.getRaceID()) {
-				return raceToCheck;
-			}
+		Race race = raceRegistry.get(raceID);
+		if (race == null) {
+			throw new IDNotRecognisedException("Race with inputted ID does not exist");
 		}
-
-		throw new IDNotRecognisedException("Race with inputted ID does not exist");
+		return race;
 	}
 
 	/** Finds and validates a Stage using a given ID
@@ -749,16 +899,11 @@ public class CyclingPortal implements CyclingPortalInterface {
 	public Stage findStageWithID(int stageID) throws IDNotRecognisedException {
 
 		// Check stage ID exists, place in stage
-		// Search through each race
-		for (Race raceToCheck : races) {
-			// Check each stage
-			for (Stage stage : raceToCheck.getStages()) {
-				if (stageID == stage.getStageID()) {
-					return stage;
-				}
-			}
+		Stage stage = stageRegistry.get(stageID);
+		if (stage == null) {
+			throw new IDNotRecognisedException("Stage with inputted ID does not exist");
 		}
-		throw new IDNotRecognisedException("Stage with inputted ID does not exist");
+		return stage;
 	}
 
 	/** Finds and validates a Team using a given ID
@@ -773,12 +918,133 @@ public class CyclingPortal implements CyclingPortalInterface {
 		assert(teamID != 0)
 				: "Team ID is an invalid number";
 
-		for (Team teamToCheck : teams) {
-			if (teamID == teamToCheck.getTeamID()) {
-				return teamToCheck;
+		Team team = teamRegistry.get(teamID);
+		if (team == null) {
+			throw new IDNotRecognisedException("Race with inputted ID does not exist");
+		}
+		return team;
+	}
+
+	/** Finds and validates a Segment using a given ID
+	 *
+	 * @param segmentID ID of the segment to find
+	 * @return Registry entry holding the segment and the stage it is in
+	 * @throws IDNotRecognisedException If the ID does not match to any segment
+	 * 									in the system.
+	 */
+	protected SegmentEntry findSegmentWithID(int segmentID) throws IDNotRecognisedException {
+
+		SegmentEntry segment = segmentRegistry.get(segmentID);
+		if (segment == null) {
+			throw new IDNotRecognisedException("Segment with inputted ID does not exist");
+		}
+		return segment;
+	}
+
+	/** Records that a stage of a race has changed, so classifications cached for the race
+	 *  are no longer served
+	 *
+	 * @param stage Stage whose segments or results have changed
+	 */
+	protected void markRaceChanged(Stage stage) {
+		Race race = raceRegistry.get(stage.getRaceID());
+		if (race != null) {
+			race.markChanged();
+		}
+	}
+
+	/** Removes a race, and all the stages and segments inside of it, from the registries
+	 *
+	 * @param race Race that has been removed from the portal
+	 */
+	protected void unregisterRace(Race race) {
+		raceRegistry.remove(race.getRaceID());
+		raceNames.remove(race.getName());
+		for (Stage stage : race.getStages()) {
+			unregisterStage(stage);
+		}
+	}
+
+	/** Removes a stage, and all the segments inside of it, from the registries
+	 *
+	 * @param stage Stage that has been removed from the portal
+	 */
+	protected void unregisterStage(Stage stage) {
+		stageRegistry.remove(stage.getStageID());
+		stageNames.remove(stage.getName());
+		// Riders with results in the stage no longer index it
+		for (int riderID : stage.getRankedRiders()) {
+			RiderEntry rider = riderRegistry.get(riderID);
+			if (rider != null) {
+				rider.removeStageWithResults(stage.getStageID());
+			}
+		}
+		for (Segment segment : stage.getSegments()) {
+			segmentRegistry.remove(segment.getSegmentID());
+		}
+	}
+
+	/** Removes a team, and all the riders in it, from the registries
+	 *
+	 * @param team Team that has been removed from the portal
+	 */
+	protected void unregisterTeam(Team team) {
+		teamRegistry.remove(team.getTeamID());
+		teamNames.remove(team.getTeamName());
+		for (Rider rider : team.getRiders()) {
+			riderRegistry.remove(rider.getRiderID());
+		}
+	}
+
+	/** Empties every registry and name index on the portal
+	 *
+	 */
+	protected void clearRegistries() {
+		raceRegistry.clear();
+		stageRegistry.clear();
+		segmentRegistry.clear();
+		teamRegistry.clear();
+		riderRegistry.clear();
+		raceNames.clear();
+		stageNames.clear();
+		teamNames.clear();
+	}
+
+	/** Repopulates the registries and name indexes from the lists of teams and races, used after
+	 *  the lists have been replaced by a load
+	 *
+	 */
+	protected void rebuildRegistries() {
+		clearRegistries();
+		for (Race race : races) {
+			raceRegistry.put(race.getRaceID(), race);
+			raceNames.put(race.getName(), race);
+			race.setParallelThreshold(getRaceParallelThreshold());
+			for (Stage stage : race.getStages()) {
+				stage.setRaceID(race.getRaceID());
+				stageRegistry.put(stage.getStageID(), stage);
+				stageNames.add(stage.getName());
+				for (Segment segment : stage.getSegments()) {
+					segmentRegistry.put(segment.getSegmentID(), new SegmentEntry(stage, segment));
+				}
+			}
+		}
+		for (Team team : teams) {
+			teamRegistry.put(team.getTeamID(), team);
+			teamNames.add(team.getTeamName());
+			for (Rider rider : team.getRiders()) {
+				riderRegistry.put(rider.getRiderID(), new RiderEntry(team, rider));
 			}
 		}
-		throw new IDNotRecognisedException("Race with inputted ID does not exist");
+		// Riders are indexed against the stages they have results in
+		stageRegistry.forEachValue(stage -> {
+			for (int riderID : stage.getRankedRiders()) {
+				RiderEntry rider = riderRegistry.get(riderID);
+				if (rider != null) {
+					rider.addStageWithResults(stage);
+				}
+			}
+		});
 	}
 
 }
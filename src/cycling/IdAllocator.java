@@ -0,0 +1,94 @@
+package cycling;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Hands out the IDs of one kind of object on a portal. Each portal has its own
+ *  allocators, so portals in the same JVM number their objects independently.
+ *  IDs are taken from an atomic counter without locking. With a block size above one,
+ *  each thread reserves a block of IDs at a time and hands them out from the block, so
+ *  threads creating objects at the same time do not contend on the counter. IDs are then
+ *  unique but not in the order they were handed out.
+ *
+ */
+final class IdAllocator {
+
+	// Next ID that has not been handed out or reserved
+	private final AtomicInteger nextID;
+	// Number of IDs each thread reserves at a time, 1 hands them out one at a time
+	private volatile int blockSize = 1;
+	// Incremented when the allocator is reset, so blocks reserved before are dropped
+	private final AtomicInteger generation = new AtomicInteger();
+	// Block of IDs reserved by each thread
+	private final ThreadLocal<Block> blocks = new ThreadLocal<>();
+
+	/** Range of IDs reserved by a thread
+	 *
+	 */
+	private static final class Block {
+
+		private int next;
+		private final int end;
+		private final int generation;
+
+		private Block(int start, int end, int generation) {
+			this.next = start;
+			this.end = end;
+			this.generation = generation;
+		}
+	}
+
+	/** IdAllocator constructor
+	 *
+	 * @param firstID First ID to hand out
+	 */
+	public IdAllocator(int firstID) {
+		this.nextID = new AtomicInteger(firstID);
+	}
+
+	// getters
+	public int getBlockSize() { return blockSize; }
+
+	/** Gets the next ID that has not been handed out or reserved, which is where the
+	 *  allocator carries on from after a save and load
+	 *
+	 * @return Next unreserved ID
+	 */
+	public int peek() { return nextID.get(); }
+
+	// setters
+	public void setBlockSize(int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be at least 1");
+		}
+		this.blockSize = blockSize;
+	}
+
+	/** Hands out a new ID
+	 *
+	 * @return ID that has not been handed out before
+	 */
+	public int next() {
+
+		int size = blockSize;
+		if (size == 1) {
+			return nextID.getAndIncrement();
+		}
+		// Block is replaced once it has run out, or if the allocator has been reset since
+		Block block = blocks.get();
+		if (block == null || block.next == block.end || block.generation != generation.get()) {
+			int start = nextID.getAndAdd(size);
+			block = new Block(start, start + size, generation.get());
+			blocks.set(block);
+		}
+		return block.next++;
+	}
+
+	/** Restarts the allocator from an ID, dropping any blocks already reserved
+	 *
+	 * @param nextID Next ID to hand out
+	 */
+	public void reset(int nextID) {
+		generation.incrementAndGet();
+		this.nextID.set(nextID);
+	}
+}
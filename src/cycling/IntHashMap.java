@@ -0,0 +1,222 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/** Hash map keyed by primitive ints, used by the portal to resolve race, stage, segment,
+ *  team and rider IDs in constant time without boxing the keys.
+ *  Uses open addressing with linear probing, a slot is empty when its value is null.
+ *
+ * @param <V> Type of the values held in the map
+ */
+final class IntHashMap<V> implements Serializable {
+
+	// Table is resized once it is more than half full
+	private static final int MIN_CAPACITY = 16;
+
+	/** Action performed on each entry of the map
+	 *
+	 * @param <V> Type of the values held in the map
+	 */
+	interface EntryConsumer<V> {
+		void accept(int key, V value);
+	}
+
+	// private attributes
+	private int[] keys;
+	private Object[] values;
+	private int size = 0;
+	// Number of bits to shift the hash by, so it fits the table
+	private int shift;
+
+	/** Constructor for an empty map
+	 *
+	 */
+	public IntHashMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	// getters
+	public int size() { return size; }
+
+	public boolean isEmpty() { return size == 0; }
+
+	/** Gets the value stored against a key
+	 *
+	 * @param key Key to look up
+	 * @return Value for the key, or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int mask = keys.length - 1;
+		// Walks along the probe sequence until the key or an empty slot is found
+		for (int i = indexFor(key); values[i] != null; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return (V) values[i];
+			}
+		}
+		return null;
+	}
+
+	/** Checks if a key is held in the map
+	 *
+	 * @param key Key to check
+	 * @return True if the key has a value in the map
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/** Places a value into the map, replacing any value already held for the key
+	 *
+	 * @param key Key to store the value against
+	 * @param value Value to store, cannot be null
+	 * @return Previous value for the key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+
+		assert(value != null)
+				: "Null values cannot be placed in an IntHashMap";
+
+		int mask = keys.length - 1;
+		int i = indexFor(key);
+		while (values[i] != null) {
+			// Key already exists so value is replaced
+			if (keys[i] == key) {
+				V previous = (V) values[i];
+				values[i] = value;
+				return previous;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		// Keeps the load factor at or below a half
+		if (size * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		return null;
+	}
+
+	/** Removes a key from the map
+	 *
+	 * @param key Key to remove
+	 * @return Value that was held for the key, or null if the key was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int mask = keys.length - 1;
+		int i = indexFor(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				V removed = (V) values[i];
+				closeGap(i);
+				size--;
+				return removed;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/** Removes every entry in the map
+	 *
+	 */
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	/** Passes every value in the map to the given action, in no particular order
+	 *
+	 * @param action Action to perform on each value
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEachValue(Consumer<? super V> action) {
+		for (Object value : values) {
+			if (value != null) {
+				action.accept((V) value);
+			}
+		}
+	}
+
+	/** Passes every entry in the map to the given action, in no particular order
+	 *
+	 * @param action Action to perform on each entry
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(EntryConsumer<? super V> action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				action.accept(keys[i], (V) values[i]);
+			}
+		}
+	}
+
+	/** Finds the home slot of a key using fibonacci hashing
+	 *
+	 * @param key Key to hash
+	 * @return Index of the first slot to probe
+	 */
+	private int indexFor(int key) {
+		return (key * 0x9E3779B9) >>> shift;
+	}
+
+	/** Shifts later entries of a probe sequence back into a freed slot, so lookups
+	 *  never stop early at the gap a removal leaves
+	 *
+	 * @param gap Index of the slot that has been freed
+	 */
+	private void closeGap(int gap) {
+		int mask = keys.length - 1;
+		int i = gap;
+		while (true) {
+			i = (i + 1) & mask;
+			if (values[i] == null) {
+				break;
+			}
+			int home = indexFor(keys[i]);
+			// Entry can only move back if its home slot is not between the gap and itself
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+		values[gap] = null;
+	}
+
+	/** Creates empty tables of the given capacity
+	 *
+	 * @param capacity Number of slots, must be a power of two
+	 */
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		shift = Integer.numberOfLeadingZeros(capacity) + 1;
+	}
+
+	/** Moves every entry into a larger table
+	 *
+	 * @param capacity Number of slots in the new table
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] != null) {
+				int i = indexFor(oldKeys[j]);
+				while (values[i] != null) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/** Hash map from primitive ints to primitive ints, so neither keys nor values are boxed.
+ *  Uses open addressing with linear probing, like IntHashMap.
+ *
+ */
+final class IntIntHashMap implements Serializable {
+
+	private static final int MIN_CAPACITY = 16;
+
+	// private attributes
+	private int[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size = 0;
+	// Number of bits to shift the hash by, so it fits the table
+	private int shift;
+
+	/** Constructor for an empty map
+	 *
+	 */
+	public IntIntHashMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	// getters
+	public int size() { return size; }
+
+	/** Gets the value stored against a key
+	 *
+	 * @param key Key to look up
+	 * @param defaultValue Value to return if the key is not in the map
+	 * @return Value for the key, or the default value
+	 */
+	public int get(int key, int defaultValue) {
+		int mask = keys.length - 1;
+		for (int i = indexFor(key); used[i]; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+		}
+		return defaultValue;
+	}
+
+	/** Checks if a key is held in the map
+	 *
+	 * @param key Key to check
+	 * @return True if the key has a value in the map
+	 */
+	public boolean containsKey(int key) {
+		int mask = keys.length - 1;
+		for (int i = indexFor(key); used[i]; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Places a value into the map, replacing any value already held for the key
+	 *
+	 * @param key Key to store the value against
+	 * @param value Value to store
+	 */
+	public void put(int key, int value) {
+		int mask = keys.length - 1;
+		int i = indexFor(key);
+		while (used[i]) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		used[i] = true;
+		size++;
+		// Keeps the load factor at or below a half
+		if (size * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+	}
+
+	/** Removes a key from the map
+	 *
+	 * @param key Key to remove
+	 * @return True if the key was in the map
+	 */
+	public boolean remove(int key) {
+		int mask = keys.length - 1;
+		int gap = indexFor(key);
+		while (used[gap] && keys[gap] != key) {
+			gap = (gap + 1) & mask;
+		}
+		if (!used[gap]) {
+			return false;
+		}
+		// Later entries of the probe sequence are shifted back into the freed slot
+		int i = gap;
+		while (true) {
+			i = (i + 1) & mask;
+			if (!used[i]) {
+				break;
+			}
+			int home = indexFor(keys[i]);
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+		used[gap] = false;
+		size--;
+		return true;
+	}
+
+	/** Passes every key in the map to the given action, in no particular order
+	 *
+	 * @param action Action to perform on each key
+	 */
+	public void forEachKey(IntConsumer action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) {
+				action.accept(keys[i]);
+			}
+		}
+	}
+
+	/** Removes every entry in the map
+	 *
+	 */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	private int indexFor(int key) {
+		return (key * 0x9E3779B9) >>> shift;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		shift = Integer.numberOfLeadingZeros(capacity) + 1;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldUsed[j]) {
+				int i = indexFor(oldKeys[j]);
+				while (used[i]) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+				used[i] = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/** Hash map from primitive ints to primitive longs, used to look up times by rider ID
+ *  without boxing. Uses open addressing with linear probing, like IntHashMap.
+ *
+ */
+final class IntLongHashMap implements Serializable {
+
+	private static final int MIN_CAPACITY = 16;
+
+	/** Action performed on each entry of the map
+	 *
+	 */
+	interface EntryConsumer {
+		void accept(int key, long value);
+	}
+
+	// private attributes
+	private int[] keys;
+	private long[] values;
+	private boolean[] used;
+	private int size = 0;
+	// Number of bits to shift the hash by, so it fits the table
+	private int shift;
+
+	/** Constructor for an empty map
+	 *
+	 */
+	public IntLongHashMap() {
+		allocate(MIN_CAPACITY);
+	}
+
+	/** Constructor for an empty map that can hold a number of entries without resizing
+	 *
+	 * @param expectedSize Number of entries expected to be placed in the map
+	 */
+	public IntLongHashMap(int expectedSize) {
+		allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(expectedSize, 1) * 2) * 2));
+	}
+
+	// getters
+	public int size() { return size; }
+
+	/** Gets the value stored against a key
+	 *
+	 * @param key Key to look up
+	 * @param defaultValue Value to return if the key is not in the map
+	 * @return Value for the key, or the default value
+	 */
+	public long get(int key, long defaultValue) {
+		int mask = keys.length - 1;
+		for (int i = indexFor(key); used[i]; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i];
+			}
+		}
+		return defaultValue;
+	}
+
+	/** Checks if a key is held in the map
+	 *
+	 * @param key Key to check
+	 * @return True if the key has a value in the map
+	 */
+	public boolean containsKey(int key) {
+		int mask = keys.length - 1;
+		for (int i = indexFor(key); used[i]; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Places a value into the map, replacing any value already held for the key
+	 *
+	 * @param key Key to store the value against
+	 * @param value Value to store
+	 */
+	public void put(int key, long value) {
+		int mask = keys.length - 1;
+		int i = indexFor(key);
+		while (used[i]) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		used[i] = true;
+		size++;
+		// Keeps the load factor at or below a half
+		if (size * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+	}
+
+	/** Passes every entry in the map to the given action, in no particular order
+	 *
+	 * @param action Action to perform on each entry
+	 */
+	public void forEach(EntryConsumer action) {
+		for (int i = 0; i < keys.length; i++) {
+			if (used[i]) {
+				action.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	/** Removes every entry in the map
+	 *
+	 */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	private int indexFor(int key) {
+		return (key * 0x9E3779B9) >>> shift;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new long[capacity];
+		used = new boolean[capacity];
+		shift = Integer.numberOfLeadingZeros(capacity) + 1;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		long[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldUsed[j]) {
+				int i = indexFor(oldKeys[j]);
+				while (used[i]) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+				used[i] = true;
+			}
+		}
+	}
+}
@@ -3,54 +3,112 @@ package cycling;
 import java.io.Serializable;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /** Abstract Class used to order the results contained within
- *  the race/stage/segment objects
+ *  the race/stage/segment objects. Times are held as nanoseconds and only
+ *  converted to LocalTime when they are read out.
  *
  */
 public abstract class OrderResults implements Serializable {
 
-	// private attributes
-	private ArrayList<Result> results = new ArrayList<Result>();
+	// Number of nanoseconds in a day, times of a day or more cannot be held by a LocalTime
+	protected static final long NANOS_PER_DAY = 86_400_000_000_000L;
 
-	//getters
-	public ArrayList<Result> getResults() { return results; }
+	// Results kept in ranked order, by default in an order statistic tree
+	private ResultStorage results = new ResultTree();
+	// Counts every change to which riders have results, so cached views can tell they are stale
+	private int version = 0;
+	// Riders given points by the last assignment of points by rank, and the version it was made at
+	private int[] pointsHolders = new int[0];
+	private int pointsVersion = -1;
 
-	/** Adds a result to list of current results for stage/segment/race
+	/** Chooses how the results are stored, any results already held are moved across
 	 *
-	 * @param riderID ID of the rider whose result it is
-	 * @param finishTime Time the rider finishes
+	 * @param mode Storage to use for the results
 	 */
-	public void addResult(int riderID, LocalTime finishTime) {
+	public void setStorageMode(ResultStorageMode mode) {
 
-		boolean inserted = false;
-
-		Result newResult = new Result(riderID, finishTime);
-		// Adds the finishing time for the whole stage
-		// If no other results exist yet, no sort is needed
-		if (results.size() == 0) {
-			results.add(newResult);
+		ResultStorage newResults = createStorage(mode);
+		// Copies over any results that have already been added, keeping the order of ties
+		int[] riders = results.rankedRiders();
+		for (int riderID : riders) {
+			newResults.add(results.resultOf(riderID));
 		}
-		else {
-			for (Result result : results) {
-				if (finishTime.isBefore(result.getFinishTime())) {
-					// Finds the index before the element it is quicker than
-					int index = results.indexOf(result);
-					// Adds the result to list of results
-					results.add(index, newResult);
-					// Exits loop so time not added multiple times
-					inserted = true;
-					break;
-				}
-			}
-			if (!inserted) {
-				results.add(newResult);
-			}
+		results = newResults;
+	}
+
+	/** Creates empty storage for a storage mode, races and stages always need a full
+	 *  ranking so they use a tree for TOP_K
+	 *
+	 * @param mode Storage to use for the results
+	 * @return Empty storage
+	 */
+	protected ResultStorage createStorage(ResultStorageMode mode) {
+		return switch (mode) {
+			case COLUMNAR -> new ResultColumns();
+			default -> new ResultTree();
+		};
+	}
+
+	/** Gets the results in ranked order, Result objects should only be read as they may
+	 *  be copies of the stored results
+	 *
+	 * @return List of results, fastest first
+	 */
+	public ArrayList<Result> getResults() {
+		int[] riders = results.rankedRiders();
+		ArrayList<Result> rankedResults = new ArrayList<>(riders.length);
+		for (int riderID : riders) {
+			rankedResults.add(results.resultOf(riderID));
 		}
+		return rankedResults;
+	}
+
+	/** Gets the number of results held
+	 *
+	 * @return Number of riders with a result
+	 */
+	public int getNumberOfResults() { return results.size(); }
+
+	public int getVersion() { return version; }
+
+	/** Adds a result to list of current results for stage/segment/race
+	 *
+	 * @param riderID ID of the rider whose result it is
+	 * @param finishTime Time the rider took to finish, in nanoseconds
+	 */
+	public void addResult(int riderID, long finishTime) {
+
+		// Storage places the result in its ranked position
+		results.add(riderID, finishTime);
+		version++;
 
 		// Validates that result has been added
-		assert(results.contains(newResult))
-				: "Inputted result was not added to array list of results";
+		assert(results.contains(riderID))
+				: "Inputted result was not added to the results";
+	}
+
+	/** Adds a result that already has its tie keys, such as a result of the general
+	 *  classification whose ties are broken by the last stage
+	 *
+	 * @param result Result to add, it must not be changed after it is added
+	 */
+	protected void addResult(Result result) {
+		results.add(result);
+		version++;
+	}
+
+	/** Adds the results of many riders at once, sorting them once rather than
+	 *  placing each one individually
+	 *
+	 * @param riderIDs IDs of the riders whose results they are
+	 * @param finishTimes Times the riders finish, in nanoseconds
+	 */
+	protected void addAllResults(int[] riderIDs, long[] finishTimes) {
+		results.addAll(riderIDs, finishTimes);
+		version++;
 	}
 
 	/** Getter to return result of a specific rider
@@ -59,28 +117,97 @@ public abstract class OrderResults implements Serializable {
 	 * @return Riders time
 	 */
 	public LocalTime getResult(int riderID){
+		return toLocalTime(results.finishOf(riderID));
+	}
 
-		for (Result resultToCheck : results) {
-			if (riderID == resultToCheck.getRiderID()) {
-				return resultToCheck.getFinishTime();
-			}
-		}
-		return null;
+	/** Gets the finish time of a specific rider in nanoseconds
+	 *
+	 * @param riderID ID of the rider whose result it is
+	 * @return Riders time, or UNSET if the rider has no result
+	 */
+	public long getResultNanos(int riderID) {
+		return results.finishOf(riderID);
 	}
 
-	/** Getter to return result and rider
+	/** Gets the order the result of a rider was added in, which breaks ties between
+	 *  equal times
+	 *
+	 * @param riderID ID of the rider whose result it is
+	 * @return Sequence number of the result, or UNSET if the rider has no result
+	 */
+	public long getResultSequence(int riderID) {
+		return results.sequenceOf(riderID);
+	}
+
+	/** Getter to return result and rider, the Result should only be read
 	 *
 	 * @param riderID ID of the rider whose result it is
 	 * @return Rider and result corresponding to inputted ID
 	 */
 	public Result getRiderAndResult(int riderID) {
+		return results.resultOf(riderID);
+	}
+
+	/** Gets the rank of a rider, based on their finish time
+	 *
+	 * @param riderID ID of the rider whose rank it is
+	 * @return Zero based rank of the rider, or -1 if the rider has no result
+	 */
+	public int getRiderRank(int riderID) {
+		return results.rankOf(riderID);
+	}
+
+	/** Gets the ID of the rider at a rank
+	 *
+	 * @param rank Zero based rank of the rider
+	 * @return ID of the rider at the rank
+	 */
+	public int getRiderAtRank(int rank) {
+		return results.riderAt(rank);
+	}
+
+	/** Gets the points of a rider
+	 *
+	 * @param riderID ID of the rider whose points it is
+	 * @return Points of the rider, 0 if the rider has no result
+	 */
+	public int getRiderPoints(int riderID) {
+		return results.pointsOf(riderID);
+	}
+
+	/** Sets the points of the rider at a rank
+	 *
+	 * @param rank Zero based rank of the rider
+	 * @param points Points to give the rider
+	 */
+	public void setPointsAtRank(int rank, int points) {
+		results.setPointsAt(rank, points);
+	}
+
+	/** Gives points to the riders at the top ranks, from a table of points for each rank.
+	 *  Points are only reassigned after the results have changed, and riders who have
+	 *  dropped out of the scoring ranks have their points reset
+	 *
+	 * @param pointsTable Points for each rank, starting with the first
+	 */
+	protected void assignPointsByRank(int[] pointsTable) {
 
-		for (Result resultToCheck : results) {
-			if (riderID == resultToCheck.getRiderID()) {
-				return resultToCheck;
-			}
+		// Points are still correct if no results have changed since they were assigned
+		if (pointsVersion == version) {
+			return;
 		}
-		return null;
+		for (int riderID : pointsHolders) {
+			results.setPointsOf(riderID, 0);
+		}
+		// If there are less riders than scoring ranks, only those riders are given points
+		int scoringRanks = Math.min(pointsTable.length, results.size());
+		int[] holders = new int[scoringRanks];
+		for (int i = 0 ; i < scoringRanks ; i++) {
+			results.setPointsAt(i, pointsTable[i]);
+			holders[i] = results.riderAt(i);
+		}
+		pointsHolders = holders;
+		pointsVersion = version;
 	}
 
 	/** Gets riderIDs in ranked order, based on their total elapsed time
@@ -88,34 +215,88 @@ public abstract class OrderResults implements Serializable {
 	 * @return rankedRiders	Ranked list of riderIDs based on what time they finished the race
 	 */
 	public int[] getRankedRiders(){
-
-		int[] rankedRiders = new int[results.size()];
 		/* As riders are already ordered by their time,
-		 arraylist just needs to be converted to array */
-		for (int i = 0 ; i <results.size() ; i++) {
-			rankedRiders[i] = results.get(i).getRiderID();
-		}
-
-		return rankedRiders;
+		 storage just needs to be read in order */
+		return results.rankedRiders();
+	}
 
+	/** Gets points of each rider in ranked order
+	 *
+	 * @return Points of each rider, ordered by the time they finished
+	 */
+	public int[] getRankedPoints() {
+		return results.rankedPoints();
 	}
 
-	/** Gets adjusted times in ranked order, as result array already ordered only needs a for
+	/** Gets adjusted times in ranked order, as results are already ordered only needs a for
 	 *  loop to work
 	 *
 	 * @return rankedRiders Ranked list of riderIDs based on what time they finished the race
 	 */
 	public LocalTime[] getRankedAdjustedTimes(){
 
-		LocalTime[] rankedResults = new LocalTime[results.size()];
+		long[] adjustedTimes = results.rankedAdjustedTimes();
+		LocalTime[] rankedResults = new LocalTime[adjustedTimes.length];
 
-		for (int i = 0 ; i <results.size() ; i++) {
-			rankedResults[i] = results.get(i).getAdjustedTime();
+		for (int i = 0 ; i < adjustedTimes.length ; i++) {
+			rankedResults[i] = toLocalTime(adjustedTimes[i]);
 		}
 
 		return rankedResults;
 	}
 
+	/** Gets adjusted times in ranked order, in nanoseconds
+	 *
+	 * @return Adjusted times, ordered by finish time
+	 */
+	public long[] getRankedAdjustedNanos() {
+		return results.rankedAdjustedTimes();
+	}
+
+	/** Gets the finish time at a rank, in nanoseconds
+	 *
+	 * @param rank Zero based rank of the result
+	 * @return Finish time of the result at the rank
+	 */
+	protected long getFinishNanosAtRank(int rank) {
+		return results.finishAt(rank);
+	}
+
+	/** Sets the adjusted time at a rank
+	 *
+	 * @param rank Zero based rank of the result
+	 * @param adjustedTime Adjusted time in nanoseconds
+	 */
+	protected void setAdjustedNanosAtRank(int rank, long adjustedTime) {
+		results.setAdjustedAt(rank, adjustedTime);
+	}
+
+	/** Gets the finish times in ranked order, in nanoseconds
+	 *
+	 * @return Finish times, fastest first
+	 */
+	protected long[] getRankedFinishNanos() {
+		return results.rankedFinishTimes();
+	}
+
+	/** Sets every adjusted time at once
+	 *
+	 * @param adjustedTimes Adjusted times in ranked order, in nanoseconds
+	 */
+	protected void setRankedAdjustedNanos(long[] adjustedTimes) {
+		results.setRankedAdjustedTimes(adjustedTimes);
+	}
+
+	/** Gets riderIDs in the order their results were added, so that adding them again in
+	 *  this order ranks riders with equal times the same way
+	 *
+	 * @return Rider IDs, earliest added first
+	 */
+	public int[] getRidersInAddedOrder() {
+		Integer[] riders = Arrays.stream(results.rankedRiders()).boxed().toArray(Integer[]::new);
+		Arrays.sort(riders, Comparator.comparingLong(results::sequenceOf));
+		return Arrays.stream(riders).mapToInt(Integer::intValue).toArray();
+	}
 
 	/** Getter to return adjusted result of a specific rider
 	 *
@@ -123,13 +304,16 @@ public abstract class OrderResults implements Serializable {
 	 * @return Riders adjusted time
 	 */
 	public LocalTime getAdjustedResult(int riderID){
+		return toLocalTime(results.adjustedOf(riderID));
+	}
 
-		for (Result resultToCheck : results) {
-			if (riderID == resultToCheck.getRiderID()) {
-				return resultToCheck.getAdjustedTime();
-			}
-		}
-		return null;
+	/** Gets the adjusted time of a specific rider in nanoseconds
+	 *
+	 * @param riderID ID of the rider whose result it is
+	 * @return Riders adjusted time, or UNSET if it has not been adjusted
+	 */
+	public long getAdjustedResultNanos(int riderID) {
+		return results.adjustedOf(riderID);
 	}
 
 	/** Checks a result for rider has not already been added
@@ -138,12 +322,7 @@ public abstract class OrderResults implements Serializable {
 	 * @return True if new result, false if rider result already exists
 	 */
 	public boolean checkNewResult(int riderID) {
-		for(Result resultToCheck : results) {
-			if(resultToCheck.getRiderID() == riderID) {
-				return false;
-			}
-		}
-		return true;
+		return !results.contains(riderID);
 	}
 
 	/** Removes a result from the array of results based on riderID
@@ -151,24 +330,19 @@ public abstract class OrderResults implements Serializable {
 	 * @param riderID ID of the rider whose result will be removed
 	 */
 	public void removeResult(int riderID) {
-		results.removeIf(resultToCheck -> resultToCheck.getRiderID() == riderID);
+		if (results.remove(riderID)) {
+			version++;
+		}
 	}
 
 	/** Sets the adjusted time of a riders result
 	 *
 	 * @param riderID ID of the rider whose result it is
-	 * @param adjustedTime Result that has been adjusted, based on other rider times
+	 * @param adjustedTime Result that has been adjusted, based on other rider times, in nanoseconds
 	 */
-	public void setAdjustedTimeToResult(int riderID, LocalTime adjustedTime) {
-
-		for (Result resultToCheck : results) {
-			//Adds time to a result
-			if (resultToCheck.getRiderID() == riderID) {
-
-				resultToCheck.setAdjustedTime(adjustedTime);
-				break;
-			}
-		}
+	public void setAdjustedTimeToResult(int riderID, long adjustedTime) {
+		//Adds time to a result
+		results.setAdjustedOf(riderID, adjustedTime);
 	}
 
 	/** Adds additional points to a specific rider, used for summing points in a
@@ -178,17 +352,8 @@ public abstract class OrderResults implements Serializable {
 	 * @param points Amount of points to increase the result by
 	 */
 	public void addPointsToResult(int riderID, int points) {
-
-		for (Result resultToCheck : results) {
-			//Add points to a result
-			if (resultToCheck.getRiderID() == riderID) {
-
-				int currentPoints = resultToCheck.getPoints();
-				int newPoints = currentPoints + points;
-				resultToCheck.setPoints(newPoints);
-				break;
-			}
-		}
+		//Add points to a result
+		results.setPointsOf(riderID, results.pointsOf(riderID) + points);
 	}
 
 	/** Clears all the results for the race/stage/segment
@@ -196,9 +361,27 @@ public abstract class OrderResults implements Serializable {
 	 */
 	public void clearResults() {
 		results.clear();
+		version++;
 	}
 
+	/** Converts a stored time into a LocalTime, at the boundary of the class. A LocalTime
+	 *  cannot hold a day or more, so any whole days are dropped
+	 *
+	 * @param nanos Time in nanoseconds, or UNSET
+	 * @return Time as a LocalTime, null if the time is UNSET
+	 */
+	protected static LocalTime toLocalTime(long nanos) {
+		return nanos == ResultStorage.UNSET ? null : LocalTime.ofNanoOfDay(nanos % NANOS_PER_DAY);
+	}
 
-}
-
+	/** Finds the time elapsed between two times of day, wrapping past midnight
+	 *
+	 * @param start Time of day the period starts
+	 * @param end Time of day the period ends
+	 * @return Nanoseconds between the two times
+	 */
+	protected static long elapsedNanos(LocalTime start, LocalTime end) {
+		return Math.floorMod(end.toNanoOfDay() - start.toNanoOfDay(), NANOS_PER_DAY);
+	}
 
+}
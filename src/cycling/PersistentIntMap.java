@@ -0,0 +1,238 @@
+package cycling;
+
+/** Immutable map keyed by primitive ints, used by snapshots so a new snapshot can share
+ *  almost all of its maps with the previous one. Changing a key gives a new map that only
+ *  copies the nodes on the path to that key, everything else is shared.
+ *  Held as a trie that takes five bits of the key at each level, lowest bits first, with
+ *  a bitmap in each node so only the children that exist take up space. An entry sits at
+ *  the first level where no other key shares its bits, so at most seven levels are used.
+ *
+ * @param <V> Type of the values held in the map
+ */
+final class PersistentIntMap<V> {
+
+	// Number of key bits used by each level of the trie
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final PersistentIntMap<Object> EMPTY = new PersistentIntMap<>(null, 0);
+
+	/** Entry of the map, held in place of a child node
+	 *
+	 */
+	private static final class Leaf {
+
+		private final int key;
+		private final Object value;
+
+		private Leaf(int key, Object value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/** Node of the trie, each child is either a leaf or another node
+	 *
+	 */
+	private static final class Node {
+
+		// Bit i is set if the child for key bits i exists
+		private final int bitmap;
+		// Children that exist, in order of their key bits
+		private final Object[] children;
+
+		private Node(int bitmap, Object[] children) {
+			this.bitmap = bitmap;
+			this.children = children;
+		}
+
+		/** Gets the position in the children array of the child for some key bits
+		 *
+		 * @param bit Bit of the child in the bitmap
+		 * @return Index of the child
+		 */
+		private int indexOf(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+	}
+
+	// private attributes
+	private final Node root;
+	private final int size;
+
+	private PersistentIntMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/** Gets the empty map
+	 *
+	 * @return Map with nothing in it
+	 * @param <V> Type of the values held in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> PersistentIntMap<V> empty() {
+		return (PersistentIntMap<V>) EMPTY;
+	}
+
+	// getters
+	public int size() { return size; }
+
+	public boolean isEmpty() { return size == 0; }
+
+	/** Gets the value stored against a key
+	 *
+	 * @param key Key to look up
+	 * @return Value for the key, or null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		Node node = root;
+		for (int shift = 0; node != null; shift += BITS) {
+			int bit = 1 << ((key >>> shift) & MASK);
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+			Object child = node.children[node.indexOf(bit)];
+			if (child instanceof Leaf leaf) {
+				return leaf.key == key ? (V) leaf.value : null;
+			}
+			node = (Node) child;
+		}
+		return null;
+	}
+
+	/** Checks if a key is held in the map
+	 *
+	 * @param key Key to check
+	 * @return True if the key has a value in the map
+	 */
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/** Gets a map with a value placed against a key, replacing any value already held
+	 *
+	 * @param key Key to store the value against
+	 * @param value Value to store, cannot be null
+	 * @return Map holding the value, this map is left unchanged
+	 */
+	public PersistentIntMap<V> put(int key, V value) {
+
+		assert(value != null)
+				: "Null values cannot be placed in a PersistentIntMap";
+
+		Node node = root == null ? new Node(0, new Object[0]) : root;
+		boolean added = get(key) == null;
+		return new PersistentIntMap<>(put(node, 0, new Leaf(key, value)), added ? size + 1 : size);
+	}
+
+	/** Gets a map without a key
+	 *
+	 * @param key Key to remove
+	 * @return Map without the key, or this map if the key was not in it
+	 */
+	public PersistentIntMap<V> remove(int key) {
+		if (get(key) == null) {
+			return this;
+		}
+		Object root = remove(this.root, 0, key);
+		// Root is always kept as a node, even if a single entry is left
+		if (root instanceof Leaf leaf) {
+			root = put(new Node(0, new Object[0]), 0, leaf);
+		}
+		return size == 1 ? empty() : new PersistentIntMap<>((Node) root, size - 1);
+	}
+
+	/** Passes every entry in the map to the given action, in no particular order
+	 *
+	 * @param action Action to perform on each entry
+	 */
+	public void forEach(IntHashMap.EntryConsumer<? super V> action) {
+		if (root != null) {
+			forEach(root, action);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void forEach(Node node, IntHashMap.EntryConsumer<? super V> action) {
+		for (Object child : node.children) {
+			if (child instanceof Leaf leaf) {
+				action.accept(leaf.key, (V) leaf.value);
+			} else {
+				forEach((Node) child, action);
+			}
+		}
+	}
+
+	/** Copies a node with a leaf placed below it
+	 *
+	 * @param node Node to place the leaf below
+	 * @param shift Number of key bits used by the levels above the node
+	 * @param leaf Leaf to place
+	 * @return Copy of the node holding the leaf
+	 */
+	private static Node put(Node node, int shift, Leaf leaf) {
+		int bit = 1 << ((leaf.key >>> shift) & MASK);
+		int index = node.indexOf(bit);
+		// No child for these key bits yet, so the leaf is inserted
+		if ((node.bitmap & bit) == 0) {
+			Object[] children = new Object[node.children.length + 1];
+			System.arraycopy(node.children, 0, children, 0, index);
+			children[index] = leaf;
+			System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+			return new Node(node.bitmap | bit, children);
+		}
+		Object child = node.children[index];
+		Object replacement;
+		if (child instanceof Leaf existing) {
+			if (existing.key == leaf.key) {
+				replacement = leaf;
+			} else {
+				// Two keys share these bits, so both move down a level
+				Node split = put(new Node(0, new Object[0]), shift + BITS, existing);
+				replacement = put(split, shift + BITS, leaf);
+			}
+		} else {
+			replacement = put((Node) child, shift + BITS, leaf);
+		}
+		Object[] children = node.children.clone();
+		children[index] = replacement;
+		return new Node(node.bitmap, children);
+	}
+
+	/** Copies a node with a key removed from below it. The key must be in the map
+	 *
+	 * @param node Node the key is below
+	 * @param shift Number of key bits used by the levels above the node
+	 * @param key Key to remove
+	 * @return Copy of the node without the key, its only leaf if a single leaf is left, or
+	 *  null if nothing is left
+	 */
+	private static Object remove(Node node, int shift, int key) {
+		int bit = 1 << ((key >>> shift) & MASK);
+		int index = node.indexOf(bit);
+		Object child = node.children[index];
+		Object replacement = child instanceof Leaf ? null : remove((Node) child, shift + BITS, key);
+		if (replacement != null) {
+			// Lone leaf is pulled up in place of the node it was left in
+			if (node.children.length == 1 && replacement instanceof Leaf) {
+				return replacement;
+			}
+			Object[] children = node.children.clone();
+			children[index] = replacement;
+			return new Node(node.bitmap, children);
+		}
+		if (node.children.length == 1) {
+			return null;
+		}
+		Object[] children = new Object[node.children.length - 1];
+		System.arraycopy(node.children, 0, children, 0, index);
+		System.arraycopy(node.children, index + 1, children, index, children.length - index);
+		// Lone leaf is pulled up in place of the node it was left in
+		if (children.length == 1 && children[0] instanceof Leaf) {
+			return children[0];
+		}
+		return new Node(node.bitmap & ~bit, children);
+	}
+}
@@ -0,0 +1,143 @@
+package cycling;
+
+import java.io.Serializable;
+
+/** Points or mountain classification of a race, kept sorted by points with the general
+ *  classification breaking ties. Points from each stage are applied as differences from
+ *  the points last applied for that stage, so only riders whose points or general
+ *  classification time change are moved in the ranking.
+ *
+ *  Every rider in the general classification is held, including riders without points.
+ *
+ */
+final class PointsClassification implements Serializable {
+
+	// Riders in general classification, each result holds their points and total time
+	private final ResultTree ranking = new ResultTree(ResultTree.BY_POINTS);
+	// Total points of every rider, including riders not in the general classification yet
+	private final IntIntHashMap totals = new IntIntHashMap();
+	// Points of each stage last applied, and the version of the stage they were read at
+	private final IntHashMap<IntIntHashMap> appliedPoints = new IntHashMap<>();
+	private final IntIntHashMap appliedVersions = new IntIntHashMap();
+
+	/** Gets the total points of a rider
+	 *
+	 * @param riderID ID of the rider
+	 * @return Total points of the rider, 0 if they have none
+	 */
+	public int getPoints(int riderID) {
+		return totals.get(riderID, 0);
+	}
+
+	/** Gets the riders ranked by the classification, the ranking is not changed
+	 *
+	 * @return Rider IDs, most points first
+	 */
+	public int[] getRankedRiders() {
+		return ranking.rankedRiders();
+	}
+
+	/** Gets the rank of a rider in the classification
+	 *
+	 * @param riderID ID of the rider
+	 * @return Zero based rank, or -1 if the rider is not in the general classification
+	 */
+	public int getRiderRank(int riderID) {
+		return ranking.rankOf(riderID);
+	}
+
+	/** Checks if the points of a stage have already been applied at its current version
+	 *
+	 * @param stageID ID of the stage
+	 * @param version Current version of the results of the stage
+	 * @return True if the points do not need applying again
+	 */
+	public boolean isApplied(int stageID, int version) {
+		return appliedPoints.containsKey(stageID) && appliedVersions.get(stageID, -1) == version;
+	}
+
+	/** Applies the current points of a stage, only the difference from the points last
+	 *  applied for the stage is added to the totals
+	 *
+	 * @param stageID ID of the stage
+	 * @param version Current version of the results of the stage
+	 * @param stagePoints Points of each rider in the stage, keyed by rider ID, must not be
+	 *                    modified after it is applied
+	 */
+	public void applyStage(int stageID, int version, IntIntHashMap stagePoints) {
+		applyDifference(appliedPoints.put(stageID, stagePoints), stagePoints);
+		appliedVersions.put(stageID, version);
+	}
+
+	/** Takes the points of a stage that has been removed back off the totals
+	 *
+	 * @param stageID ID of the stage
+	 */
+	public void removeStage(int stageID) {
+		IntIntHashMap oldPoints = appliedPoints.remove(stageID);
+		appliedVersions.remove(stageID);
+		if (oldPoints != null) {
+			applyDifference(oldPoints, new IntIntHashMap());
+		}
+	}
+
+	/** Places a rider at their position in the ranking after their general classification
+	 *  standing has changed, or after they have joined the general classification
+	 *
+	 * @param generalStanding Result of the rider in the general classification, its total
+	 *                        time and tie keys are copied
+	 */
+	public void placeRider(Result generalStanding) {
+		int riderID = generalStanding.getRiderID();
+		ranking.remove(riderID);
+		Result standing = new Result(riderID, generalStanding.getFinishTime());
+		standing.setTieTime(generalStanding.getTieTime());
+		standing.setSequence(generalStanding.getSequence());
+		standing.setPoints(totals.get(riderID, 0));
+		ranking.add(standing);
+	}
+
+	/** Takes a rider out of the ranking once they have left the general classification
+	 *
+	 * @param riderID ID of the rider
+	 */
+	public void removeRider(int riderID) {
+		ranking.remove(riderID);
+	}
+
+	/** Adds the difference between the old and new points of a stage to the totals, and
+	 *  moves any ranked rider whose total has changed
+	 *
+	 * @param oldPoints Points of the stage applied before, null if none were
+	 * @param newPoints Current points of the stage
+	 */
+	private void applyDifference(IntIntHashMap oldPoints, IntIntHashMap newPoints) {
+		if (oldPoints != null) {
+			oldPoints.forEachKey(riderID -> {
+				if (!newPoints.containsKey(riderID)) {
+					addToTotal(riderID, -oldPoints.get(riderID, 0));
+				}
+			});
+		}
+		newPoints.forEachKey(riderID -> {
+			int oldValue = oldPoints == null ? 0 : oldPoints.get(riderID, 0);
+			addToTotal(riderID, newPoints.get(riderID, 0) - oldValue);
+		});
+	}
+
+	/** Changes the total points of a rider, moving them in the ranking if they are in it
+	 *
+	 * @param riderID ID of the rider
+	 * @param points Points to add, may be negative
+	 */
+	private void addToTotal(int riderID, int points) {
+		if (points == 0) {
+			return;
+		}
+		totals.put(riderID, totals.get(riderID, 0) + points);
+		Result standing = ranking.get(riderID);
+		if (standing != null) {
+			placeRider(standing);
+		}
+	}
+}
@@ -0,0 +1,522 @@
+package cycling;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+
+/** Reads and writes the contents of a portal in a compact binary format, in place of Java
+ *  serialization. Only what cannot be worked out again is written, so classifications,
+ *  adjusted times and points are recalculated once the portal is loaded.
+ *  IDs and counts are written as varints, and IDs are written as the difference from the
+ *  ID before them, as they are mostly given out in order. Stage start times are written as
+ *  the difference from the start of the stage before, so most fit in a few bytes. Results
+ *  are written in the order they were registered, as that order breaks ties between equal
+ *  times, with each finish time written as the difference from the finish time before.
+ *  A file starts with a magic number and the version of the format. Files saved with Java
+ *  serialization, before this format was used, cannot be loaded as the classes written in
+ *  them have since changed. They are recognised by their own magic number and rejected.
+ *
+ *  Files in this format have the extension .cycp. Java serialization used .ser, as did this
+ *  format when it was first added, so a portal with no .cycp file is loaded from its .ser
+ *  file. Such a file loads if it is in this format, and is rejected if it was serialised.
+ *  Saving the portal again writes it with the new extension.
+ *
+ *  Layout of version 2, where every number is a varint unless said otherwise:
+ *  <pre>
+ *  magic (4 bytes), version
+ *  next team, rider, race, stage and segment IDs
+ *  team count, then for each team
+ *      ID, name, description, rider count, then for each rider
+ *          ID, name, year of birth
+ *  race count, then for each race
+ *      ID, name, description, stage count, then for each stage
+ *          ID, name, description, length (8 bytes), 1 if it has a start time else 0,
+ *          start second and start nanos if it has one, type plus one (0 for none), state
+ *          segment count, then for each segment
+ *              ID, type, location (8 bytes), gradient and length of climbs (8 bytes each)
+ *          result count, then for each result in the order registered
+ *              rider ID, stage finish time, time to the end of each segment
+ *  </pre>
+ *  Strings are written as their length in UTF-8 bytes plus one, with 0 for null.
+ *  Version 1 is still read, it is the same except a start time and type are always
+ *  written, with the type as its ordinal.
+ *
+ */
+final class PortalFile {
+
+	// Start of every file in this format, the bytes of "CYCP"
+	private static final int MAGIC = 0x43594350;
+	// First two bytes of a file written by Java serialization
+	private static final int SERIALIZATION_MAGIC = 0xACED;
+	// Version of the format written
+	private static final int VERSION = 2;
+	// Version before stages without a start time or type could be written
+	private static final int VERSION_WITHOUT_NULLS = 1;
+	// Extension of files in this format, and the extension saves had before it
+	static final String EXTENSION = ".cycp";
+	static final String OLD_EXTENSION = ".ser";
+	// Size of the direct buffers files are read and written through
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private PortalFile() {}
+
+	/** Gets the file a portal saved under a name is written to
+	 *
+	 * @param filename Name the portal is saved under, without an extension
+	 * @return File with the extension of this format
+	 */
+	static Path fileToSave(String filename) {
+		return Path.of(filename + EXTENSION);
+	}
+
+	/** Gets the file a portal saved under a name is read from, the file with the extension
+	 *  of this format unless there is only a file with the old .ser extension
+	 *
+	 * @param filename Name the portal was saved under, without an extension
+	 * @return File to read
+	 */
+	static Path fileToLoad(String filename) {
+		Path path = Path.of(filename + EXTENSION);
+		Path oldPath = Path.of(filename + OLD_EXTENSION);
+		return Files.notExists(path) && Files.exists(oldPath) ? oldPath : path;
+	}
+
+	/** Writes the contents of a portal to a file, replacing anything already in it
+	 *
+	 * @param store Teams, races and next IDs of the portal
+	 * @param path File to write to
+	 * @throws IOException If the file cannot be written
+	 */
+	static void write(Store store, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				Output out = new Output(channel)) {
+
+			out.writeInt(MAGIC);
+			out.writeVarInt(VERSION);
+			for (int id : store.getIds()) {
+				out.writeVarInt(id);
+			}
+
+			out.writeVarInt(store.getTeams().size());
+			int previousTeam = 0;
+			for (Team team : store.getTeams()) {
+				out.writeSignedVarLong(team.getTeamID() - previousTeam);
+				previousTeam = team.getTeamID();
+				out.writeString(team.getTeamName());
+				out.writeString(team.getDescription());
+				out.writeVarInt(team.getRiders().size());
+				int previousRider = 0;
+				for (Rider rider : team.getRiders()) {
+					out.writeSignedVarLong(rider.getRiderID() - previousRider);
+					previousRider = rider.getRiderID();
+					out.writeString(rider.getRiderName());
+					out.writeVarInt(rider.getYearOfBirth());
+				}
+			}
+
+			out.writeVarInt(store.getRaces().size());
+			int previousRace = 0;
+			for (Race race : store.getRaces()) {
+				out.writeSignedVarLong(race.getRaceID() - previousRace);
+				previousRace = race.getRaceID();
+				out.writeString(race.getName());
+				out.writeString(race.getDesc());
+				writeStages(out, race.getStages());
+			}
+		}
+	}
+
+	/** Writes the stages of a race, along with their segments and results
+	 *
+	 * @param out Output to write to
+	 * @param stages Stages of the race, in the order they are held
+	 * @throws IOException If the file cannot be written
+	 */
+	private static void writeStages(Output out, ArrayList<Stage> stages) throws IOException {
+		out.writeVarInt(stages.size());
+		int previousStage = 0;
+		long previousStart = 0;
+		for (Stage stage : stages) {
+			out.writeSignedVarLong(stage.getStageID() - previousStage);
+			previousStage = stage.getStageID();
+			out.writeString(stage.getName());
+			out.writeString(stage.getDesc());
+			out.writeDouble(stage.getLength());
+			// Start time and type were never checked when the stage was added, so either may be null
+			LocalDateTime startTime = stage.getStartTime();
+			out.writeVarInt(startTime == null ? 0 : 1);
+			if (startTime != null) {
+				// Stages are held in order of their start, so the difference is rarely negative
+				long start = startTime.toEpochSecond(ZoneOffset.UTC);
+				out.writeSignedVarLong(start - previousStart);
+				previousStart = start;
+				out.writeVarInt(startTime.getNano());
+			}
+			out.writeVarInt(stage.getType() == null ? 0 : stage.getType().ordinal() + 1);
+			out.writeVarInt(stage.getState().ordinal());
+
+			ArrayList<Segment> segments = stage.getSegments();
+			out.writeVarInt(segments.size());
+			int previousSegment = 0;
+			for (Segment segment : segments) {
+				out.writeSignedVarLong(segment.getSegmentID() - previousSegment);
+				previousSegment = segment.getSegmentID();
+				out.writeVarInt(segment.getType().ordinal());
+				out.writeDouble(segment.getLocation());
+				if (segment instanceof Climb climb) {
+					out.writeDouble(climb.getAverageGradient());
+					out.writeDouble(climb.getLength());
+				}
+			}
+
+			// Riders with equal times are ranked in the order they were registered
+			int[] riders = stage.getRidersInAddedOrder();
+			out.writeVarInt(riders.length);
+			int previousRider = 0;
+			long previousFinish = 0;
+			for (int riderID : riders) {
+				out.writeSignedVarLong(riderID - previousRider);
+				previousRider = riderID;
+				long finish = stage.getResultNanos(riderID);
+				out.writeSignedVarLong(finish - previousFinish);
+				previousFinish = finish;
+				// Each segment is written as the time since the checkpoint before it
+				long previousCheckpoint = 0;
+				for (Segment segment : segments) {
+					long checkpoint = segment.getResultNanos(riderID);
+
+					assert(checkpoint != ResultStorage.UNSET)
+							: "Rider has a stage result but no result for a segment";
+
+					out.writeSignedVarLong(checkpoint - previousCheckpoint);
+					previousCheckpoint = checkpoint;
+				}
+			}
+		}
+	}
+
+	/** Reads the contents of a portal from a file in this format
+	 *
+	 * @param path File to read from
+	 * @param mode Storage used for the results of the stages read
+	 * @return Teams, races and next IDs of the portal
+	 * @throws IOException If the file cannot be read, is not a portal file or was saved with
+	 *  Java serialization
+	 */
+	static Store read(Path path, ResultStorageMode mode) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			Input in = new Input(channel);
+
+			if (in.peekShort() == SERIALIZATION_MAGIC) {
+				throw new IOException("Saved cycling portal was written with Java serialization by an older "
+						+ "version and can no longer be loaded");
+			}
+			if (in.readInt() != MAGIC) {
+				throw new IOException("File is not a saved cycling portal");
+			}
+			int version = in.readVarInt();
+			if (version != VERSION && version != VERSION_WITHOUT_NULLS) {
+				throw new IOException("Saved cycling portal has unsupported format version " + version);
+			}
+			int[] ids = new int[5];
+			for (int i = 0 ; i < ids.length ; i++) {
+				ids[i] = in.readVarInt();
+			}
+
+			int teamCount = in.readVarInt();
+			ArrayList<Team> teams = new ArrayList<>(teamCount);
+			int teamID = 0;
+			for (int t = 0 ; t < teamCount ; t++) {
+				teamID += (int) in.readSignedVarLong();
+				Team team = new Team(teamID, in.readString(), in.readString());
+				int riderCount = in.readVarInt();
+				int riderID = 0;
+				for (int r = 0 ; r < riderCount ; r++) {
+					riderID += (int) in.readSignedVarLong();
+					team.addRider(new Rider(riderID, teamID, in.readString(), in.readVarInt()));
+				}
+				teams.add(team);
+			}
+
+			int raceCount = in.readVarInt();
+			ArrayList<Race> races = new ArrayList<>(raceCount);
+			int raceID = 0;
+			for (int r = 0 ; r < raceCount ; r++) {
+				raceID += (int) in.readSignedVarLong();
+				Race race = new Race(raceID, in.readString(), in.readString());
+				readStages(in, race, mode, version);
+				races.add(race);
+			}
+			return new Store(teams, races, ids);
+		}
+	}
+
+	/** Reads the stages of a race, along with their segments and results, and adds them to it
+	 *
+	 * @param in Input to read from
+	 * @param race Race to add the stages to
+	 * @param mode Storage used for the results of the stages
+	 * @param version Version of the format the file was written in
+	 * @throws IOException If the file cannot be read
+	 */
+	private static void readStages(Input in, Race race, ResultStorageMode mode, int version) throws IOException {
+		int stageCount = in.readVarInt();
+		int stageID = 0;
+		long start = 0;
+		for (int s = 0 ; s < stageCount ; s++) {
+			stageID += (int) in.readSignedVarLong();
+			String name = in.readString();
+			String description = in.readString();
+			double length = in.readDouble();
+			// Version 1 always wrote a start time and the ordinal of the type
+			boolean nullable = version != VERSION_WITHOUT_NULLS;
+			LocalDateTime startTime = null;
+			if (!nullable || in.readVarInt() != 0) {
+				start += in.readSignedVarLong();
+				startTime = LocalDateTime.ofEpochSecond(start, in.readVarInt(), ZoneOffset.UTC);
+			}
+			int typeCode = in.readVarInt();
+			StageType type;
+			if (nullable) {
+				type = typeCode == 0 ? null : StageType.values()[typeCode - 1];
+			} else {
+				type = StageType.values()[typeCode];
+			}
+			Stage stage = new Stage(stageID, name, description, length, startTime, type);
+			stage.setState(StageState.values()[in.readVarInt()]);
+			stage.setStorageMode(mode);
+
+			int segmentCount = in.readVarInt();
+			int segmentID = 0;
+			for (int i = 0 ; i < segmentCount ; i++) {
+				segmentID += (int) in.readSignedVarLong();
+				SegmentType segmentType = SegmentType.values()[in.readVarInt()];
+				double location = in.readDouble();
+				Segment segment;
+				if (segmentType == SegmentType.SPRINT) {
+					segment = new Sprint(segmentID, location);
+				} else {
+					segment = new Climb(segmentID, location, segmentType, in.readDouble(), in.readDouble());
+				}
+				segment.setStorageMode(mode);
+				// Segments were written in stage order, so each goes after the ones before it
+				stage.addSegment(segment);
+			}
+
+			int resultCount = in.readVarInt();
+			if (resultCount > 0) {
+				int[] riderIDs = new int[resultCount];
+				long[] finishTimes = new long[resultCount];
+				long[][] segmentTimes = new long[segmentCount][resultCount];
+				int riderID = 0;
+				long finish = 0;
+				for (int row = 0 ; row < resultCount ; row++) {
+					riderID += (int) in.readSignedVarLong();
+					finish += in.readSignedVarLong();
+					riderIDs[row] = riderID;
+					finishTimes[row] = finish;
+					long checkpoint = 0;
+					for (int i = 0 ; i < segmentCount ; i++) {
+						checkpoint += in.readSignedVarLong();
+						segmentTimes[i][row] = checkpoint;
+					}
+				}
+				stage.addResultsNanos(riderIDs, finishTimes, segmentTimes);
+			}
+			race.addStage(stage);
+		}
+	}
+
+	/** Writes to a file channel through a direct buffer, which is written out as it fills
+	 *
+	 */
+	private static final class Output implements AutoCloseable {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		/** Makes room in the buffer, writing it out if there is not enough
+		 *
+		 * @param bytes Number of bytes needed, at most the size of the buffer
+		 * @throws IOException If the file cannot be written
+		 */
+		private void reserve(int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		void writeInt(int value) throws IOException {
+			reserve(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		void writeDouble(double value) throws IOException {
+			reserve(Double.BYTES);
+			buffer.putDouble(value);
+		}
+
+		/** Writes a non-negative number, seven bits at a time with the top bit set on every
+		 *  byte but the last
+		 *
+		 * @param value Number to write
+		 * @throws IOException If the file cannot be written
+		 */
+		void writeVarLong(long value) throws IOException {
+			reserve(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer.put((byte) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		void writeVarInt(int value) throws IOException {
+			assert(value >= 0)
+					: "Negative numbers must be written as signed varints";
+			writeVarLong(value);
+		}
+
+		/** Writes a number that may be negative, zigzag encoded so small negative numbers are
+		 *  short as well
+		 *
+		 * @param value Number to write
+		 * @throws IOException If the file cannot be written
+		 */
+		void writeSignedVarLong(long value) throws IOException {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		void writeString(String value) throws IOException {
+			if (value == null) {
+				writeVarInt(0);
+				return;
+			}
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(bytes.length + 1);
+			// Strings longer than the buffer are written in pieces
+			for (int offset = 0 ; offset < bytes.length ; ) {
+				if (!buffer.hasRemaining()) {
+					flush();
+				}
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/** Reads from a file channel through a direct buffer, which is refilled as it empties
+	 *
+	 */
+	private static final class Input {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private Input(FileChannel channel) {
+			this.channel = channel;
+			buffer.limit(0);
+		}
+
+		/** Makes sure the buffer holds enough unread bytes, reading more of the file if not
+		 *
+		 * @param bytes Number of bytes needed, at most the size of the buffer
+		 * @throws IOException If the file ends first
+		 */
+		private void require(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes) {
+				return;
+			}
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Saved cycling portal ends early");
+				}
+			}
+			buffer.flip();
+		}
+
+		int peekShort() throws IOException {
+			require(Short.BYTES);
+			return buffer.getShort(buffer.position()) & 0xFFFF;
+		}
+
+		int readInt() throws IOException {
+			require(Integer.BYTES);
+			return buffer.getInt();
+		}
+
+		double readDouble() throws IOException {
+			require(Double.BYTES);
+			return buffer.getDouble();
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0 ; shift < Long.SIZE ; shift += 7) {
+				require(1);
+				byte b = buffer.get();
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new IOException("Saved cycling portal holds a malformed number");
+		}
+
+		int readVarInt() throws IOException {
+			long value = readVarLong();
+			if (value > Integer.MAX_VALUE) {
+				throw new IOException("Saved cycling portal holds a malformed number");
+			}
+			return (int) value;
+		}
+
+		long readSignedVarLong() throws IOException {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		String readString() throws IOException {
+			int length = readVarInt() - 1;
+			if (length < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			for (int offset = 0 ; offset < length ; ) {
+				require(1);
+				int count = Math.min(buffer.remaining(), length - offset);
+				buffer.get(bytes, offset, count);
+				offset += count;
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
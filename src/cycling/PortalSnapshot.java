@@ -0,0 +1,379 @@
+package cycling;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * PortalSnapshot is an immutable copy of a portal at one point in time, published by a
+ * ConcurrentCyclingPortal. It answers the read queries of CyclingPortalInterface without
+ * any locking, so any number of threads can read it while the portal is being written to.
+ * Snapshots are structurally shared, a new snapshot reuses the copies of every race and
+ * stage that has not changed since the previous one. Its maps are persistent, so a write
+ * that adds or removes a race, stage, team or rider only copies the entries it touches.
+ *
+ * @version 1.0
+ *
+ */
+public final class PortalSnapshot {
+
+	// Snapshot with nothing in it, published before anything else
+	static final PortalSnapshot EMPTY = new PortalSnapshot(-1, new int[0], PersistentIntMap.empty(),
+			PersistentIntMap.empty(), new int[0], PersistentIntMap.empty(), PersistentIntMap.empty());
+
+	// Version of the portal registries the races, teams and riders were copied at
+	private final int structureVersion;
+	private final int[] raceIDs;
+	private final PersistentIntMap<RaceSnapshot> races;
+	// Race each stage is in, keyed by stage ID
+	private final PersistentIntMap<Integer> stageRaces;
+	private final int[] teamIDs;
+	private final PersistentIntMap<int[]> teamRiders;
+	// Team of each rider, keyed by rider ID
+	private final PersistentIntMap<Integer> riderTeams;
+
+	/** PortalSnapshot constructor
+	 *
+	 * @param structureVersion Version of the portal registries
+	 * @param raceIDs IDs of every race, in the order the portal holds them
+	 * @param races Snapshot of every race, keyed by race ID
+	 * @param stageRaces Race each stage is in, keyed by stage ID
+	 * @param teamIDs IDs of every team, in the order the portal holds them
+	 * @param teamRiders IDs of the riders in each team, keyed by team ID
+	 * @param riderTeams Team of each rider, keyed by rider ID
+	 */
+	private PortalSnapshot(int structureVersion, int[] raceIDs, PersistentIntMap<RaceSnapshot> races,
+			PersistentIntMap<Integer> stageRaces, int[] teamIDs, PersistentIntMap<int[]> teamRiders,
+			PersistentIntMap<Integer> riderTeams) {
+		this.structureVersion = structureVersion;
+		this.raceIDs = raceIDs;
+		this.races = races;
+		this.stageRaces = stageRaces;
+		this.teamIDs = teamIDs;
+		this.teamRiders = teamRiders;
+		this.riderTeams = riderTeams;
+	}
+
+	/** Builds a snapshot of the whole portal, reusing anything that has not changed since
+	 *  the previous snapshot. The registries must not change while it is built
+	 *
+	 * @param structureVersion Current version of the portal registries
+	 * @param races Races on the portal
+	 * @param teams Teams on the portal
+	 * @param previous Snapshot last published
+	 * @param copyRace Copies a race, taking any lock it needs, given the race and its previous copy
+	 * @return Snapshot of the portal as it is now
+	 */
+	static PortalSnapshot build(int structureVersion, ArrayList<Race> races, ArrayList<Team> teams,
+			PortalSnapshot previous, RaceCopier copyRace) {
+
+		// Races, stages, teams and riders only change with the registries, so only the
+		// races that have changed are replaced
+		if (structureVersion == previous.structureVersion) {
+			PersistentIntMap<RaceSnapshot> raceSnapshots = previous.races;
+			for (Race race : races) {
+				RaceSnapshot previousRace = previous.races.get(race.getRaceID());
+				RaceSnapshot raceSnapshot = copyRace.copy(race, previousRace);
+				if (raceSnapshot != previousRace) {
+					raceSnapshots = raceSnapshots.put(race.getRaceID(), raceSnapshot);
+				}
+			}
+			return new PortalSnapshot(structureVersion, previous.raceIDs, raceSnapshots, previous.stageRaces,
+					previous.teamIDs, previous.teamRiders, previous.riderTeams);
+		}
+
+		int[] raceIDs = new int[races.size()];
+		PersistentIntMap<RaceSnapshot> raceSnapshots = PersistentIntMap.empty();
+		PersistentIntMap<Integer> stageRaces = PersistentIntMap.empty();
+		for (int i = 0 ; i < raceIDs.length ; i++) {
+			Race race = races.get(i);
+			raceIDs[i] = race.getRaceID();
+			raceSnapshots = raceSnapshots.put(raceIDs[i], copyRace.copy(race, previous.races.get(raceIDs[i])));
+			for (Stage stage : race.getStages()) {
+				stageRaces = stageRaces.put(stage.getStageID(), raceIDs[i]);
+			}
+		}
+		int[] teamIDs = new int[teams.size()];
+		PersistentIntMap<int[]> teamRiders = PersistentIntMap.empty();
+		PersistentIntMap<Integer> riderTeams = PersistentIntMap.empty();
+		for (int i = 0 ; i < teamIDs.length ; i++) {
+			Team team = teams.get(i);
+			teamIDs[i] = team.getTeamID();
+			teamRiders = teamRiders.put(teamIDs[i], team.returnRiderIDs());
+			for (Rider rider : team.getRiders()) {
+				riderTeams = riderTeams.put(rider.getRiderID(), teamIDs[i]);
+			}
+		}
+		return new PortalSnapshot(structureVersion, raceIDs, raceSnapshots, stageRaces, teamIDs, teamRiders,
+				riderTeams);
+	}
+
+	/** Copies a race for a snapshot
+	 *
+	 */
+	interface RaceCopier {
+		RaceSnapshot copy(Race race, RaceSnapshot previous);
+	}
+
+	/** Gets a snapshot with one race added or replaced, sharing everything else with this
+	 *  one. The race is added after the others if it is new
+	 *
+	 * @param structureVersion Version of the portal registries once the race is in place
+	 * @param raceID ID of the race
+	 * @param race New snapshot of the race
+	 * @return Snapshot with the race in place
+	 */
+	PortalSnapshot withRace(int structureVersion, int raceID, RaceSnapshot race) {
+		RaceSnapshot previousRace = races.get(raceID);
+		int[] nextRaceIDs = previousRace == null ? appendID(raceIDs, raceID) : raceIDs;
+		PersistentIntMap<Integer> nextStageRaces = stageRaces;
+		// Stages of the race are only looked at again if they have been added or removed
+		if (previousRace == null || previousRace.getNumberOfStages() != race.getNumberOfStages()
+				|| !Arrays.equals(previousRace.getStageIDs(), race.getStageIDs())) {
+			if (previousRace != null) {
+				for (int stageID : previousRace.getStageIDs()) {
+					nextStageRaces = nextStageRaces.remove(stageID);
+				}
+			}
+			for (int stageID : race.getStageIDs()) {
+				nextStageRaces = nextStageRaces.put(stageID, raceID);
+			}
+		}
+		return new PortalSnapshot(structureVersion, nextRaceIDs, races.put(raceID, race), nextStageRaces, teamIDs,
+				teamRiders, riderTeams);
+	}
+
+	/** Gets a snapshot without a race and its stages, sharing everything else with this one
+	 *
+	 * @param structureVersion Version of the portal registries once the race is removed
+	 * @param raceID ID of the race
+	 * @return Snapshot without the race
+	 */
+	PortalSnapshot withoutRace(int structureVersion, int raceID) {
+		RaceSnapshot race = races.get(raceID);
+		if (race == null) {
+			return this;
+		}
+		PersistentIntMap<Integer> nextStageRaces = stageRaces;
+		for (int stageID : race.getStageIDs()) {
+			nextStageRaces = nextStageRaces.remove(stageID);
+		}
+		return new PortalSnapshot(structureVersion, removeID(raceIDs, raceID), races.remove(raceID), nextStageRaces,
+				teamIDs, teamRiders, riderTeams);
+	}
+
+	/** Gets a snapshot with a new team added after the others, sharing everything else with
+	 *  this one. A new team has no riders yet
+	 *
+	 * @param structureVersion Version of the portal registries once the team is added
+	 * @param teamID ID of the team
+	 * @return Snapshot with the team added
+	 */
+	PortalSnapshot withTeam(int structureVersion, int teamID) {
+		return new PortalSnapshot(structureVersion, raceIDs, races, stageRaces, appendID(teamIDs, teamID),
+				teamRiders.put(teamID, new int[0]), riderTeams);
+	}
+
+	/** Gets a snapshot with a rider added to the end of their team, sharing everything else
+	 *  with this one
+	 *
+	 * @param structureVersion Version of the portal registries once the rider is added
+	 * @param riderID ID of the rider
+	 * @param teamID ID of the team the rider is in, which must be in this snapshot
+	 * @return Snapshot with the rider added
+	 */
+	PortalSnapshot withRider(int structureVersion, int riderID, int teamID) {
+		return new PortalSnapshot(structureVersion, raceIDs, races, stageRaces, teamIDs,
+				teamRiders.put(teamID, appendID(teamRiders.get(teamID), riderID)), riderTeams.put(riderID, teamID));
+	}
+
+	/** Gets a snapshot without a team and its riders, sharing everything else with this one.
+	 *  Races the riders had results in are not updated
+	 *
+	 * @param structureVersion Version of the portal registries once the team is removed
+	 * @param teamID ID of the team
+	 * @return Snapshot without the team
+	 */
+	PortalSnapshot withoutTeam(int structureVersion, int teamID) {
+		int[] riders = teamRiders.get(teamID);
+		if (riders == null) {
+			return this;
+		}
+		PersistentIntMap<Integer> nextRiderTeams = riderTeams;
+		for (int riderID : riders) {
+			nextRiderTeams = nextRiderTeams.remove(riderID);
+		}
+		return new PortalSnapshot(structureVersion, raceIDs, races, stageRaces, removeID(teamIDs, teamID),
+				teamRiders.remove(teamID), nextRiderTeams);
+	}
+
+	/** Gets a snapshot without a rider, sharing everything else with this one. Races the
+	 *  rider had results in are not updated
+	 *
+	 * @param structureVersion Version of the portal registries once the rider is removed
+	 * @param riderID ID of the rider
+	 * @param team Team the rider was in, as it is on the portal
+	 * @return Snapshot without the rider
+	 */
+	PortalSnapshot withoutRider(int structureVersion, int riderID, Team team) {
+		return new PortalSnapshot(structureVersion, raceIDs, races, stageRaces, teamIDs,
+				teamRiders.put(team.getTeamID(), team.returnRiderIDs()), riderTeams.remove(riderID));
+	}
+
+	/** Copies an array of IDs with one more on the end
+	 *
+	 * @param ids IDs to copy
+	 * @param id ID to add
+	 * @return Copy with the ID added
+	 */
+	private static int[] appendID(int[] ids, int id) {
+		int[] copy = Arrays.copyOf(ids, ids.length + 1);
+		copy[ids.length] = id;
+		return copy;
+	}
+
+	/** Copies an array of IDs without one of them, keeping the rest in order
+	 *
+	 * @param ids IDs to copy
+	 * @param id ID to leave out
+	 * @return Copy without the ID
+	 */
+	private static int[] removeID(int[] ids, int id) {
+		int[] copy = new int[ids.length - 1];
+		int n = 0;
+		for (int other : ids) {
+			if (other != id) {
+				copy[n++] = other;
+			}
+		}
+		return copy;
+	}
+
+	// getters
+	int getStructureVersion() { return structureVersion; }
+
+	RaceSnapshot getRaceSnapshot(int raceID) { return races.get(raceID); }
+
+	public int[] getRaceIds() { return raceIDs.clone(); }
+
+	public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getDetails();
+	}
+
+	public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getNumberOfStages();
+	}
+
+	public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getStageIDs();
+	}
+
+	public double getStageLength(int stageId) throws IDNotRecognisedException {
+		return findStage(stageId).getLength();
+	}
+
+	public int[] getStageSegments(int stageId) throws IDNotRecognisedException {
+		return findStage(stageId).getSegmentIDs();
+	}
+
+	public int[] getTeams() { return teamIDs.clone(); }
+
+	public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+		int[] riders = teamRiders.get(teamId);
+		if (riders == null) {
+			throw new IDNotRecognisedException("Team with inputted ID does not exist");
+		}
+		return riders.clone();
+	}
+
+	public LocalTime[] getRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		checkRiderID(riderId);
+		return findStage(stageId).getResults(riderId);
+	}
+
+	public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId) throws IDNotRecognisedException {
+		checkRiderID(riderId);
+		return findStage(stageId).getAdjustedTime(riderId);
+	}
+
+	public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+		return findStage(stageId).getRankedRiders();
+	}
+
+	public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId) throws IDNotRecognisedException {
+		return findStage(stageId).getRankedAdjustedTimes();
+	}
+
+	public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+		return findStage(stageId).getRankedPoints();
+	}
+
+	public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+		return findStage(stageId).getRankedMountainPoints();
+	}
+
+	public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getGeneralRanks();
+	}
+
+	public LocalTime[] getGeneralClassificationTimesInRace(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getGeneralTimes();
+	}
+
+	public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getPoints();
+	}
+
+	public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getMountainPoints();
+	}
+
+	public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getPointsRanks();
+	}
+
+	public int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException {
+		return findRace(raceId).getMountainRanks();
+	}
+
+	/** Finds the snapshot of a race
+	 *
+	 * @param raceID ID of the race
+	 * @return Snapshot of the race
+	 * @throws IDNotRecognisedException If the race was not on the portal when the snapshot was taken
+	 */
+	private RaceSnapshot findRace(int raceID) throws IDNotRecognisedException {
+		RaceSnapshot race = races.get(raceID);
+		if (race == null) {
+			throw new IDNotRecognisedException("Race with inputted ID does not exist");
+		}
+		return race;
+	}
+
+	/** Finds the snapshot of a stage, through the race it is in
+	 *
+	 * @param stageID ID of the stage
+	 * @return Snapshot of the stage
+	 * @throws IDNotRecognisedException If the stage was not on the portal when the snapshot was taken
+	 */
+	private StageSnapshot findStage(int stageID) throws IDNotRecognisedException {
+		Integer raceID = stageRaces.get(stageID);
+		RaceSnapshot race = raceID == null ? null : races.get(raceID);
+		StageSnapshot stage = race == null ? null : race.getStage(stageID);
+		if (stage == null) {
+			throw new IDNotRecognisedException("Stage with inputted ID does not exist");
+		}
+		return stage;
+	}
+
+	/** Checks a rider was on the portal when the snapshot was taken
+	 *
+	 * @param riderID ID of the rider
+	 * @throws IDNotRecognisedException If the rider was not on the portal
+	 */
+	private void checkRiderID(int riderID) throws IDNotRecognisedException {
+		if (!riderTeams.containsKey(riderID)) {
+			throw new IDNotRecognisedException("Rider with corresponding ID does not exist on system.");
+		}
+	}
+}
@@ -1,8 +1,8 @@
 package cycling;
 
-import java.time.Duration;
-import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /** Race class represents each race in the system, contains the stages in each race and methods
  *  to deal with race results.
@@ -13,23 +13,36 @@ public class Race extends OrderResults {
 	private int raceID;
 	private String raceName;
 	private String raceDescription;
-	// static counter for last used ID int
-	private static int currentRaceID = 1;
 	// Arraylist contains all stage segments
 	private ArrayList<Stage> stages = new ArrayList<Stage>();
+	// Adjusted times of each stage last applied to the general classification, keyed by stage ID
+	private final IntHashMap<IntLongHashMap> appliedStageTimes = new IntHashMap<>();
+	private final IntIntHashMap appliedStageVersions = new IntIntHashMap();
+	// Total adjusted time of every rider with a time in any stage
+	private final IntLongHashMap totalTimes = new IntLongHashMap();
+	// Applied times of the last stage with results, whose riders make up the general classification
+	private IntLongHashMap memberTimes = new IntLongHashMap();
+	// Last stage with results, riders with equal total times are ranked as they are in it
+	private Stage memberStage;
+	// Points and mountain classifications, which hold the same riders as the general classification
+	private final PointsClassification pointsClassification = new PointsClassification();
+	private final PointsClassification mountainClassification = new PointsClassification();
+	// Number of results in changed stages at which the stages are read in parallel
+	private int parallelThreshold = Integer.MAX_VALUE;
+	// Counts every change to the stages, segments or results of the race
+	private int raceVersion = 0;
 
 	/** Constructor for race class
 	 *
+	 * @param raceID ID given to the race by the portal
 	 * @param raceName Name of new race
 	 * @param raceDescription Description of new race
 	 */
-	public Race(String raceName, String raceDescription) {
+	public Race(int raceID, String raceName, String raceDescription) {
 
+		this.raceID = raceID;
 		this.raceName = raceName;
 		this.raceDescription = raceDescription;
-
-		// assigns race ID and increments
-		this.raceID = currentRaceID++;
 	}
 
 	// getters
@@ -41,15 +54,22 @@ public class Race extends OrderResults {
 
 	public ArrayList<Stage> getStages() { return stages; }
 
-	public static int getCurrentRaceID() { return currentRaceID; }
+	public int getParallelThreshold() { return parallelThreshold; }
+
+	public int getRaceVersion() { return raceVersion; }
 
 	// setters
-	public static void setCurrentRaceID(int ID) { currentRaceID = ID; }
+	public void setParallelThreshold(int parallelThreshold) { this.parallelThreshold = parallelThreshold; }
 
 	public void setRaceName(String raceName) { this.raceName = raceName; }
 
 	public void setRaceDescription(String desc) { this.raceDescription = raceDescription; }
 
+	/** Records that the stages, segments or results of the race have changed, so anything
+	 *  worked out from them is out of date
+	 *
+	 */
+	public void markChanged() { raceVersion++; }
 
 	/** Adds a new stage to the race, orders them based upon their start time
 	 *
@@ -57,6 +77,10 @@ public class Race extends OrderResults {
 	 */
 	public void addStage(Stage newStage) {
 
+		// Stage keeps the ID of its race so it can be removed without searching
+		newStage.setRaceID(raceID);
+		markChanged();
+
 		// Stages need to be added based upon their start time
 		// If no stages in race, adds to start of list
 		if(stages.size() == 0) {
@@ -95,6 +119,17 @@ public class Race extends OrderResults {
 				break;
 			}
 		}
+		// Times of the stage are taken back off the general classification
+		IntLongHashMap appliedTimes = appliedStageTimes.remove(stageToRemove);
+		appliedStageVersions.remove(stageToRemove);
+		if (appliedTimes != null) {
+			StageTimeChanges changes = new StageTimeChanges();
+			changes.addStage(appliedTimes, new IntLongHashMap());
+			applyChanges(changes);
+		}
+		pointsClassification.removeStage(stageToRemove);
+		mountainClassification.removeStage(stageToRemove);
+		markChanged();
 	}
 
 	/** Loops through all stages and places each ones ID into an array to
@@ -141,89 +176,202 @@ public class Race extends OrderResults {
 				", description= " + raceDescription + "]";
 	}
 
-	/** Goes through each rider and collects their times in each of the race stages,
-	 *  these are then ordered based upon total completion time using superclass
+	/** Brings the general classification up to date with the results of every stage. Only
+	 *  stages whose results have changed since they were last applied are read, and only
+	 *  the riders whose times changed in them are moved in the standings. If the changed
+	 *  stages hold enough results, they are read in parallel
 	 *
 	 */
 	public void collectResults() {
-		// Resets the list of results, ready to repopulate
-		super.clearResults();
-		// Check stages exist for the race
-		if(stages.size() > 0 ) {
-
-			// Array of riders which have competed in stages is gotten.
-			// First stage may not have results so checks every result until one contains results
-			int[] ridersInRace = new int[0];
-			for(Stage stageWithResults : stages) {
-				// Rider results in all stages are adjusted
-				stageWithResults.adjustRiderResults();
-				// First stage containing results is then accessed to get the riders in the race
-				if(stageWithResults.getRankedRiders().length != 0){
-					ridersInRace = stageWithResults.getRankedRiders();
-				}
+
+		// Stages whose results have changed since they were applied
+		ArrayList<Stage> changedStages = new ArrayList<>();
+		long changedResults = 0;
+		for (Stage stageWithResults : stages) {
+			int stageID = stageWithResults.getStageID();
+			if (appliedStageTimes.containsKey(stageID)
+					&& appliedStageVersions.get(stageID, -1) == stageWithResults.getVersion()) {
+				continue;
 			}
+			changedStages.add(stageWithResults);
+			changedResults += stageWithResults.getNumberOfResults();
+		}
+		if (changedStages.isEmpty()) {
+			return;
+		}
 
-			// Goes through each rider and gathers times
-			for (int rider : ridersInRace) {
+		Stage[] stagesToRead = changedStages.toArray(new Stage[0]);
+		IntLongHashMap[] oldTimes = new IntLongHashMap[stagesToRead.length];
+		IntLongHashMap[] newTimes = new IntLongHashMap[stagesToRead.length];
+		for (int i = 0 ; i < stagesToRead.length ; i++) {
+			oldTimes[i] = appliedStageTimes.get(stagesToRead[i].getStageID());
+		}
 
-				LocalTime totalAdjustedTime = LocalTime.of(0, 0, 0);
+		StageTimeChanges changes;
+		if (stagesToRead.length > 1 && changedResults >= parallelThreshold) {
+			// Each stage is only read by one task, so stages can be read at the same time
+			changes = ForkJoinPool.commonPool().invoke(
+					new CollectTask(stagesToRead, oldTimes, newTimes, 0, stagesToRead.length));
+		} else {
+			changes = new StageTimeChanges();
+			for (int i = 0 ; i < stagesToRead.length ; i++) {
+				newTimes[i] = stagesToRead[i].getAdjustedTimesView();
+				changes.addStage(oldTimes[i], newTimes[i]);
+			}
+		}
 
-				for (Stage stageToCheck : stages) {
+		for (int i = 0 ; i < stagesToRead.length ; i++) {
+			appliedStageTimes.put(stagesToRead[i].getStageID(), newTimes[i]);
+			appliedStageVersions.put(stagesToRead[i].getStageID(), stagesToRead[i].getVersion());
+		}
+		applyChanges(changes);
+	}
 
-					// Gets the time the rider took for the stage
-					LocalTime timeForStage = stageToCheck.getAdjustedRiderTime(rider);
+	/** Task reading the adjusted times of a range of stages and finding how they change the
+	 *  totals of the riders, the range is split in half until it holds a single stage
+	 *
+	 */
+	private static final class CollectTask extends RecursiveTask<StageTimeChanges> {
+
+		private final Stage[] stagesToRead;
+		private final IntLongHashMap[] oldTimes;
+		private final IntLongHashMap[] newTimes;
+		private final int from;
+		private final int to;
+
+		private CollectTask(Stage[] stagesToRead, IntLongHashMap[] oldTimes, IntLongHashMap[] newTimes,
+				int from, int to) {
+			this.stagesToRead = stagesToRead;
+			this.oldTimes = oldTimes;
+			this.newTimes = newTimes;
+			this.from = from;
+			this.to = to;
+		}
 
-					// Checks that there is a result for the stage
-					if (timeForStage != null) {
-						// Converts to a duration and adds it
-						totalAdjustedTime = totalAdjustedTime.plus(Duration.ofNanos(timeForStage.toNanoOfDay()));
-					}
+		@Override
+		protected StageTimeChanges compute() {
+			if (to - from == 1) {
+				StageTimeChanges changes = new StageTimeChanges();
+				newTimes[from] = stagesToRead[from].getAdjustedTimesView();
+				changes.addStage(oldTimes[from], newTimes[from]);
+				return changes;
+			}
+			int middle = (from + to) >>> 1;
+			CollectTask second = new CollectTask(stagesToRead, oldTimes, newTimes, middle, to);
+			second.fork();
+			StageTimeChanges changes = new CollectTask(stagesToRead, oldTimes, newTimes, from, middle).compute();
+			StageTimeChanges secondChanges = second.join();
+			// Smaller set of changes is merged into the larger one
+			if (changes.size() < secondChanges.size()) {
+				secondChanges.merge(changes);
+				return secondChanges;
+			}
+			changes.merge(secondChanges);
+			return changes;
+		}
+	}
 
-				}
-				// Once all results for rider are gotten, result is placed into race results
-				super.addResult(rider, totalAdjustedTime);
-				super.setAdjustedTimeToResult(rider, totalAdjustedTime);
+	/** Applies changes to the total times of riders, and moves each changed rider to their
+	 *  new place in the standings. Riders of the last stage with results make up the
+	 *  general classification, so riders joining or leaving that stage are moved too, as
+	 *  are riders whose place in it has changed as it breaks ties
+	 *
+	 * @param changes Changes to the total times of riders
+	 */
+	private void applyChanges(StageTimeChanges changes) {
+
+		// Last stage with results gives the riders in the race
+		IntLongHashMap newMembers = new IntLongHashMap();
+		Stage newMemberStage = null;
+		for (int i = stages.size() - 1 ; i >= 0 ; i--) {
+			IntLongHashMap appliedTimes = appliedStageTimes.get(stages.get(i).getStageID());
+			if (appliedTimes != null && appliedTimes.size() > 0) {
+				newMembers = appliedTimes;
+				newMemberStage = stages.get(i);
+				break;
 			}
 		}
+		IntLongHashMap oldMembers = memberTimes;
+		memberTimes = newMembers;
+		memberStage = newMemberStage;
+
+		changes.forEachRider((riderID, timeChange) -> {
+			// Total is held in nanoseconds so it does not wrap after a day
+			totalTimes.put(riderID, totalTimes.get(riderID, 0) + timeChange);
+			placeRider(riderID);
+		});
+		// Applied times are never changed once applied, so the same map holds the same riders
+		if (oldMembers != newMembers) {
+			IntLongHashMap members = newMembers;
+			oldMembers.forEach((riderID, time) -> {
+				if (!members.containsKey(riderID)) {
+					placeRider(riderID);
+				}
+			});
+			members.forEach((riderID, time) -> {
+				Result standing = super.getRiderAndResult(riderID);
+				if (standing == null || standing.getTieTime() != memberStage.getResultNanos(riderID)
+						|| standing.getSequence() != memberStage.getResultSequence(riderID)) {
+					placeRider(riderID);
+				}
+			});
+		}
+	}
 
+	/** Moves a rider to their place in the standings, or out of them if they are not one
+	 *  of the riders in the race
+	 *
+	 * @param riderID ID of the rider to move
+	 */
+	private void placeRider(int riderID) {
+		super.removeResult(riderID);
+		if (memberTimes.containsKey(riderID)) {
+			long totalAdjustedTime = totalTimes.get(riderID, 0);
+			Result standing = new Result(riderID, totalAdjustedTime);
+			standing.setAdjustedTime(totalAdjustedTime);
+			// Equal totals are ranked as the riders are in the last stage with results
+			standing.setTieTime(memberStage.getResultNanos(riderID));
+			standing.setSequence(memberStage.getResultSequence(riderID));
+			super.addResult(standing);
+			// Standing breaks ties in the classifications, so riders are moved in them too
+			pointsClassification.placeRider(standing);
+			mountainClassification.placeRider(standing);
+		} else {
+			pointsClassification.removeRider(riderID);
+			mountainClassification.removeRider(riderID);
+		}
 	}
 
-	/** Goes through each stage and rider and collects their points for the race total
+	/** Brings the points classification up to date, only stages whose results have changed
+	 *  since their points were last applied are read
 	 *
 	 */
 	public void collectPoints() {
 
-		// Goes through every stage getting rider points
+		// Riders in the classification follow the general classification
+		collectResults();
 		for (Stage stageWithPoints : stages) {
-
-			// Gets array of riders and points corresponding
-			int[] rankedRiders = stageWithPoints.getRankedRiders();
-			int[] rankedPoints = stageWithPoints.getRidersPointsForStage();
-			// Adds rider points to their total number of points in the race
-			for (int i = 0 ; i < rankedRiders.length ; i++) {
-				super.addPointsToResult(rankedRiders[i], rankedPoints[i]);
+			if (!pointsClassification.isApplied(stageWithPoints.getStageID(), stageWithPoints.getVersion())) {
+				pointsClassification.applyStage(stageWithPoints.getStageID(), stageWithPoints.getVersion(),
+						stageWithPoints.getPointsView());
 			}
 		}
-
 	}
 
-	/** Goes through each stage and rider and collects their mountain points for the
-	 *  race total
+	/** Brings the mountain classification up to date, only stages whose results have changed
+	 *  since their points were last applied are read
+	 *
 	 */
 	public void collectMountainPoints() {
 
-		// Goes through every stage getting rider points
+		// Riders in the classification follow the general classification
+		collectResults();
 		for (Stage stageWithPoints : stages) {
-
-			// Gets array of riders and points corresponding
-			int[] rankedRiders = stageWithPoints.getRankedRiders();
-			int[] rankedMountainPoints = stageWithPoints.getMountainPointsForStage();
-			// Adds rider points to their total number of points in the race
-			for (int i = 0 ; i < rankedRiders.length ; i++) {
-				super.addPointsToResult(rankedRiders[i], rankedMountainPoints[i]);
+			if (!mountainClassification.isApplied(stageWithPoints.getStageID(), stageWithPoints.getVersion())) {
+				mountainClassification.applyStage(stageWithPoints.getStageID(), stageWithPoints.getVersion(),
+						stageWithPoints.getMountainPointsView());
 			}
 		}
-
 	}
 
 	/** Gets list of points for the race, with points being ranked on total finish time across
@@ -232,61 +380,48 @@ public class Race extends OrderResults {
 	 * @return		Array of points for each rider
 	 */
 	public int[] getRacePoints() {
+		return pointsInGeneralClassificationOrder(pointsClassification);
+	}
 
-		ArrayList<Result> resultsWithPoints = super.getResults();
-		// Creates an array to place points in
-		int[] points = new int[resultsWithPoints.size()];
-		// Array list looped through and each riders points added to new array
-		for (int i = 0 ; i < points.length ; i++) {
-
-			points[i] = resultsWithPoints.get(i).getPoints();
-		}
-
-		return points;
-
+	/** Gets list of mountain points for the race, with points being ranked on total finish
+	 *  time across all the stages
+	 *
+	 * @return		Array of mountain points for each rider
+	 */
+	public int[] getRaceMountainPoints() {
+		return pointsInGeneralClassificationOrder(mountainClassification);
 	}
 
-	/** Collects all riders points across all stages and ranks riders based upon the amount
-	 *  of points they have
+	/** Gets riders ranked by their points across all stages, the general classification
+	 *  breaks ties
 	 *
 	 * @return Ranked array of riders, ranked based upon total points for the race
 	 */
 	public int[] getRidersRankedByPoints() {
+		return pointsClassification.getRankedRiders();
+	}
 
-		ArrayList<Result> resultsWithPoints = super.getResults();
-
-		ArrayList<Integer> riderIDs = new ArrayList<>();
-
-		// Extracts result one by one, starting with the largest
-		while (resultsWithPoints.size() > 0) {
-
-			// Holds the index of the rider with the most points currently
-			int currentLargestIndex = 0;
-			// Holds the largest point count for comparison later on
-			int currentLargestPoints = -1;
-
-			// Compare results to find the rider with most points currently
-			for (int i=0; i<resultsWithPoints.size(); i++) {
-				// Finds the rider with the largest points currently in the old arraylist
-				if (resultsWithPoints.get(i).getPoints() > currentLargestPoints) {
-					currentLargestIndex = i;
-					currentLargestPoints = resultsWithPoints.get(i).getPoints();
-				}
-			}
-			/* Results are added to new array list one by one, starting with the largest
-			 */
-			riderIDs.add(resultsWithPoints.get(currentLargestIndex).getRiderID());
-			resultsWithPoints.remove(currentLargestIndex);
-
-		}
-		// Converts array list into an array
-		int[] arrayRiderIDs = new int[riderIDs.size()];
+	/** Gets riders ranked by their mountain points across all stages, the general
+	 *  classification breaks ties
+	 *
+	 * @return Ranked array of riders, ranked based upon total mountain points for the race
+	 */
+	public int[] getRidersRankedByMountainPoints() {
+		return mountainClassification.getRankedRiders();
+	}
 
-		for(int i = 0; i<riderIDs.size();i++) {
-			arrayRiderIDs[i] = riderIDs.get(i);
+	/** Reads the points of a classification in general classification order
+	 *
+	 * @param classification Classification to read the points from
+	 * @return Points of each rider, ordered by total time
+	 */
+	private int[] pointsInGeneralClassificationOrder(PointsClassification classification) {
+		int[] rankedRiders = super.getRankedRiders();
+		int[] rankedPoints = new int[rankedRiders.length];
+		for (int i = 0 ; i < rankedRiders.length ; i++) {
+			rankedPoints[i] = classification.getPoints(rankedRiders[i]);
 		}
-
-		return arrayRiderIDs;
+		return rankedPoints;
 	}
 
 }
@@ -0,0 +1,347 @@
+package cycling;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * RaceCommandExecutor runs the commands that work on a race one at a time, in a queue
+ * belonging to that race, and hands back a future for each one. Commands for a race run
+ * in the order they were submitted, so a query sees every command that was submitted to
+ * the race before it. Races have their own queues, so commands for different races run
+ * at the same time and never wait on each other.
+ * Commands are run against a ConcurrentCyclingPortal. As only the queue of a race works
+ * on it, the lock of the race is never contended, only operations that add or remove
+ * stages and segments still wait on the registry lock, which every race shares.
+ * The queues hold no threads of their own, they all run on one shared executor, so a
+ * portal with many races does not need a thread for each. Commands are routed to the
+ * race of their stage or segment without locking.
+ *
+ * @version 1.0
+ *
+ */
+public class RaceCommandExecutor implements AutoCloseable {
+
+	// private attributes
+	private final ConcurrentCyclingPortal portal;
+	private final Executor executor;
+	// Whether the executor was made by this, so is shut down when it is closed
+	private final boolean ownsExecutor;
+	// Queue of each race that has been given a command
+	private final ConcurrentHashMap<Integer, SerialExecutor> queues = new ConcurrentHashMap<>();
+	private volatile boolean closed = false;
+
+	/** Command that works on a single race of the portal
+	 *
+	 * @param <T> Type of the result of the command
+	 */
+	@FunctionalInterface
+	public interface RaceCommand<T> {
+		T run(ConcurrentCyclingPortal portal) throws Exception;
+	}
+
+	/** RaceCommandExecutor constructor, running the queues on virtual threads if they are
+	 *  available, or on a pool of daemon threads
+	 *
+	 * @param portal Portal the commands are run against
+	 */
+	public RaceCommandExecutor(ConcurrentCyclingPortal portal) {
+		this(portal, SerialExecutor.sharedExecutor("race-commands"), true);
+	}
+
+	/** RaceCommandExecutor constructor
+	 *
+	 * @param portal Portal the commands are run against
+	 * @param executor Executor every race queue runs on, which is left running when this
+	 *                 is closed
+	 */
+	public RaceCommandExecutor(ConcurrentCyclingPortal portal, Executor executor) {
+		this(portal, executor, false);
+	}
+
+	private RaceCommandExecutor(ConcurrentCyclingPortal portal, Executor executor, boolean ownsExecutor) {
+		this.portal = portal;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+
+	// getters
+	public ConcurrentCyclingPortal getPortal() { return portal; }
+
+	/** Queues a command on the queue of a race
+	 *
+	 * @param raceId ID of the race the command works on
+	 * @param command Command to run
+	 * @return Future completed with the result of the command, or with the exception it threw
+	 * @param <T> Type of the result of the command
+	 */
+	public <T> CompletableFuture<T> submit(int raceId, RaceCommand<T> command) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		if (closed) {
+			future.completeExceptionally(new IllegalStateException("Executor has been closed"));
+			return future;
+		}
+		try {
+			queueOf(raceId).execute(() -> {
+				try {
+					future.complete(command.run(portal));
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/** Queues a command on the queue of the race a stage is in. If the stage does not
+	 *  exist the future is completed straight away with the exception
+	 *
+	 * @param stageId ID of the stage the command works on
+	 * @param command Command to run
+	 * @return Future completed with the result of the command, or with the exception it threw
+	 * @param <T> Type of the result of the command
+	 */
+	public <T> CompletableFuture<T> submitToStage(int stageId, RaceCommand<T> command) {
+		try {
+			return submit(portal.findRaceOfStage(stageId), command);
+		} catch (IDNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/** Queues a command on the queue of the race a segment is in. If the segment does not
+	 *  exist the future is completed straight away with the exception
+	 *
+	 * @param segmentId ID of the segment the command works on
+	 * @param command Command to run
+	 * @return Future completed with the result of the command, or with the exception it threw
+	 * @param <T> Type of the result of the command
+	 */
+	public <T> CompletableFuture<T> submitToSegment(int segmentId, RaceCommand<T> command) {
+		try {
+			return submit(portal.findRaceOfSegment(segmentId), command);
+		} catch (IDNotRecognisedException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/** Gets the queue of a race, creating it if the race has not had a command yet
+	 *
+	 * @param raceId ID of the race
+	 * @return Queue of the race
+	 */
+	private SerialExecutor queueOf(int raceId) {
+		return queues.computeIfAbsent(raceId, id -> new SerialExecutor(executor));
+	}
+
+	/** Queues adding a stage to a race
+	 *
+	 * @return Future completed with the ID of the new stage
+	 * @see CyclingPortalInterface#addStageToRace
+	 */
+	public CompletableFuture<Integer> addStageToRace(int raceId, String stageName, String description, double length,
+			LocalDateTime startTime, StageType type) {
+		return submit(raceId, p -> p.addStageToRace(raceId, stageName, description, length, startTime, type));
+	}
+
+	/** Queues adding a climb to a stage
+	 *
+	 * @return Future completed with the ID of the new segment
+	 * @see CyclingPortalInterface#addCategorizedClimbToStage
+	 */
+	public CompletableFuture<Integer> addCategorizedClimbToStage(int stageId, Double location, SegmentType type,
+			Double averageGradient, Double length) {
+		return submitToStage(stageId, p -> p.addCategorizedClimbToStage(stageId, location, type, averageGradient,
+				length));
+	}
+
+	/** Queues adding a sprint to a stage
+	 *
+	 * @return Future completed with the ID of the new segment
+	 * @see CyclingPortalInterface#addIntermediateSprintToStage
+	 */
+	public CompletableFuture<Integer> addIntermediateSprintToStage(int stageId, double location) {
+		return submitToStage(stageId, p -> p.addIntermediateSprintToStage(stageId, location));
+	}
+
+	/** Queues removing a segment
+	 *
+	 * @see CyclingPortalInterface#removeSegment
+	 */
+	public CompletableFuture<Void> removeSegment(int segmentId) {
+		return submitToSegment(segmentId, p -> {
+			p.removeSegment(segmentId);
+			return null;
+		});
+	}
+
+	/** Queues concluding the preparation of a stage
+	 *
+	 * @see CyclingPortalInterface#concludeStagePreparation
+	 */
+	public CompletableFuture<Void> concludeStagePreparation(int stageId) {
+		return submitToStage(stageId, p -> {
+			p.concludeStagePreparation(stageId);
+			return null;
+		});
+	}
+
+	/** Queues registering the results of a rider in a stage
+	 *
+	 * @see CyclingPortalInterface#registerRiderResultsInStage
+	 */
+	public CompletableFuture<Void> registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints) {
+		return submitToStage(stageId, p -> {
+			p.registerRiderResultsInStage(stageId, riderId, checkpoints);
+			return null;
+		});
+	}
+
+	/** Queues registering the results of many riders in a stage
+	 *
+	 * @return Future completed with the report of which results were added
+	 * @see CyclingPortal#registerRiderResultsInStageBatch
+	 */
+	public CompletableFuture<BatchRegistrationReport> registerRiderResultsInStageBatch(int stageId, int[] riderIds,
+			LocalTime[][] checkpoints) {
+		return submitToStage(stageId, p -> p.registerRiderResultsInStageBatch(stageId, riderIds, checkpoints));
+	}
+
+	/** Queues deleting the results of a rider in a stage
+	 *
+	 * @see CyclingPortalInterface#deleteRiderResultsInStage
+	 */
+	public CompletableFuture<Void> deleteRiderResultsInStage(int stageId, int riderId) {
+		return submitToStage(stageId, p -> {
+			p.deleteRiderResultsInStage(stageId, riderId);
+			return null;
+		});
+	}
+
+	/** Queues removing a stage
+	 *
+	 * @see CyclingPortalInterface#removeStageById
+	 */
+	public CompletableFuture<Void> removeStageById(int stageId) {
+		return submitToStage(stageId, p -> {
+			p.removeStageById(stageId);
+			return null;
+		});
+	}
+
+	/** Queues removing a race. Once the race is removed its queue is dropped, commands
+	 *  already queued behind the removal still run on it
+	 *
+	 * @see CyclingPortalInterface#removeRaceById
+	 */
+	public CompletableFuture<Void> removeRaceById(int raceId) {
+		return submit(raceId, p -> {
+			p.removeRaceById(raceId);
+			queues.remove(raceId);
+			return null;
+		});
+	}
+
+	/** Queues reading the stages of a race
+	 *
+	 * @see CyclingPortalInterface#getRaceStages
+	 */
+	public CompletableFuture<int[]> getRaceStages(int raceId) {
+		return submit(raceId, p -> p.getRaceStages(raceId));
+	}
+
+	/** Queues reading the ranks of the riders in a stage
+	 *
+	 * @see CyclingPortalInterface#getRidersRankInStage
+	 */
+	public CompletableFuture<int[]> getRidersRankInStage(int stageId) {
+		return submitToStage(stageId, p -> p.getRidersRankInStage(stageId));
+	}
+
+	/** Queues reading the general classification of a race
+	 *
+	 * @see CyclingPortalInterface#getRidersGeneralClassificationRank
+	 */
+	public CompletableFuture<int[]> getRidersGeneralClassificationRank(int raceId) {
+		return submit(raceId, p -> p.getRidersGeneralClassificationRank(raceId));
+	}
+
+	/** Queues reading the general classification times of a race
+	 *
+	 * @see CyclingPortalInterface#getGeneralClassificationTimesInRace
+	 */
+	public CompletableFuture<LocalTime[]> getGeneralClassificationTimesInRace(int raceId) {
+		return submit(raceId, p -> p.getGeneralClassificationTimesInRace(raceId));
+	}
+
+	/** Queues reading the points classification of a race
+	 *
+	 * @see CyclingPortalInterface#getRidersPointClassificationRank
+	 */
+	public CompletableFuture<int[]> getRidersPointClassificationRank(int raceId) {
+		return submit(raceId, p -> p.getRidersPointClassificationRank(raceId));
+	}
+
+	/** Queues reading the mountain classification of a race
+	 *
+	 * @see CyclingPortalInterface#getRidersMountainPointClassificationRank
+	 */
+	public CompletableFuture<int[]> getRidersMountainPointClassificationRank(int raceId) {
+		return submit(raceId, p -> p.getRidersMountainPointClassificationRank(raceId));
+	}
+
+	/** Stops taking commands and waits for the commands already queued to finish
+	 *
+	 * @param timeout Longest time to wait
+	 * @param unit Unit of the timeout
+	 * @return True if every command finished in time
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		closed = true;
+		try {
+			drained().get(timeout, unit);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (ExecutionException e) {
+			// Drain markers never throw, so the executor must have rejected them
+			return false;
+		}
+	}
+
+	/** Stops taking commands, leaving the commands already queued to finish in the background
+	 *
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		drained();
+	}
+
+	/** Queues a marker behind the commands of every race, and shuts down the executor once
+	 *  they have all run if it was made by this
+	 *
+	 * @return Future completed once every command queued so far has run
+	 */
+	private CompletableFuture<Void> drained() {
+		CompletableFuture<?>[] markers = queues.values().stream()
+				.map(queue -> CompletableFuture.runAsync(() -> {}, queue))
+				.toArray(CompletableFuture<?>[]::new);
+		CompletableFuture<Void> drained = CompletableFuture.allOf(markers);
+		if (ownsExecutor) {
+			// Queues reschedule themselves on the executor, so it is only shut down once they are empty
+			drained.whenComplete((result, e) -> ((ExecutorService) executor).shutdown());
+		}
+		return drained;
+	}
+}
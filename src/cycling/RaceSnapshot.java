@@ -0,0 +1,84 @@
+package cycling;
+
+import java.time.LocalTime;
+
+/** Frozen copy of a race, its stages and its classifications, held by a PortalSnapshot.
+ *  Nothing in it is changed once it has been built, so it can be read from any thread
+ *  without locking. Stages that have not changed are shared with the previous snapshot.
+ *
+ */
+final class RaceSnapshot {
+
+	// Version of the race it was built from
+	private final int raceVersion;
+	private final String details;
+	private final int[] stageIDs;
+	// Snapshot of each stage, keyed by stage ID
+	private final IntHashMap<StageSnapshot> stages = new IntHashMap<>();
+	// Classifications, in the order the portal returns them
+	private final int[] generalRanks;
+	private final LocalTime[] generalTimes;
+	private final int[] points;
+	private final int[] mountainPoints;
+	private final int[] pointsRanks;
+	private final int[] mountainRanks;
+
+	/** Builds a snapshot of a race, the lock of the race must be held
+	 *
+	 * @param race Race to copy
+	 * @param previous Snapshot of the race last published, or null if there is none
+	 */
+	private RaceSnapshot(Race race, RaceSnapshot previous) {
+		this.raceVersion = race.getRaceVersion();
+		this.details = race.allRaceDetails();
+		this.stageIDs = race.getStageIDs();
+		for (Stage stage : race.getStages()) {
+			StageSnapshot previousStage = previous == null ? null : previous.stages.get(stage.getStageID());
+			stages.put(stage.getStageID(), StageSnapshot.of(stage, previousStage));
+		}
+
+		// Classifications are brought up to date before they are copied
+		race.collectPoints();
+		race.collectMountainPoints();
+		this.generalRanks = race.getRankedRiders();
+		this.generalTimes = race.getRankedAdjustedTimes();
+		this.points = race.getRacePoints();
+		this.mountainPoints = race.getRaceMountainPoints();
+		this.pointsRanks = race.getRidersRankedByPoints();
+		this.mountainRanks = race.getRidersRankedByMountainPoints();
+	}
+
+	/** Gets a snapshot of a race, reusing the previous one if the race has not changed
+	 *
+	 * @param race Race to copy, the lock of the race must be held
+	 * @param previous Snapshot of the race last published, or null if there is none
+	 * @return Snapshot of the race as it is now
+	 */
+	public static RaceSnapshot of(Race race, RaceSnapshot previous) {
+		if (previous != null && previous.raceVersion == race.getRaceVersion()) {
+			return previous;
+		}
+		return new RaceSnapshot(race, previous);
+	}
+
+	// getters
+	public String getDetails() { return details; }
+
+	public int getNumberOfStages() { return stageIDs.length; }
+
+	public int[] getStageIDs() { return stageIDs.clone(); }
+
+	public StageSnapshot getStage(int stageID) { return stages.get(stageID); }
+
+	public int[] getGeneralRanks() { return generalRanks.clone(); }
+
+	public LocalTime[] getGeneralTimes() { return generalTimes.clone(); }
+
+	public int[] getPoints() { return points.clone(); }
+
+	public int[] getMountainPoints() { return mountainPoints.clone(); }
+
+	public int[] getPointsRanks() { return pointsRanks.clone(); }
+
+	public int[] getMountainRanks() { return mountainRanks.clone(); }
+}
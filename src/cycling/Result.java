@@ -1,27 +1,33 @@
 package cycling;
 
 import java.io.Serializable;
-import java.time.LocalTime;
+import java.time.Duration;
 
-/** Holds the result of a rider in a race/stage/segment
+/** Holds the result of a rider in a race/stage/segment, times are held in nanoseconds
  *
  */
 public class Result implements Serializable {
 
 	// private attributes
 	private int riderID;
-	private LocalTime finishTime;
-	private LocalTime adjustedTime;
+	private long finishTime;
+	// Adjusted time is UNSET until the result has been adjusted
+	private long adjustedTime = ResultStorage.UNSET;
 	// Number of points corresponding to which place, rider came in stage/segment
 	// May be adjusted when new riders added, so only assigned when required
 	private int points = 0;
+	// Keys that break ties between equal finish times, first another time and then the order
+	// the result was added in. Stage and segment results only use the order, the general
+	// classification uses the finish time and order of the rider in the last stage
+	private long tieTime = 0;
+	private long sequence = 0;
 
 	/** Result Constructor
 	 *
 	 * @param riderID ID of the rider whose results it is
-	 * @param finishTime Time the rider completed the race/stage/segment
+	 * @param finishTime Time the rider took to complete the race/stage/segment, in nanoseconds
 	 */
-	public Result(int riderID, LocalTime finishTime) {
+	public Result(int riderID, long finishTime) {
 
 		assert( riderID > 0)
 				: "Incorrect rider ID has been inputted";
@@ -32,23 +38,28 @@ public class Result implements Serializable {
 
 	// getters
 	public int getRiderID() { return riderID; }
-	public LocalTime getFinishTime() { return finishTime; }
-	public LocalTime getAdjustedTime() { return adjustedTime; }
+	public long getFinishTime() { return finishTime; }
+	public long getAdjustedTime() { return adjustedTime; }
 	public int getPoints() { return points; }
+	public long getTieTime() { return tieTime; }
+	public long getSequence() { return sequence; }
 
 	// setters
 	public void setRiderID( int riderID ) { this.riderID = riderID; }
-	public void setFinishTime( LocalTime finishTime ) { this.finishTime = finishTime; }
-	public void setAdjustedTime( LocalTime adjustedTime ) { this.adjustedTime = adjustedTime; }
+	public void setFinishTime( long finishTime ) { this.finishTime = finishTime; }
+	public void setAdjustedTime( long adjustedTime ) { this.adjustedTime = adjustedTime; }
 	public void setPoints( int points ) { this.points = points; }
+	public void setTieTime( long tieTime ) { this.tieTime = tieTime; }
+	public void setSequence( long sequence ) { this.sequence = sequence; }
 
 	/** toString
 	 *
 	 * @return Concatenated information about RaceResult
 	 */
 	public String toString() {
-		return "Result[riderID=" + riderID + ",finishTime=" + finishTime.toString() + ",adjustedTime="
-				+ adjustedTime.toString() + ",points=" + points + "]";
+		return "Result[riderID=" + riderID + ",finishTime=" + Duration.ofNanos(finishTime) + ",adjustedTime="
+				+ (adjustedTime == ResultStorage.UNSET ? "unset" : Duration.ofNanos(adjustedTime))
+				+ ",points=" + points + "]";
 	}
 }
 
@@ -0,0 +1,156 @@
+package cycling;
+
+import java.util.Arrays;
+
+/** Columnar storage for results, each field of a result is held in its own primitive array
+ *  so no objects are created per result. A result keeps the same slot in the columns while
+ *  it is held, the ranking is a separate array of slots ordered by finish time and then by
+ *  the order results were added.
+ *
+ */
+final class ResultColumns extends ResultSlots {
+
+	// Slots in ranked order
+	private int[] order = new int[MIN_CAPACITY];
+
+	@Override
+	protected void insert(int riderID, long finishTime, long sequence) {
+
+		assert(!contains(riderID))
+				: "Rider already has a result in the columns";
+
+		if (size == riderIDs.length) {
+			grow();
+		}
+		// New result takes the first free slot
+		int slot = size;
+		riderIDs[slot] = riderID;
+		finishTimes[slot] = finishTime;
+		adjustedTimes[slot] = UNSET;
+		points[slot] = 0;
+		sequences[slot] = sequence;
+		slots.put(riderID, slot);
+
+		// Slot is inserted into the ranking at its ranked position
+		int rank = insertionPoint(finishTime, sequence);
+		System.arraycopy(order, rank, order, rank + 1, size - rank);
+		order[rank] = slot;
+		size++;
+	}
+
+	@Override
+	public void addAll(int[] riderIDs, long[] finishTimes) {
+		int total = size + riderIDs.length;
+		while (this.riderIDs.length < total) {
+			grow();
+		}
+		// New results take the next free slots, and are numbered in the order they are given
+		long firstSequence = nextSequences(riderIDs.length);
+		int[] added = new int[riderIDs.length];
+		for (int i = 0; i < riderIDs.length; i++) {
+
+			assert(!contains(riderIDs[i]))
+					: "Rider already has a result in the columns";
+
+			int slot = size + i;
+			this.riderIDs[slot] = riderIDs[i];
+			this.finishTimes[slot] = finishTimes[i];
+			adjustedTimes[slot] = UNSET;
+			points[slot] = 0;
+			sequences[slot] = firstSequence + i;
+			slots.put(riderIDs[i], slot);
+			added[i] = slot;
+		}
+		// New slots are sorted once, then merged with the existing ranking
+		sortSlots(added, new int[added.length], 0, added.length);
+		int[] merged = new int[order.length];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < total; k++) {
+			if (j == added.length || (i < size && before(order[i], added[j]))) {
+				merged[k] = order[i++];
+			} else {
+				merged[k] = added[j++];
+			}
+		}
+		order = merged;
+		size = total;
+	}
+
+	@Override
+	public boolean remove(int riderID) {
+		int slot = slots.get(riderID, -1);
+		if (slot < 0) {
+			return false;
+		}
+		int rank = insertionPoint(finishTimes[slot], sequences[slot]);
+		System.arraycopy(order, rank + 1, order, rank, size - rank - 1);
+		slots.remove(riderID);
+		size--;
+
+		// Last slot is moved into the freed slot so the columns stay packed
+		if (slot != size) {
+			int movedRider = riderIDs[size];
+			riderIDs[slot] = movedRider;
+			finishTimes[slot] = finishTimes[size];
+			adjustedTimes[slot] = adjustedTimes[size];
+			points[slot] = points[size];
+			sequences[slot] = sequences[size];
+			slots.put(movedRider, slot);
+			order[insertionPoint(finishTimes[slot], sequences[slot])] = slot;
+		}
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		slots.clear();
+		size = 0;
+	}
+
+	@Override
+	public int rankOf(int riderID) {
+		int slot = slots.get(riderID, -1);
+		return slot < 0 ? -1 : insertionPoint(finishTimes[slot], sequences[slot]);
+	}
+
+	@Override
+	protected int slotAt(int rank) {
+		if (rank < 0 || rank >= size) {
+			throw new IndexOutOfBoundsException("No result at rank " + rank);
+		}
+		return order[rank];
+	}
+
+	@Override
+	protected int[] rankedSlots() {
+		return order;
+	}
+
+	@Override
+	protected void resized(int capacity) {
+		order = Arrays.copyOf(order, capacity);
+	}
+
+	/** Binary searches the ranking for where a finish time and sequence number belong
+	 *
+	 * @param finishTime Finish time in nanoseconds
+	 * @param sequence Order the result was added in
+	 * @return Rank of the result if it is held, otherwise the rank it would be inserted at
+	 */
+	private int insertionPoint(long finishTime, long sequence) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int slot = order[middle];
+			if (finishTimes[slot] < finishTime
+					|| (finishTimes[slot] == finishTime && sequences[slot] < sequence)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
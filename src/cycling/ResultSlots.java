@@ -0,0 +1,259 @@
+package cycling;
+
+import java.util.Arrays;
+
+/** Base of the result storages that hold each field of a result in its own primitive array.
+ *  A result keeps the same slot in the columns while it is held, subclasses decide how the
+ *  slots are put into ranked order.
+ *
+ */
+abstract class ResultSlots implements ResultStorage {
+
+	protected static final int MIN_CAPACITY = 8;
+
+	// Columns, indexed by slot
+	protected int[] riderIDs = new int[MIN_CAPACITY];
+	protected long[] finishTimes = new long[MIN_CAPACITY];
+	protected long[] adjustedTimes = new long[MIN_CAPACITY];
+	protected int[] points = new int[MIN_CAPACITY];
+	// Order each result was added in, which breaks ties between equal finish times
+	protected long[] sequences = new long[MIN_CAPACITY];
+	// Sequence number given to the next result added without one
+	private long nextSequence = 0;
+	// Slot of each rider
+	protected final IntIntHashMap slots = new IntIntHashMap();
+	protected int size = 0;
+
+	/** Places a new result in the first free slot and ranks it
+	 *
+	 * @param riderID ID of the rider whose result it is, must not already have a result
+	 * @param finishTime Finish time in nanoseconds
+	 * @param sequence Order the result was added in
+	 */
+	protected abstract void insert(int riderID, long finishTime, long sequence);
+
+	/** Gets the slot at a rank
+	 *
+	 * @param rank Zero based rank
+	 * @return Slot of the result at the rank
+	 */
+	protected abstract int slotAt(int rank);
+
+	/** Gets every slot in ranked order, the array may be longer than the number of results
+	 *
+	 * @return Slots, fastest first
+	 */
+	protected abstract int[] rankedSlots();
+
+	/** Called after the columns have grown, so a subclass can grow its own per slot arrays
+	 *
+	 * @param capacity New number of slots
+	 */
+	protected abstract void resized(int capacity);
+
+	@Override
+	public int size() { return size; }
+
+	@Override
+	public void add(int riderID, long finishTime) {
+		insert(riderID, finishTime, nextSequence++);
+	}
+
+	@Override
+	public void add(Result result) {
+		// Results added later are still ordered after this one
+		nextSequence = Math.max(nextSequence, result.getSequence() + 1);
+		insert(result.getRiderID(), result.getFinishTime(), result.getSequence());
+		int slot = slots.get(result.getRiderID(), -1);
+		adjustedTimes[slot] = result.getAdjustedTime();
+		points[slot] = result.getPoints();
+	}
+
+	/** Gives out the sequence numbers of results added together, in the order they are given
+	 *
+	 * @param count Number of results being added
+	 * @return Sequence number of the first result
+	 */
+	protected final long nextSequences(int count) {
+		long first = nextSequence;
+		nextSequence += count;
+		return first;
+	}
+
+	@Override
+	public boolean contains(int riderID) {
+		return slots.containsKey(riderID);
+	}
+
+	@Override
+	public int riderAt(int rank) {
+		return riderIDs[slotAt(rank)];
+	}
+
+	@Override
+	public long finishOf(int riderID) {
+		int slot = slots.get(riderID, -1);
+		return slot < 0 ? UNSET : finishTimes[slot];
+	}
+
+	@Override
+	public long adjustedOf(int riderID) {
+		int slot = slots.get(riderID, -1);
+		return slot < 0 ? UNSET : adjustedTimes[slot];
+	}
+
+	@Override
+	public int pointsOf(int riderID) {
+		int slot = slots.get(riderID, -1);
+		return slot < 0 ? 0 : points[slot];
+	}
+
+	@Override
+	public long sequenceOf(int riderID) {
+		int slot = slots.get(riderID, -1);
+		return slot < 0 ? UNSET : sequences[slot];
+	}
+
+	@Override
+	public void setAdjustedOf(int riderID, long adjustedTime) {
+		int slot = slots.get(riderID, -1);
+		if (slot >= 0) {
+			adjustedTimes[slot] = adjustedTime;
+		}
+	}
+
+	@Override
+	public void setPointsOf(int riderID, int points) {
+		int slot = slots.get(riderID, -1);
+		if (slot >= 0) {
+			this.points[slot] = points;
+		}
+	}
+
+	@Override
+	public void setPointsAt(int rank, int points) {
+		this.points[slotAt(rank)] = points;
+	}
+
+	@Override
+	public long finishAt(int rank) {
+		return finishTimes[slotAt(rank)];
+	}
+
+	@Override
+	public void setAdjustedAt(int rank, long adjustedTime) {
+		adjustedTimes[slotAt(rank)] = adjustedTime;
+	}
+
+	@Override
+	public int[] rankedRiders() {
+		int[] order = rankedSlots();
+		int[] ranked = new int[size];
+		for (int i = 0; i < size; i++) {
+			ranked[i] = riderIDs[order[i]];
+		}
+		return ranked;
+	}
+
+	@Override
+	public long[] rankedFinishTimes() {
+		int[] order = rankedSlots();
+		long[] ranked = new long[size];
+		for (int i = 0; i < size; i++) {
+			ranked[i] = finishTimes[order[i]];
+		}
+		return ranked;
+	}
+
+	@Override
+	public long[] rankedAdjustedTimes() {
+		int[] order = rankedSlots();
+		long[] ranked = new long[size];
+		for (int i = 0; i < size; i++) {
+			ranked[i] = adjustedTimes[order[i]];
+		}
+		return ranked;
+	}
+
+	@Override
+	public int[] rankedPoints() {
+		int[] order = rankedSlots();
+		int[] ranked = new int[size];
+		for (int i = 0; i < size; i++) {
+			ranked[i] = points[order[i]];
+		}
+		return ranked;
+	}
+
+	@Override
+	public void setRankedAdjustedTimes(long[] adjustedTimes) {
+		int[] order = rankedSlots();
+		for (int i = 0; i < size; i++) {
+			this.adjustedTimes[order[i]] = adjustedTimes[i];
+		}
+	}
+
+	@Override
+	public Result resultOf(int riderID) {
+		int slot = slots.get(riderID, -1);
+		if (slot < 0) {
+			return null;
+		}
+		// Result is only created here, at the boundary
+		Result result = new Result(riderID, finishTimes[slot]);
+		result.setAdjustedTime(adjustedTimes[slot]);
+		result.setPoints(points[slot]);
+		result.setSequence(sequences[slot]);
+		return result;
+	}
+
+	/** Checks if the result in one slot is ranked before the result in another
+	 *
+	 * @param a First slot
+	 * @param b Second slot
+	 * @return True if the first slot is ranked first
+	 */
+	protected final boolean before(int a, int b) {
+		return finishTimes[a] < finishTimes[b]
+				|| (finishTimes[a] == finishTimes[b] && sequences[a] < sequences[b]);
+	}
+
+	/** Merge sorts part of an array of slots into ranked order
+	 *
+	 * @param slots Slots to sort
+	 * @param buffer Working space the same length as the slots
+	 * @param from Index of the first slot to sort
+	 * @param to Index after the last slot to sort
+	 */
+	protected final void sortSlots(int[] slots, int[] buffer, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sortSlots(slots, buffer, from, middle);
+		sortSlots(slots, buffer, middle, to);
+		System.arraycopy(slots, from, buffer, from, to - from);
+		int i = from;
+		int j = middle;
+		for (int k = from; k < to; k++) {
+			if (j == to || (i < middle && !before(buffer[j], buffer[i]))) {
+				slots[k] = buffer[i++];
+			} else {
+				slots[k] = buffer[j++];
+			}
+		}
+	}
+
+	/** Doubles the capacity of every column
+	 *
+	 */
+	protected final void grow() {
+		int capacity = riderIDs.length * 2;
+		riderIDs = Arrays.copyOf(riderIDs, capacity);
+		finishTimes = Arrays.copyOf(finishTimes, capacity);
+		adjustedTimes = Arrays.copyOf(adjustedTimes, capacity);
+		points = Arrays.copyOf(points, capacity);
+		sequences = Arrays.copyOf(sequences, capacity);
+		resized(capacity);
+	}
+}
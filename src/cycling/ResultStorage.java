@@ -0,0 +1,103 @@
+package cycling;
+
+import java.io.Serializable;
+
+/** Storage behind OrderResults, holds the results of a race/stage/segment in ranked order,
+ *  fastest finish time first. Results with equal times stay in the order they were added.
+ *  Times are nanoseconds, an adjusted time of UNSET means it has not been adjusted yet.
+ *
+ */
+interface ResultStorage extends Serializable {
+
+	// Adjusted time held before a result has been adjusted
+	long UNSET = -1;
+
+	int size();
+
+	boolean contains(int riderID);
+
+	/** Adds a result in its ranked position, after any results with the same finish time
+	 *
+	 * @param riderID ID of the rider whose result it is, must not already have a result
+	 * @param finishTime Finish time in nanoseconds
+	 */
+	void add(int riderID, long finishTime);
+
+	/** Adds a result that already has its tie keys, adjusted time and points, such as a
+	 *  result read from another storage. The storage may hold the result itself, so it must
+	 *  not be changed after it is added. Only a tree orders results by their tie time
+	 *
+	 * @param result Result to add, the rider must not already have a result
+	 */
+	void add(Result result);
+
+	/** Adds many results at once, they are sorted once and merged into the ranking. Results
+	 *  with equal times are ranked in the order they are given
+	 *
+	 * @param riderIDs IDs of the riders whose results they are, none may already have a result
+	 * @param finishTimes Finish times in nanoseconds, in the same order as the rider IDs
+	 */
+	void addAll(int[] riderIDs, long[] finishTimes);
+
+	/** Removes the result of a rider
+	 *
+	 * @param riderID ID of the rider whose result will be removed
+	 * @return True if the rider had a result
+	 */
+	boolean remove(int riderID);
+
+	void clear();
+
+	/** Gets the rank of a rider
+	 *
+	 * @param riderID ID of the rider
+	 * @return Zero based rank, or -1 if the rider has no result
+	 */
+	int rankOf(int riderID);
+
+	int riderAt(int rank);
+
+	long finishOf(int riderID);
+
+	long adjustedOf(int riderID);
+
+	int pointsOf(int riderID);
+
+	/** Gets the position of a result in the order results were added, which breaks ties
+	 *
+	 * @param riderID ID of the rider
+	 * @return Sequence number of the result, or UNSET if the rider has no result
+	 */
+	long sequenceOf(int riderID);
+
+	void setAdjustedOf(int riderID, long adjustedTime);
+
+	void setPointsOf(int riderID, int points);
+
+	void setPointsAt(int rank, int points);
+
+	long finishAt(int rank);
+
+	void setAdjustedAt(int rank, long adjustedTime);
+
+	int[] rankedRiders();
+
+	long[] rankedFinishTimes();
+
+	long[] rankedAdjustedTimes();
+
+	int[] rankedPoints();
+
+	/** Sets the adjusted time of every result at once
+	 *
+	 * @param adjustedTimes Adjusted times in ranked order, one for every result
+	 */
+	void setRankedAdjustedTimes(long[] adjustedTimes);
+
+	/** Gets the result of a rider as a Result object, which should only be read
+	 *
+	 * @param riderID ID of the rider
+	 * @return Result of the rider, or null if the rider has no result
+	 */
+	Result resultOf(int riderID);
+}
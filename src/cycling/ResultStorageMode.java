@@ -0,0 +1,27 @@
+package cycling;
+
+/**
+ * This enum is used to choose how stages and segments store their results
+ *
+ */
+public enum ResultStorageMode {
+
+	/**
+	 * Each result is a Result object, held in an order statistic tree
+	 */
+	TREE,
+
+	/**
+	 * Results are held in parallel arrays of primitives, Result objects are only
+	 * created when a caller asks for one
+	 */
+	COLUMNAR,
+
+	/**
+	 * Segments keep only the results that score points sorted, in a heap, and hold the
+	 * rest unsorted until a full ranking is asked for. Stages and races still need full
+	 * rankings so they use TREE
+	 */
+	TOP_K,
+
+}
@@ -0,0 +1,277 @@
+package cycling;
+
+import java.util.Arrays;
+
+/** Storage for the results of a segment where only the first few ranks score points. Results
+ *  are held in unsorted primitive columns, and the fastest results that score are also held
+ *  in a heap, so adding a result never sorts the whole field. The heap keeps the slowest of
+ *  the scoring results at its root, so a new result only has to beat that one to score.
+ *
+ *  Reading a scoring rank only sorts the heap. The full ranking is only sorted when a caller
+ *  asks for a rank outside the scoring ranks, and is then cached until the results change.
+ *
+ */
+final class ResultTopK extends ResultSlots {
+
+	// Number of ranks that are kept in the heap
+	private final int scoringRanks;
+
+	// Index of each slot in the heap, or -1 if the slot is not a scoring result
+	private int[] heapIndexes = new int[MIN_CAPACITY];
+
+	// Scoring slots, with the slowest at the root
+	private final int[] heap;
+	private int heapSize = 0;
+
+	// Sorted views, rebuilt when needed after the results change
+	private transient int[] scoringOrder;
+	private transient int[] fullOrder;
+	private transient int[] fullRanks;
+
+	/** Constructor for empty storage
+	 *
+	 * @param scoringRanks Number of ranks that score points, these are always kept ready
+	 */
+	public ResultTopK(int scoringRanks) {
+		this.scoringRanks = scoringRanks;
+		this.heap = new int[scoringRanks];
+	}
+
+	@Override
+	protected void insert(int riderID, long finishTime, long sequence) {
+
+		assert(!contains(riderID))
+				: "Rider already has a result in the storage";
+
+		if (size == riderIDs.length) {
+			grow();
+		}
+		// New result takes the first free slot
+		int slot = size;
+		riderIDs[slot] = riderID;
+		finishTimes[slot] = finishTime;
+		adjustedTimes[slot] = UNSET;
+		points[slot] = 0;
+		sequences[slot] = sequence;
+		heapIndexes[slot] = -1;
+		slots.put(riderID, slot);
+		size++;
+
+		// Result only enters the heap if it is one of the scoring results
+		if (heapSize < scoringRanks) {
+			heapPush(slot);
+		} else if (scoringRanks > 0 && before(slot, heap[0])) {
+			heapIndexes[heap[0]] = -1;
+			heap[0] = slot;
+			heapIndexes[slot] = 0;
+			siftDown(0);
+		}
+		invalidate();
+	}
+
+	@Override
+	public void addAll(int[] riderIDs, long[] finishTimes) {
+		// Each result only costs a heap operation, so no sorting is saved by adding together
+		for (int i = 0; i < riderIDs.length; i++) {
+			add(riderIDs[i], finishTimes[i]);
+		}
+	}
+
+	@Override
+	public boolean remove(int riderID) {
+		int slot = slots.get(riderID, -1);
+		if (slot < 0) {
+			return false;
+		}
+		boolean wasScoring = heapIndexes[slot] >= 0;
+		if (wasScoring) {
+			heapRemoveAt(heapIndexes[slot]);
+		}
+		slots.remove(riderID);
+		size--;
+
+		// Last slot is moved into the freed slot so the columns stay packed
+		if (slot != size) {
+			int movedRider = riderIDs[size];
+			riderIDs[slot] = movedRider;
+			finishTimes[slot] = finishTimes[size];
+			adjustedTimes[slot] = adjustedTimes[size];
+			points[slot] = points[size];
+			sequences[slot] = sequences[size];
+			heapIndexes[slot] = heapIndexes[size];
+			if (heapIndexes[slot] >= 0) {
+				heap[heapIndexes[slot]] = slot;
+			}
+			slots.put(movedRider, slot);
+		}
+
+		// Fastest result outside the heap takes the freed scoring place
+		if (wasScoring && heapSize < size) {
+			int best = -1;
+			for (int i = 0; i < size; i++) {
+				if (heapIndexes[i] < 0 && (best < 0 || before(i, best))) {
+					best = i;
+				}
+			}
+			heapPush(best);
+		}
+		invalidate();
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		slots.clear();
+		size = 0;
+		heapSize = 0;
+		invalidate();
+	}
+
+	@Override
+	public int rankOf(int riderID) {
+		int slot = slots.get(riderID, -1);
+		if (slot < 0) {
+			return -1;
+		}
+		// Scoring results are found in the sorted heap, without sorting the rest
+		if (heapIndexes[slot] >= 0) {
+			int[] scoring = scoringOrder();
+			for (int rank = 0; rank < scoring.length; rank++) {
+				if (scoring[rank] == slot) {
+					return rank;
+				}
+			}
+		}
+		fullOrder();
+		return fullRanks[slot];
+	}
+
+	/** Gets the slot at a rank, only sorting the whole field if the rank does not score
+	 *
+	 * @param rank Zero based rank
+	 * @return Slot of the result at the rank
+	 */
+	@Override
+	protected int slotAt(int rank) {
+		if (rank < 0 || rank >= size) {
+			throw new IndexOutOfBoundsException("No result at rank " + rank);
+		}
+		return rank < heapSize ? scoringOrder()[rank] : fullOrder()[rank];
+	}
+
+	/** Gets the scoring slots in ranked order, sorting the heap if it has changed
+	 *
+	 * @return Scoring slots, fastest first
+	 */
+	private int[] scoringOrder() {
+		if (scoringOrder == null) {
+			int[] sorted = Arrays.copyOf(heap, heapSize);
+			sortSlots(sorted, new int[heapSize], 0, heapSize);
+			scoringOrder = sorted;
+		}
+		return scoringOrder;
+	}
+
+	/** Gets every slot in ranked order, sorting the whole field if it has changed
+	 *
+	 * @return All slots, fastest first
+	 */
+	private int[] fullOrder() {
+		if (fullOrder == null) {
+			int[] sorted = new int[size];
+			for (int i = 0; i < size; i++) {
+				sorted[i] = i;
+			}
+			sortSlots(sorted, new int[size], 0, size);
+			int[] ranks = new int[size];
+			for (int rank = 0; rank < size; rank++) {
+				ranks[sorted[rank]] = rank;
+			}
+			fullOrder = sorted;
+			fullRanks = ranks;
+		}
+		return fullOrder;
+	}
+
+	@Override
+	protected int[] rankedSlots() {
+		return fullOrder();
+	}
+
+	@Override
+	protected void resized(int capacity) {
+		heapIndexes = Arrays.copyOf(heapIndexes, capacity);
+	}
+
+	/** Drops the sorted views after the results have changed
+	 *
+	 */
+	private void invalidate() {
+		scoringOrder = null;
+		fullOrder = null;
+		fullRanks = null;
+	}
+
+	private void heapPush(int slot) {
+		heap[heapSize] = slot;
+		heapIndexes[slot] = heapSize;
+		siftUp(heapSize++);
+	}
+
+	private void heapRemoveAt(int index) {
+		heapIndexes[heap[index]] = -1;
+		int last = heap[--heapSize];
+		if (index < heapSize) {
+			heap[index] = last;
+			heapIndexes[last] = index;
+			siftDown(index);
+			siftUp(heapIndexes[last]);
+		}
+	}
+
+	/** Moves a slot up the heap while it is slower than its parent
+	 *
+	 * @param index Index of the slot in the heap
+	 */
+	private void siftUp(int index) {
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			if (!before(heap[parent], heap[index])) {
+				break;
+			}
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	/** Moves a slot down the heap while one of its children is slower than it
+	 *
+	 * @param index Index of the slot in the heap
+	 */
+	private void siftDown(int index) {
+		while (true) {
+			int slowest = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if (left < heapSize && before(heap[slowest], heap[left])) {
+				slowest = left;
+			}
+			if (right < heapSize && before(heap[slowest], heap[right])) {
+				slowest = right;
+			}
+			if (slowest == index) {
+				return;
+			}
+			swap(index, slowest);
+			index = slowest;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int slot = heap[i];
+		heap[i] = heap[j];
+		heap[j] = slot;
+		heapIndexes[heap[i]] = i;
+		heapIndexes[heap[j]] = j;
+	}
+}
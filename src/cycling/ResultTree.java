@@ -0,0 +1,515 @@
+package cycling;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** Order statistic tree holding the results of a race/stage/segment, ordered by finish time
+ *  with the tie keys of each result breaking ties. It is an AVL tree where every node also stores the size
+ *  of its subtree, so inserting, removing, finding the rank of a rider and finding the rider
+ *  at a rank are all logarithmic. Nodes are also indexed by rider ID for direct lookups.
+ *
+ *  A tree can also be given another ordering, such as BY_POINTS for the classifications.
+ *  Whatever the ordering reads must not be changed on a result while it is held in the tree.
+ *
+ */
+final class ResultTree implements ResultStorage, Iterable<Result> {
+
+	/** Node of the tree, holds one result
+	 *
+	 */
+	private static final class Node implements Serializable {
+		private final Result result;
+		private Node left;
+		private Node right;
+		private int height = 1;
+		private int size = 1;
+
+		private Node(Result result) {
+			this.result = result;
+		}
+	}
+
+	// Fastest finish time first, then the tie time and the order results were added break ties.
+	// Rider ID only breaks ties between results given the same keys
+	static final Comparator<Result> BY_FINISH_TIME = (Comparator<Result> & Serializable) (a, b) -> {
+		int byTime = Long.compare(a.getFinishTime(), b.getFinishTime());
+		if (byTime != 0) {
+			return byTime;
+		}
+		int byTieTime = Long.compare(a.getTieTime(), b.getTieTime());
+		if (byTieTime != 0) {
+			return byTieTime;
+		}
+		int bySequence = Long.compare(a.getSequence(), b.getSequence());
+		return bySequence != 0 ? bySequence : Integer.compare(a.getRiderID(), b.getRiderID());
+	};
+
+	// Most points first, then the finish time ordering breaks ties
+	static final Comparator<Result> BY_POINTS = (Comparator<Result> & Serializable) (a, b) -> {
+		int byPoints = Integer.compare(b.getPoints(), a.getPoints());
+		return byPoints != 0 ? byPoints : BY_FINISH_TIME.compare(a, b);
+	};
+
+	// private attributes
+	private final Comparator<Result> order;
+	private Node root;
+	// Nodes indexed by the ID of the rider whose result they hold
+	private final IntHashMap<Node> nodes = new IntHashMap<>();
+	// Sequence number given to the next result added without one
+	private long nextSequence = 0;
+
+	/** Constructor for an empty tree ordered by finish time
+	 *
+	 */
+	public ResultTree() {
+		this(BY_FINISH_TIME);
+	}
+
+	/** Constructor for an empty tree with its own ordering
+	 *
+	 * @param order Ordering of the results, must be serializable
+	 */
+	public ResultTree(Comparator<Result> order) {
+		this.order = order;
+	}
+
+	// getters
+	@Override
+	public int size() { return nodes.size(); }
+
+	/** Checks if a rider has a result in the tree
+	 *
+	 * @param riderID ID of the rider to check
+	 * @return True if a result for the rider is held
+	 */
+	@Override
+	public boolean contains(int riderID) {
+		return nodes.containsKey(riderID);
+	}
+
+	/** Gets the result of a rider
+	 *
+	 * @param riderID ID of the rider whose result it is
+	 * @return Result of the rider, or null if the rider has no result
+	 */
+	public Result get(int riderID) {
+		Node node = nodes.get(riderID);
+		return node == null ? null : node.result;
+	}
+
+	/** Adds a result to the tree in its ranked position, the tree holds the result itself
+	 *  and keeps the tie keys it already has
+	 *
+	 * @param result Result to add, the rider must not already have a result in the tree
+	 */
+	@Override
+	public void add(Result result) {
+
+		assert(!nodes.containsKey(result.getRiderID()))
+				: "Rider already has a result in the tree";
+
+		// Results added later are still ordered after this one
+		nextSequence = Math.max(nextSequence, result.getSequence() + 1);
+		Node node = new Node(result);
+		nodes.put(result.getRiderID(), node);
+		root = insert(root, node);
+	}
+
+	@Override
+	public void add(int riderID, long finishTime) {
+		Result result = new Result(riderID, finishTime);
+		result.setSequence(nextSequence);
+		add(result);
+	}
+
+	@Override
+	public void addAll(int[] riderIDs, long[] finishTimes) {
+		int existing = size();
+		int total = existing + riderIDs.length;
+		// A few results are cheaper to insert one by one than rebuilding the whole tree
+		if ((long) riderIDs.length * (32 - Integer.numberOfLeadingZeros(total)) < existing) {
+			for (int i = 0; i < riderIDs.length; i++) {
+				add(riderIDs[i], finishTimes[i]);
+			}
+			return;
+		}
+
+		// New results are sorted once
+		Node[] added = new Node[riderIDs.length];
+		for (int i = 0; i < riderIDs.length; i++) {
+			Result result = new Result(riderIDs[i], finishTimes[i]);
+			result.setSequence(nextSequence++);
+			added[i] = new Node(result);
+
+			assert(!nodes.containsKey(riderIDs[i]))
+					: "Rider already has a result in the tree";
+
+			nodes.put(riderIDs[i], added[i]);
+		}
+		Arrays.sort(added, (a, b) -> order.compare(a.result, b.result));
+
+		// Then merged with the existing nodes, which are already in order
+		Node[] current = new Node[existing];
+		collect(root, current, 0);
+		Node[] merged = new Node[total];
+		int i = 0;
+		int j = 0;
+		for (int k = 0; k < total; k++) {
+			if (j == added.length || (i < existing && order.compare(current[i].result, added[j].result) < 0)) {
+				merged[k] = current[i++];
+			} else {
+				merged[k] = added[j++];
+			}
+		}
+		root = build(merged, 0, total);
+	}
+
+	@Override
+	public boolean remove(int riderID) {
+		Node node = nodes.remove(riderID);
+		if (node == null) {
+			return false;
+		}
+		root = delete(root, node.result);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+		nodes.clear();
+	}
+
+	/** Gets the rank of a rider, the number of results ordered before theirs
+	 *
+	 * @param riderID ID of the rider to find the rank of
+	 * @return Zero based rank of the rider, or -1 if the rider has no result
+	 */
+	@Override
+	public int rankOf(int riderID) {
+		Node target = nodes.get(riderID);
+		if (target == null) {
+			return -1;
+		}
+		int rank = 0;
+		Node current = root;
+		// Walks down to the node, counting everything passed on the left
+		while (current != target) {
+			if (order.compare(target.result, current.result) < 0) {
+				current = current.left;
+			} else {
+				rank += size(current.left) + 1;
+				current = current.right;
+			}
+		}
+		return rank + size(target.left);
+	}
+
+	/** Gets the result at a rank
+	 *
+	 * @param rank Zero based rank of the result to get
+	 * @return Result at the rank
+	 */
+	public Result select(int rank) {
+		if (rank < 0 || rank >= size()) {
+			throw new IndexOutOfBoundsException("No result at rank " + rank);
+		}
+		Node current = root;
+		while (true) {
+			int leftSize = size(current.left);
+			if (rank < leftSize) {
+				current = current.left;
+			} else if (rank == leftSize) {
+				return current.result;
+			} else {
+				rank -= leftSize + 1;
+				current = current.right;
+			}
+		}
+	}
+
+	@Override
+	public int riderAt(int rank) {
+		return select(rank).getRiderID();
+	}
+
+	@Override
+	public long finishOf(int riderID) {
+		Result result = get(riderID);
+		return result == null ? UNSET : result.getFinishTime();
+	}
+
+	@Override
+	public long adjustedOf(int riderID) {
+		Result result = get(riderID);
+		return result == null ? UNSET : result.getAdjustedTime();
+	}
+
+	@Override
+	public int pointsOf(int riderID) {
+		Result result = get(riderID);
+		return result == null ? 0 : result.getPoints();
+	}
+
+	@Override
+	public long sequenceOf(int riderID) {
+		Result result = get(riderID);
+		return result == null ? UNSET : result.getSequence();
+	}
+
+	@Override
+	public void setAdjustedOf(int riderID, long adjustedTime) {
+		Result result = get(riderID);
+		if (result != null) {
+			result.setAdjustedTime(adjustedTime);
+		}
+	}
+
+	@Override
+	public void setPointsOf(int riderID, int points) {
+		Result result = get(riderID);
+		if (result != null) {
+			result.setPoints(points);
+		}
+	}
+
+	@Override
+	public void setPointsAt(int rank, int points) {
+		select(rank).setPoints(points);
+	}
+
+	@Override
+	public long finishAt(int rank) {
+		return select(rank).getFinishTime();
+	}
+
+	@Override
+	public void setAdjustedAt(int rank, long adjustedTime) {
+		select(rank).setAdjustedTime(adjustedTime);
+	}
+
+	@Override
+	public int[] rankedRiders() {
+		int[] riders = new int[size()];
+		int i = 0;
+		for (Result result : this) {
+			riders[i++] = result.getRiderID();
+		}
+		return riders;
+	}
+
+	@Override
+	public long[] rankedFinishTimes() {
+		long[] times = new long[size()];
+		int i = 0;
+		for (Result result : this) {
+			times[i++] = result.getFinishTime();
+		}
+		return times;
+	}
+
+	@Override
+	public long[] rankedAdjustedTimes() {
+		long[] times = new long[size()];
+		int i = 0;
+		for (Result result : this) {
+			times[i++] = result.getAdjustedTime();
+		}
+		return times;
+	}
+
+	@Override
+	public int[] rankedPoints() {
+		int[] points = new int[size()];
+		int i = 0;
+		for (Result result : this) {
+			points[i++] = result.getPoints();
+		}
+		return points;
+	}
+
+	@Override
+	public void setRankedAdjustedTimes(long[] adjustedTimes) {
+		int i = 0;
+		for (Result result : this) {
+			result.setAdjustedTime(adjustedTimes[i++]);
+		}
+	}
+
+	@Override
+	public Result resultOf(int riderID) {
+		return get(riderID);
+	}
+
+	/** Iterates through the results in ranked order
+	 *
+	 * @return Iterator over the results, fastest first
+	 */
+	@Override
+	public Iterator<Result> iterator() {
+		return new Iterator<>() {
+			private final ArrayDeque<Node> path = new ArrayDeque<>();
+			{
+				pushLeft(root);
+			}
+
+			private void pushLeft(Node node) {
+				while (node != null) {
+					path.push(node);
+					node = node.left;
+				}
+			}
+
+			@Override
+			public boolean hasNext() {
+				return !path.isEmpty();
+			}
+
+			@Override
+			public Result next() {
+				if (path.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				Node node = path.pop();
+				pushLeft(node.right);
+				return node.result;
+			}
+		};
+	}
+
+	private static int size(Node node) { return node == null ? 0 : node.size; }
+
+	private static int height(Node node) { return node == null ? 0 : node.height; }
+
+	/** Recalculates the height and size of a node from its children
+	 *
+	 * @param node Node to update
+	 */
+	private static void update(Node node) {
+		node.height = Math.max(height(node.left), height(node.right)) + 1;
+		node.size = size(node.left) + size(node.right) + 1;
+	}
+
+	private static Node rotateRight(Node node) {
+		Node pivot = node.left;
+		node.left = pivot.right;
+		pivot.right = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	private static Node rotateLeft(Node node) {
+		Node pivot = node.right;
+		node.right = pivot.left;
+		pivot.left = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	/** Restores the AVL balance of a node after one of its subtrees has changed
+	 *
+	 * @param node Node to rebalance
+	 * @return Node now at the top of the subtree
+	 */
+	private static Node balance(Node node) {
+		update(node);
+		int difference = height(node.left) - height(node.right);
+		if (difference > 1) {
+			if (height(node.left.left) < height(node.left.right)) {
+				node.left = rotateLeft(node.left);
+			}
+			return rotateRight(node);
+		} else if (difference < -1) {
+			if (height(node.right.right) < height(node.right.left)) {
+				node.right = rotateRight(node.right);
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	/** Places the nodes of a subtree into an array in ranked order
+	 *
+	 * @param node Root of the subtree
+	 * @param into Array to fill
+	 * @param index Index to place the first node at
+	 * @return Index after the last node placed
+	 */
+	private static int collect(Node node, Node[] into, int index) {
+		if (node == null) {
+			return index;
+		}
+		index = collect(node.left, into, index);
+		into[index++] = node;
+		return collect(node.right, into, index);
+	}
+
+	/** Builds a perfectly balanced subtree from nodes already in ranked order
+	 *
+	 * @param ranked Nodes in ranked order
+	 * @param from Index of the first node of the subtree
+	 * @param to Index after the last node of the subtree
+	 * @return Root of the subtree
+	 */
+	private static Node build(Node[] ranked, int from, int to) {
+		if (from >= to) {
+			return null;
+		}
+		int middle = (from + to) >>> 1;
+		Node node = ranked[middle];
+		node.left = build(ranked, from, middle);
+		node.right = build(ranked, middle + 1, to);
+		update(node);
+		return node;
+	}
+
+	private Node insert(Node current, Node node) {
+		if (current == null) {
+			return node;
+		}
+		if (order.compare(node.result, current.result) < 0) {
+			current.left = insert(current.left, node);
+		} else {
+			current.right = insert(current.right, node);
+		}
+		return balance(current);
+	}
+
+	private Node delete(Node current, Result result) {
+		int comparison = order.compare(result, current.result);
+		if (comparison < 0) {
+			current.left = delete(current.left, result);
+		} else if (comparison > 0) {
+			current.right = delete(current.right, result);
+		} else {
+			if (current.left == null) {
+				return current.right;
+			} else if (current.right == null) {
+				return current.left;
+			}
+			// Node with two children is replaced by the first node of its right subtree
+			Node successor = current.right;
+			while (successor.left != null) {
+				successor = successor.left;
+			}
+			successor.right = deleteFirst(current.right);
+			successor.left = current.left;
+			return balance(successor);
+		}
+		return balance(current);
+	}
+
+	private static Node deleteFirst(Node current) {
+		if (current.left == null) {
+			return current.right;
+		}
+		current.left = deleteFirst(current.left);
+		return balance(current);
+	}
+}
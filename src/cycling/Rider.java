@@ -13,17 +13,15 @@ public class Rider implements Serializable {
 	private String riderName;
 	private int yearOfBirth;
 
-	// static to hold last assigned ID number
-	private static int currentRiderID = 1;
-
 
 	/** Rider constructor
 	 *
+	 * @param riderID ID given to the rider by the portal
 	 * @param teamID  ID of team rider is on
 	 * @param name Name of rider
 	 * @param yearOfBirth Year rider was born
 	 */
-	public Rider(int teamID, String name, int yearOfBirth){
+	public Rider(int riderID, int teamID, String name, int yearOfBirth){
 
 		// Assertion used to check name has had a validity check
 		assert(name != null)
@@ -35,8 +33,7 @@ public class Rider implements Serializable {
 		this.teamID = teamID;
 		this.riderName = name;
 		this.yearOfBirth = yearOfBirth;
-		// rider ID assigned and incremented
-		this.riderID = currentRiderID++;
+		this.riderID = riderID;
 	}
 
 	// getters
@@ -48,8 +45,6 @@ public class Rider implements Serializable {
 
 	public int getYearOfBirth(){ return yearOfBirth; }
 
-	public static int getCurrentRiderID() { return currentRiderID; }
-
 	// setters
 	public void setTeamID(int teamID) { this.teamID = teamID; }
 
@@ -59,8 +54,6 @@ public class Rider implements Serializable {
 
 	public void setYearOfBirth(int yearOfBirth) { this.yearOfBirth = yearOfBirth; }
 
-	public static void setCurrentRiderID(int ID) { currentRiderID = ID; }
-
 	/** toString
 	 *
 	 * @return Concatenates rider information
@@ -0,0 +1,65 @@
+package cycling;
+
+/** Entry held in the portal rider registry, pairs a rider with the team it is stored in
+ *  so a rider can be validated or removed without searching through every team.
+ *  Also indexes the stages the rider holds results in, which covers the riders segment
+ *  results as those are only ever registered alongside a stage result.
+ *  A rider can have results added in several races at once, so changes to the index
+ *  are synchronized.
+ *
+ */
+final class RiderEntry {
+
+	// private attributes
+	private final Team team;
+	private final Rider rider;
+	// Stages the rider has results registered in, keyed by stage ID
+	private final IntHashMap<Stage> stagesWithResults = new IntHashMap<>();
+
+	/** RiderEntry constructor
+	 *
+	 * @param team Team the rider is stored in
+	 * @param rider Rider the entry is for
+	 */
+	public RiderEntry(Team team, Rider rider) {
+
+		assert(team.getTeamID() == rider.getTeamID())
+				: "Rider is being registered against the wrong team";
+
+		this.team = team;
+		this.rider = rider;
+	}
+
+	// getters
+	public Team getTeam() { return team; }
+
+	public Rider getRider() { return rider; }
+
+	public IntHashMap<Stage> getStagesWithResults() { return stagesWithResults; }
+
+	/** Records that the rider has results in a stage
+	 *
+	 * @param stage Stage the rider has had results registered in
+	 */
+	public synchronized void addStageWithResults(Stage stage) {
+		stagesWithResults.put(stage.getStageID(), stage);
+	}
+
+	/** Records that the rider no longer has results in a stage
+	 *
+	 * @param stageID ID of the stage the riders results have been removed from
+	 */
+	public synchronized void removeStageWithResults(int stageID) {
+		stagesWithResults.remove(stageID);
+	}
+
+	/** Removes the riders results from every stage, and its segments, that the rider
+	 *  has results in
+	 *
+	 */
+	public synchronized void removeAllResults() {
+		int riderID = rider.getRiderID();
+		stagesWithResults.forEachValue(stage -> stage.removeAllRiderResults(riderID));
+		stagesWithResults.clear();
+	}
+}
@@ -1,28 +1,26 @@
 package cycling;
 
-import java.util.ArrayList;
-
 /** Parent class of Climb and Sprint, basic framework for each child classes.
  *  Extends order results, a superclass which deals with storing and ordering results
  *
  */
 abstract class Segment extends OrderResults {
 
-	// Counter for ID of segment
-	private static int currentSegmentID = 1;
-
 	// attributes
 	private int segmentID;
 	private double location;
 	private SegmentType type;
+	// Index of the segment in the list of segments of its stage
+	private int position;
 
 	/** Segment superclass constructor
 	 *
+	 * @param segmentID ID given to the segment by the portal
 	 * @param location Location of segment
 	 * @param type Type of segment
 	 */
-	public Segment(double location, SegmentType type){
-		this.segmentID = currentSegmentID++;
+	public Segment(int segmentID, double location, SegmentType type){
+		this.segmentID = segmentID;
 		this.location = location;
 		this.type = type;
 	}
@@ -31,38 +29,59 @@ abstract class Segment extends OrderResults {
 	public int getSegmentID() { return segmentID; }
 	public double getLocation() { return location; }
 	public SegmentType getType(){ return type; }
-	public static int getCurrentSegmentID() { return currentSegmentID; }
+	public int getPosition() { return position; }
 
 	// setters
 	public void setSegmentID( int segmentID ) { this.segmentID = segmentID; }
 	public void setLocation(double location){ this.location = location;}
 	public void setType( SegmentType type ) { this.type = type; }
-	public static void setCurrentSegmentID(int ID) { currentSegmentID = ID; }
+	public void setPosition( int position ) { this.position = position; }
+
+	/** Gets the number of ranks in the segment that score points
+	 *
+	 * @return Number of scoring ranks
+	 */
+	public abstract int getScoringRanks();
+
+	/** Creates empty storage for a storage mode, with TOP_K only the scoring ranks are kept
+	 *  sorted
+	 *
+	 * @param mode Storage to use for the results
+	 * @return Empty storage
+	 */
+	@Override
+	protected ResultStorage createStorage(ResultStorageMode mode) {
+		if (mode == ResultStorageMode.TOP_K) {
+			return new ResultTopK(getScoringRanks());
+		}
+		return super.createStorage(mode);
+	}
 
 	/** After child class determines the points to assign based on segment type this
-	 *  method assigns the points.
+	 *  method assigns the points. Points are only reassigned when the results of the
+	 *  segment have changed.
 	 *
 	 * @param chosenResults Array of points to assign, based on segment type
 	 */
 	public void assignPoints(int[] chosenResults) {
 
-		// Gets the results for the sprint
-		ArrayList<Result> climbResults = super.getResults();
-
-		// Assign points to each rider based on their position
-		for (int i =0 ; i < chosenResults.length ; i++) {
-
-			// If there are less than 15 riders in a race this stops points being assigned
-			// to null riders
-			if (i < climbResults.size()){
-				climbResults.get(i).setPoints(chosenResults[i]);
+		// Only the scoring ranks are visited
+		super.assignPointsByRank(chosenResults);
+	}
 
-				assert(climbResults.get(i).getPoints() == chosenResults[i])
-						: "Climb results have not been inputted correctly";
+	/** Adds the points of every scoring rider in the segment to a running total for each
+	 *  rider, only the scoring ranks are visited
+	 *
+	 * @param chosenResults Array of points to assign, based on segment type
+	 * @param totals Points of each rider keyed by rider ID, added to
+	 */
+	protected void addPointsTo(int[] chosenResults, IntIntHashMap totals) {
 
-			} else {
-				break;
-			}
+		assignPoints(chosenResults);
+		int scoringRanks = Math.min(chosenResults.length, super.getNumberOfResults());
+		for (int i = 0 ; i < scoringRanks ; i++) {
+			int riderID = super.getRiderAtRank(i);
+			totals.put(riderID, totals.get(riderID, 0) + chosenResults[i]);
 		}
 	}
 
@@ -0,0 +1,33 @@
+package cycling;
+
+/** Entry held in the portal segment registry, pairs a segment with the stage it is in
+ *  so a segment can be found or removed without searching through every stage.
+ *
+ */
+final class SegmentEntry {
+
+	// private attributes
+	private final Stage stage;
+	private final Segment segment;
+
+	/** SegmentEntry constructor
+	 *
+	 * @param stage Stage the segment is part of
+	 * @param segment Segment the entry is for
+	 */
+	public SegmentEntry(Stage stage, Segment segment) {
+		this.stage = stage;
+		this.segment = segment;
+	}
+
+	// getters
+	public Stage getStage() { return stage; }
+
+	public Segment getSegment() { return segment; }
+
+	/** Gets the index of the segment in the list of segments of its stage
+	 *
+	 * @return Position of the segment inside the stage
+	 */
+	public int getPosition() { return segment.getPosition(); }
+}
@@ -0,0 +1,151 @@
+package cycling;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Executor that runs its tasks one at a time in the order they were given, on the
+ *  threads of another executor. No thread is held while there are no tasks, so any
+ *  number of them can share one executor.
+ *
+ */
+final class SerialExecutor implements Executor {
+
+	// Most tasks run in one go before the thread is handed back, so other work is not starved
+	private static final int BATCH = 64;
+
+	// private attributes
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	// Set while a drain of the queue is running or waiting to run, or the queue is held
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/** Task that stops the queue until it is released, once every task before it has run
+	 *
+	 */
+	private static final class Hold implements Runnable {
+
+		private final CompletableFuture<Void> reached = new CompletableFuture<>();
+		private final CompletableFuture<?> release;
+
+		private Hold(CompletableFuture<?> release) {
+			this.release = release;
+		}
+
+		@Override
+		public void run() {
+			reached.complete(null);
+		}
+	}
+
+	/** SerialExecutor constructor
+	 *
+	 * @param executor Executor whose threads run the tasks
+	 */
+	public SerialExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/** Creates an executor for queues to share, that starts a virtual thread for each task.
+	 *  Virtual threads are found reflectively so the portal still runs on older Java
+	 *  versions, where a pool of daemon threads is used instead
+	 *
+	 * @param threadName Name given to the threads of the pool
+	 * @return Executor for the queues to run on
+	 */
+	static ExecutorService sharedExecutor(String threadName) {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/** Queues a task, which runs after every task queued before it has finished
+	 *
+	 * @param task Task to run, should not throw
+	 */
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		try {
+			schedule();
+		} catch (RejectedExecutionException e) {
+			tasks.remove(task);
+			throw e;
+		}
+	}
+
+	/** Queues a hold, which stops the queue once every task queued before it has run. Tasks
+	 *  queued after it do not run until the release completes, and no thread is held
+	 *  while the queue is stopped
+	 *
+	 * @param release Future that lets the queue carry on when it completes
+	 * @return Future completed once the tasks queued before the hold have run
+	 */
+	public CompletableFuture<Void> hold(CompletableFuture<?> release) {
+		Hold hold = new Hold(release);
+		execute(hold);
+		return hold.reached;
+	}
+
+	/** Starts a drain of the queue if there are tasks and no drain is already running
+	 *
+	 */
+	private void schedule() {
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::drain);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+	/** Runs queued tasks until the queue is empty or a batch has run
+	 *
+	 */
+	private void drain() {
+		Hold held = null;
+		try {
+			Runnable task;
+			for (int ran = 0 ; ran < BATCH && (task = tasks.poll()) != null ; ran++) {
+				task.run();
+				if (task instanceof Hold hold && !hold.release.isDone()) {
+					held = hold;
+					break;
+				}
+			}
+		} finally {
+			// Queue stays marked as scheduled while it is held, so no other drain starts
+			if (held == null) {
+				scheduled.set(false);
+			}
+		}
+		if (held != null) {
+			held.release.whenComplete((result, e) -> resume());
+			return;
+		}
+		// Tasks queued after the last poll, or left over from the batch, need another drain
+		schedule();
+	}
+
+	/** Lets the queue carry on after a hold has been released
+	 *
+	 */
+	private void resume() {
+		scheduled.set(false);
+		schedule();
+	}
+}
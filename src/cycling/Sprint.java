@@ -10,13 +10,17 @@ public class Sprint extends Segment {
 
 	/** Sprint Constructor
 	 *
+	 * @param segmentID ID given to the sprint by the portal
 	 * @param location Location of finish line for sprint
 	 */
-	public Sprint(double location) {
-		super(location, SegmentType.SPRINT);
+	public Sprint(int segmentID, double location) {
+		super(segmentID, location, SegmentType.SPRINT);
 	}
 
 
+	@Override
+	public int getScoringRanks() { return SPRINT_POINTS.length; }
+
 	/** Returns points to assign to riders based upon their rank
 	 *
 	 */
@@ -26,6 +30,14 @@ public class Sprint extends Segment {
 		super.assignPoints(SPRINT_POINTS);
 	}
 
+	/** Adds the sprint points of each scoring rider to their running total
+	 *
+	 * @param totals Points of each rider keyed by rider ID, added to
+	 */
+	public void addSprintPointsTo(IntIntHashMap totals) {
+		super.addPointsTo(SPRINT_POINTS, totals);
+	}
+
 	/** toString
 	 *
 	 * @return toString statement
@@ -1,10 +1,8 @@
 
 package cycling;
 
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 
 /** Stage class represents each stage in a race
@@ -14,41 +12,56 @@ public class Stage extends OrderResults {
 
 	// private stage attributes
 	private int stageID;
+	// ID of the race the stage belongs to
+	private int raceID;
 	private String stageName;
 	private String stageDescription;
 	private double length;
 	private LocalDateTime startTime;
 	private StageType type;
 	private StageState state;
-	// static counter for last used ID int
-	private static int currentStageID = 1;
 	// Contains all stage segments
 	private ArrayList<Segment> segments = new ArrayList<Segment>();
+	// Set when the adjusted times of the whole stage need recalculating before they are read
+	private boolean adjustmentsDirty = false;
+	// Adjusted time of every rider, rebuilt when the results have changed since it was made
+	private transient IntLongHashMap adjustedTimesView;
+	private transient int adjustedTimesVersion;
+	// Stage and sprint points of every rider, rebuilt when the results have changed
+	private transient IntIntHashMap pointsView;
+	private transient int pointsVersion;
+	// Mountain points of every rider, by rider and in ranked order, rebuilt when the results have changed
+	private transient IntIntHashMap mountainPointsView;
+	private transient int[] rankedMountainPoints;
+	private transient int mountainPointsVersion;
 
 	// Array of points for stage type
 	private static final int[] FLAT = {50, 30, 20, 18, 16, 14, 12, 10, 8, 7, 6, 5, 4, 3, 2};
 	private static final int[] HILL =  {30, 25, 22, 19, 17, 15, 13, 11, 9, 7, 6, 5, 4, 3, 2};
 	private static final int[] OTHER = {20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
 
+	// Riders finishing less than a second apart are given the same time
+	private static final long ONE_SECOND = 1_000_000_000L;
+
 
 	/** Stage constructor
 	 *
+	 * @param stageID ID given to the stage by the portal
 	 * @param stageName Name of stage
 	 * @param stageDescription Description of stage
 	 * @param length Length of stage
 	 * @param startTime	Start time of stage
 	 * @param type Type of stage
 	 */
-	public Stage(String stageName, String stageDescription, double length, LocalDateTime startTime, StageType type) {
+	public Stage(int stageID, String stageName, String stageDescription, double length, LocalDateTime startTime,
+			StageType type) {
+		this.stageID = stageID;
 		this.stageName = stageName;
 		this.stageDescription = stageDescription;
 		this.length = length;
 		this.startTime = startTime;
 		this.type = type;
 
-		// assigns stage ID and increments
-		this.stageID = currentStageID++;
-
 		// Sets state to preparing
 		this.state = StageState.PREPARING;
 	}
@@ -56,6 +69,8 @@ public class Stage extends OrderResults {
 	// getters
 	public int getStageID() { return stageID; }
 
+	public int getRaceID() { return raceID; }
+
 	public String getName() { return stageName; }
 
 	public String getDesc() { return stageDescription; }
@@ -70,12 +85,10 @@ public class Stage extends OrderResults {
 
 	public ArrayList<Segment> getSegments() { return segments; }
 
-	public static int getCurrentStageID() { return currentStageID; }
-
 	// Setters
 	public void setState(StageState state) { this.state = state;}
 
-	public static void setCurrentStageID(int ID) { currentStageID = ID; }
+	public void setRaceID(int raceID) { this.raceID = raceID; }
 
 	public void setLength(double length) { this.length = length; }
 
@@ -92,29 +105,22 @@ public class Stage extends OrderResults {
 	 * @param newSeg Segment to add to array list of segments in the stage
 	 */
 	public void addSegment(Segment newSeg) {
-		// If no other segments exist, then added to front of array list
-		if(segments.size() == 0) {
-			segments.add(newSeg);
-		} else {
-			boolean added = false;
-			// Loops through and finds the first segment the new seg is before
-			for(int i = 0 ; i < segments.size() ; i++) {
-				// Compares the location pf the new segment to current segments
-				if(segments.get(i).getLocation() > newSeg.getLocation()) {
+		// Segment goes to the back of the list unless a segment after it is found
+		int index = segments.size();
+		// Loops through and finds the first segment the new seg is before
+		for(int i = 0 ; i < segments.size() ; i++) {
+			// Compares the location pf the new segment to current segments
+			if(segments.get(i).getLocation() > newSeg.getLocation()) {
 
-					assert((segments.get(i).getLocation() - newSeg.getLocation()) > 0)
-							: "Segment has been placed in the wrong location";
+				assert((segments.get(i).getLocation() - newSeg.getLocation()) > 0)
+						: "Segment has been placed in the wrong location";
 
-					segments.add(i, newSeg);
-					added = true;
-					break;
-				}
-			}
-			// If segment is at end of race it is placed at the back of the array list
-			if(!added) {
-				segments.add(newSeg);
+				index = i;
+				break;
 			}
 		}
+		segments.add(index, newSeg);
+		updatePositions(index);
 	}
 
 	/** Remove segment based on segment ID
@@ -123,7 +129,31 @@ public class Stage extends OrderResults {
 	 */
 	public void removeSegment(int segToRemove) {
 		// removes segment
-		segments.removeIf(segmentToCheck -> segToRemove == segmentToCheck.getSegmentID());
+		for (int i = 0; i < segments.size(); i++) {
+			if (segToRemove == segments.get(i).getSegmentID()) {
+				removeSegmentAt(i);
+				break;
+			}
+		}
+	}
+
+	/** Removes the segment at a known position in the stage
+	 *
+	 * @param position Index of the segment in the list of segments
+	 */
+	public void removeSegmentAt(int position) {
+		segments.remove(position);
+		updatePositions(position);
+	}
+
+	/** Stores each segments index on the segment, from a given index onwards
+	 *
+	 * @param from First index whose segment may have moved
+	 */
+	private void updatePositions(int from) {
+		for (int i = from; i < segments.size(); i++) {
+			segments.get(i).setPosition(i);
+		}
 	}
 
 	/** Returns all the IDs of the segments inside a stage
@@ -153,29 +183,60 @@ public class Stage extends OrderResults {
 		//Format results taking away the start time
 		LocalTime startTime = checkpoints[0];
 
-		for (int i = 1 ; i < checkpoints.length ; i++) {
-			// Finds difference between start and each segment
-			LocalTime timeBetween =  checkpoints[i].minus(Duration.ofNanos(startTime.toNanoOfDay()));
-			checkpoints[i] = timeBetween;
-		}
-
 		// Finds the finish time for the stage
-		LocalTime stageFinishTime = checkpoints[checkpoints.length - 1];
-
-		super.addResult(riderID, stageFinishTime);
+		super.addResult(riderID, elapsedNanos(startTime, checkpoints[checkpoints.length - 1]));
+		// Only the group of riders around the new result needs readjusting
+		adjustAroundRank(super.getRiderRank(riderID));
 
 		// Places remaining checkpoints inside of segments
 		// -2 as don't want to include stage finish time
 		for (int i=0; i < checkpoints.length -2 ; i++) {
 			// Checkpoints[i+1] as start time is not included
-			segments.get(i).addResult(riderID, checkpoints[i+1]);
+			segments.get(i).addResult(riderID, elapsedNanos(startTime, checkpoints[i+1]));
 		}
-		// Riders results are then adjusted
-		// If its a time trial results are not adjusted
-		if(type != StageType.TT) {
-			adjustRiderResults();
+
+	}
+
+	/** Separates the results of many riders into segment and stage results at once. The
+	 *  stage and each segment sort the new results once, and results are only adjusted
+	 *  after every rider has been added.
+	 *
+	 * @param riderIDs IDs of the riders whose results they are
+	 * @param checkpoints Finishing times at the end of each segment/stage for each rider,
+	 *                    these must already have been validated
+	 */
+	public void processResultsBatch(int[] riderIDs, LocalTime[][] checkpoints) {
+
+		long[] stageFinishTimes = new long[riderIDs.length];
+		long[][] segmentFinishTimes = new long[segments.size()][riderIDs.length];
+
+		for (int row = 0 ; row < riderIDs.length ; row++) {
+			LocalTime[] riderCheckpoints = checkpoints[row];
+			// Finds difference between start and each segment
+			for (int i = 0 ; i < segments.size() ; i++) {
+				segmentFinishTimes[i][row] = elapsedNanos(riderCheckpoints[0], riderCheckpoints[i + 1]);
+			}
+			stageFinishTimes[row] = elapsedNanos(riderCheckpoints[0], riderCheckpoints[riderCheckpoints.length - 1]);
 		}
+		addResultsNanos(riderIDs, stageFinishTimes, segmentFinishTimes);
+	}
+
+	/** Adds the stage and segment results of many riders from times that have already been
+	 *  worked out, used by batches and when a saved portal is loaded
+	 *
+	 * @param riderIDs IDs of the riders whose results they are
+	 * @param stageFinishTimes Time each rider took to finish the stage, in nanoseconds
+	 * @param segmentFinishTimes Time each rider took to reach the end of each segment, one
+	 *                           array per segment in stage order, in nanoseconds
+	 */
+	void addResultsNanos(int[] riderIDs, long[] stageFinishTimes, long[][] segmentFinishTimes) {
 
+		super.addAllResults(riderIDs, stageFinishTimes);
+		for (int i = 0 ; i < segments.size() ; i++) {
+			segments.get(i).addAllResults(riderIDs, segmentFinishTimes[i]);
+		}
+		// Whole stage is adjusted once, the next time adjusted times are read
+		adjustmentsDirty = true;
 	}
 
 	/** Gets all the results for a rider whose completed the stage
@@ -205,45 +266,99 @@ public class Stage extends OrderResults {
 		}
 	}
 
-	/**	Adjusts the times of riders who are less than a second apart from each other
+	/**	Adjusts the times of riders who are less than a second apart from each other. Results
+	 *  are kept adjusted as they are added and removed, so the whole stage is only
+	 *  recalculated after a batch of results has been added
 	 *
 	 */
 	public void adjustRiderResults() {
 
-		// Check results aren't being adjusted for a time trial
-		assert(type != StageType.TT)
-				: "Stage time is time trial, results should not be adjusted.";
-		// Order results to see if there is any adjustments needed
-		ArrayList<Result> stageResults = super.getResults();
+		// Time trials are not adjusted, and stages that have not changed are already adjusted
+		if (type == StageType.TT || !adjustmentsDirty) {
+			return;
+		}
+		// Finish times are read in ranked order to see if there is any adjustments needed
+		long[] finishTimes = super.getRankedFinishNanos();
+		long[] adjustedTimes = new long[finishTimes.length];
 		// If there are no results for the stage calculations are not done
-		if (stageResults.size() >= 1) {
+		if (finishTimes.length >= 1) {
 			// Sets the first result to itself as no rider before it, so time can't be adjusted
-			stageResults.get(0).setAdjustedTime(stageResults.get(0).getFinishTime());
-			// If there's only one rider result for stage no need to compare
-			if (stageResults.size() > 1) {
-				LocalTime currentLowestTime = null;
-				for (int i = 0; i < (stageResults.size() - 1); i++) {
-					// Gets time to check and time before it
-					LocalTime l1 = stageResults.get(i).getFinishTime();
-					LocalTime l2 = stageResults.get(i + 1).getFinishTime();
-
-					if (ChronoUnit.SECONDS.between(l1, l2) < 1) {
-						// Set to the same time as rider before it
-						if (currentLowestTime == null) {
-							currentLowestTime = stageResults.get(i).getFinishTime();
-						}
-						stageResults.get(i + 1).setAdjustedTime(currentLowestTime);
-
-					} else {
-						// Current lowest time set to null as times are more than a second apart
-						currentLowestTime = null;
-						// Time is just set to its regular time as no adjustment needed
-						LocalTime adjustedFinish = stageResults.get(i + 1).getFinishTime();
-						stageResults.get(i + 1).setAdjustedTime(adjustedFinish);
-					}
+			adjustedTimes[0] = finishTimes[0];
+			for (int i = 0; i < (finishTimes.length - 1); i++) {
+				// Compares time to check with the time before it
+				if (finishTimes[i + 1] - finishTimes[i] < ONE_SECOND) {
+					// Set to the same time as rider before it, which is the start of the group
+					adjustedTimes[i + 1] = adjustedTimes[i];
+				} else {
+					// Time is just set to its regular time as no adjustment needed
+					adjustedTimes[i + 1] = finishTimes[i + 1];
+				}
+			}
+		}
+		super.setRankedAdjustedNanos(adjustedTimes);
+		adjustmentsDirty = false;
+	}
+
+	/** Readjusts only the group of riders less than a second apart around a rank that has
+	 *  changed, groups before and after it keep their adjusted times
+	 *
+	 * @param rank Rank a result has been added at, or removed from
+	 */
+	private void adjustAroundRank(int rank) {
+
+		int numberOfResults = super.getNumberOfResults();
+		// Time trials are not adjusted, and a dirty stage is recalculated in full later
+		if (type == StageType.TT || adjustmentsDirty || rank < 0 || numberOfResults == 0) {
+			return;
+		}
+		// Walks back from the rider before the change to the start of their group
+		int start = Math.min(Math.max(rank - 1, 0), numberOfResults - 1);
+		long startTime = super.getFinishNanosAtRank(start);
+		while (start > 0) {
+			long previousTime = super.getFinishNanosAtRank(start - 1);
+			if (startTime - previousTime >= ONE_SECOND) {
+				break;
+			}
+			start--;
+			startTime = previousTime;
+		}
+
+		// Start of the group keeps its own time
+		long groupTime = startTime;
+		long currentTime = startTime;
+		super.setAdjustedNanosAtRank(start, groupTime);
+		// Walks forward until a gap is found at or after the change
+		for (int i = start + 1 ; i < numberOfResults ; i++) {
+			long nextTime = super.getFinishNanosAtRank(i);
+			if (nextTime - currentTime >= ONE_SECOND) {
+				if (i > rank) {
+					break;
 				}
+				groupTime = nextTime;
 			}
+			super.setAdjustedNanosAtRank(i, groupTime);
+			currentTime = nextTime;
+		}
+	}
+
+	/** Gets adjusted times in ranked order, time trials are not adjusted so their finish
+	 *  times are returned
+	 *
+	 * @return Adjusted times of the riders, ordered by finish time
+	 */
+	@Override
+	public LocalTime[] getRankedAdjustedTimes() {
+
+		if (type != StageType.TT) {
+			adjustRiderResults();
+			return super.getRankedAdjustedTimes();
 		}
+		long[] finishTimes = super.getRankedFinishNanos();
+		LocalTime[] rankedTimes = new LocalTime[finishTimes.length];
+		for (int i = 0 ; i < finishTimes.length ; i++) {
+			rankedTimes[i] = toLocalTime(finishTimes[i]);
+		}
+		return rankedTimes;
 	}
 
 	/** Gets the adjusted times for a stage, if a Time trial, regular results are returned
@@ -253,26 +368,64 @@ public class Stage extends OrderResults {
 	 * @return Adjusted results of a specific rider
 	 */
 	public LocalTime getAdjustedRiderTime(int riderID) {
+		return toLocalTime(getAdjustedRiderNanos(riderID));
+	}
+
+	/** Gets the adjusted time of a rider in nanoseconds, if a Time trial the regular result
+	 *  is returned as no need for adjustments
+	 *
+	 * @param riderID ID of the rider, whose results are to be found
+	 * @return Adjusted time of the rider, or UNSET if the rider has no result
+	 */
+	public long getAdjustedRiderNanos(int riderID) {
 
 		// If a time trial results do not need to be adjusted
 		if (type == StageType.TT) {
-			return super.getResult(riderID);
+			return super.getResultNanos(riderID);
 		}
 		else {
 			// Results are adjusted, this makes sure whenever new results are added
 			// results will be readjusted
 			adjustRiderResults();
-			return super.getAdjustedResult(riderID);
+			return super.getAdjustedResultNanos(riderID);
 		}
 	}
 
+	/** Gets the adjusted time of every rider in the stage, keyed by rider ID. The view is
+	 *  cached and only rebuilt once after the results of the stage have changed, it must
+	 *  not be modified
+	 *
+	 * @return Adjusted times in nanoseconds, keyed by rider ID
+	 */
+	public IntLongHashMap getAdjustedTimesView() {
+
+		// Cached view is still correct if no results have changed since it was built
+		if (adjustedTimesView != null && adjustedTimesVersion == super.getVersion()) {
+			return adjustedTimesView;
+		}
+		adjustRiderResults();
+		int[] rankedRiders = super.getRankedRiders();
+		// Time trials are not adjusted so their finish times are used
+		long[] rankedTimes = type == StageType.TT ? super.getRankedFinishNanos() : super.getRankedAdjustedNanos();
+		IntLongHashMap view = new IntLongHashMap(rankedRiders.length);
+		for (int i = 0 ; i < rankedRiders.length ; i++) {
+			view.put(rankedRiders[i], rankedTimes[i]);
+		}
+		adjustedTimesView = view;
+		adjustedTimesVersion = super.getVersion();
+		return view;
+	}
+
 	/** Removes the results in a stage for a specific rider
 	 *
 	 * @param riderID ID of the rider whose results will be removed
 	 */
 	public void removeAllRiderResults(int riderID) {
 
+		int rank = super.getRiderRank(riderID);
 		super.removeResult(riderID);
+		// Riders either side of the removed result may no longer be in the same group
+		adjustAroundRank(rank);
 
 		for(Segment segmentWithResult : segments) {
 			segmentWithResult.removeResult(riderID);
@@ -282,30 +435,80 @@ public class Stage extends OrderResults {
 	/** Assigns points to a rider given the stage type
 	 */
 	public void assignStagePoints() {
+		// Assigns points to each rider based on their position, only if results have changed
+		super.assignPointsByRank(getStagePoints());
+	}
 
-		int[] chosenResults = switch (type) {
+	/** Gets the points for each rank on the stage
+	 *
+	 * @return Points for each rank, based on the stage type
+	 */
+	private int[] getStagePoints() {
+		return switch (type) {
 			case FLAT -> FLAT;
 			case MEDIUM_MOUNTAIN -> HILL;
 			default -> OTHER;
 		};
+	}
 
-		// Gets the results for the sprint
-		ArrayList<Result> sprintResults = super.getResults();
+	/** Gets the stage and sprint points of every rider in the stage. Segment results only
+	 *  change along with the results of the stage, so the totals are cached until the stage
+	 *  results change. The view must not be modified
+	 *
+	 * @return Points keyed by rider ID, riders without points are not included
+	 */
+	public IntIntHashMap getPointsView() {
 
-		// Assigns points to each rider based on their position
-		for (int i =0 ; i < chosenResults.length ; i++) {
+		if (pointsView != null && pointsVersion == super.getVersion()) {
+			return pointsView;
+		}
+		IntIntHashMap totals = new IntIntHashMap();
+		// Each sprint adds the points of its scoring riders once
+		for (Segment segmentToCheck : segments) {
+			if (segmentToCheck instanceof Sprint sprintToCheck) {
+				sprintToCheck.addSprintPointsTo(totals);
+			}
+		}
+		// Then the points for finishing the stage are added
+		assignStagePoints();
+		int[] stagePoints = getStagePoints();
+		int scoringRanks = Math.min(stagePoints.length, super.getNumberOfResults());
+		for (int i = 0 ; i < scoringRanks ; i++) {
+			int riderID = super.getRiderAtRank(i);
+			totals.put(riderID, totals.get(riderID, 0) + stagePoints[i]);
+		}
+		pointsView = totals;
+		pointsVersion = super.getVersion();
+		return totals;
+	}
 
-			// If there are less than 15 riders in a race this stops points being assigned
-			// to null riders
-			if (i < sprintResults.size()){
-				sprintResults.get(i).setPoints(chosenResults[i]);
+	/** Gets the mountain points of every rider in the stage, cached until the stage results
+	 *  change. The view must not be modified
+	 *
+	 * @return Mountain points keyed by rider ID, riders without points are not included
+	 */
+	public IntIntHashMap getMountainPointsView() {
 
-				assert(sprintResults.get(i).getPoints() == chosenResults[i])
-						: "Stage Points are being miss-assigned";
-			} else {
-				break;
+		if (mountainPointsView != null && mountainPointsVersion == super.getVersion()) {
+			return mountainPointsView;
+		}
+		IntIntHashMap climbPoints = new IntIntHashMap();
+		// Each climb adds the points of its scoring riders once
+		for (Segment segmentToCheck : segments) {
+			if (segmentToCheck instanceof Climb climbToCheck) {
+				climbToCheck.addClimbPointsTo(climbPoints);
 			}
 		}
+		// Riders ordered by elapsed time on the stage
+		int[] rankedRiders = super.getRankedRiders();
+		int[] rankedRiderPoints = new int[rankedRiders.length];
+		for (int i = 0 ; i < rankedRiders.length ; i++) {
+			rankedRiderPoints[i] = climbPoints.get(rankedRiders[i], 0);
+		}
+		mountainPointsView = climbPoints;
+		rankedMountainPoints = rankedRiderPoints;
+		mountainPointsVersion = super.getVersion();
+		return climbPoints;
 	}
 
 	/** Gets points for each rider in the stage, ranked by general classification times
@@ -314,36 +517,13 @@ public class Stage extends OrderResults {
 	 */
 	public int[] getRidersPointsForStage(){
 
-		// Assign points to riders, this is best done right before result assignment
-		// as new results may be added later down the line
-		assignStagePoints();
-
-		//Set up array of ints
-		int[] rankedRiderPoints = new int[super.getResults().size()];
-		// Array of results
-		ArrayList<Result> resultsToCheck = super.getResults();
+		// Riders ordered by elapsed time on the stage
+		int[] rankedRiders = super.getRankedRiders();
+		int[] rankedRiderPoints = new int[rankedRiders.length];
+		IntIntHashMap points = getPointsView();
 		// Go through each rider based on elapsed time on the stage and get their points
-		for (int i = 0 ; i < resultsToCheck.size() ; i++) {
-
-			int currentID = resultsToCheck.get(i).getRiderID();
-			int totalPoints = resultsToCheck.get(i).getPoints();
-			// Goes through each segment getting the riders points for each sprint
-			// And adding them to the total
-			for (Segment segmentToCheck : segments) {
-
-				if( segmentToCheck.getType() == SegmentType.SPRINT) {
-					// Sprint child class is then set
-					Sprint sprintToCheck = (Sprint) segmentToCheck;
-					// Assigns sprint points to riders
-					sprintToCheck.intermediateSprintPoints();
-					Result riderResultInSegment = sprintToCheck.getRiderAndResult(currentID);
-					totalPoints += riderResultInSegment.getPoints();
-				}
-			}
-
-			rankedRiderPoints[i] = totalPoints;
-
-
+		for (int i = 0 ; i < rankedRiders.length ; i++) {
+			rankedRiderPoints[i] = points.get(rankedRiders[i], 0);
 		}
 		return rankedRiderPoints;
 	}
@@ -354,35 +534,10 @@ public class Stage extends OrderResults {
 	 */
 	public int[] getMountainPointsForStage(){
 
-		//Set up array of ints
-		int[] rankedRiderPoints = new int[super.getResults().size()];
-		// Array of results
-		ArrayList<Result> resultsToCheck = super.getResults();
-		// Go through each rider based on elapsed time on the stage and get their points for climbs
-		for (int i = 0 ; i < resultsToCheck.size() ; i++) {
-
-			int currentID = resultsToCheck.get(i).getRiderID();
-			int totalPoints = 0;
-			// Goes through each segment getting the riders points for each climb
-			// And adding them to the total
-			for (Segment segmentToCheck : segments) {
-
-				if(segmentToCheck instanceof Climb climbToCheck) {
-					// Climb class is set
-					// Points are assigned to the climb
-					climbToCheck.assignClimbPoints();
-					// Result is gotten for rider with correct ID
-					Result riderResultInClimb = climbToCheck.getRiderAndResult(currentID);
-					// Points are added to the total
-					totalPoints += riderResultInClimb.getPoints();
-				}
-			}
-
-			rankedRiderPoints[i] = totalPoints;
-
-
-		}
-		return rankedRiderPoints;
+		// Totals are rebuilt along with the view if any results have changed
+		getMountainPointsView();
+		// Copy is returned so the cached totals cannot be changed
+		return rankedMountainPoints.clone();
 	}
 
 	/** toString
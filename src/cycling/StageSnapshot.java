@@ -0,0 +1,115 @@
+package cycling;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/** Frozen copy of a stage and its results, held by a PortalSnapshot. Nothing in it is
+ *  changed once it has been built, so it can be read from any thread without locking.
+ *
+ */
+final class StageSnapshot {
+
+	// Version of the stage results and the segments it was built from
+	private final int version;
+	private final int[] segmentIDs;
+	private final double length;
+	// Rankings and points, in the order the portal returns them
+	private final int[] rankedRiders;
+	private final LocalTime[] rankedAdjustedTimes;
+	private final int[] rankedPoints;
+	private final int[] rankedMountainPoints;
+	// Adjusted time of each rider, shared with the stage as its views are never changed
+	private final IntLongHashMap adjustedTimes;
+	// Time of each rider at the end of every segment and then the finish
+	private final IntLongHashMap[] checkpointTimes;
+
+	/** Builds a snapshot of a stage, the lock of its race must be held
+	 *
+	 * @param stage Stage to copy
+	 */
+	private StageSnapshot(Stage stage) {
+		this.version = stage.getVersion();
+		this.segmentIDs = stage.getSegmentIDs();
+		this.length = stage.getLength();
+		this.rankedRiders = stage.getRankedRiders();
+		this.rankedAdjustedTimes = stage.getRankedAdjustedTimes();
+		this.rankedPoints = stage.getRidersPointsForStage();
+		this.rankedMountainPoints = stage.getMountainPointsForStage();
+		this.adjustedTimes = stage.getAdjustedTimesView();
+
+		// Each checkpoint is read out in ranked order rather than looking up each rider
+		this.checkpointTimes = new IntLongHashMap[segmentIDs.length + 1];
+		for (int i = 0 ; i < segmentIDs.length ; i++) {
+			checkpointTimes[i] = timesOf(stage.getSegments().get(i));
+		}
+		checkpointTimes[segmentIDs.length] = timesOf(stage);
+	}
+
+	/** Gets a snapshot of a stage, reusing the previous one if the stage has not changed
+	 *
+	 * @param stage Stage to copy, the lock of its race must be held
+	 * @param previous Snapshot of the stage last published, or null if there is none
+	 * @return Snapshot of the stage as it is now
+	 */
+	public static StageSnapshot of(Stage stage, StageSnapshot previous) {
+		if (previous != null && previous.version == stage.getVersion()
+				&& previous.length == stage.getLength()
+				&& Arrays.equals(previous.segmentIDs, stage.getSegmentIDs())) {
+			return previous;
+		}
+		return new StageSnapshot(stage);
+	}
+
+	// getters
+	public double getLength() { return length; }
+
+	public int[] getSegmentIDs() { return segmentIDs.clone(); }
+
+	public int[] getRankedRiders() { return rankedRiders.clone(); }
+
+	public LocalTime[] getRankedAdjustedTimes() { return rankedAdjustedTimes.clone(); }
+
+	public int[] getRankedPoints() { return rankedPoints.clone(); }
+
+	public int[] getRankedMountainPoints() { return rankedMountainPoints.clone(); }
+
+	/** Gets the adjusted time of a rider
+	 *
+	 * @param riderID ID of the rider
+	 * @return Adjusted time, or null if the rider has no result in the stage
+	 */
+	public LocalTime getAdjustedTime(int riderID) {
+		return OrderResults.toLocalTime(adjustedTimes.get(riderID, ResultStorage.UNSET));
+	}
+
+	/** Gets the times of a rider at every segment and the finish
+	 *
+	 * @param riderID ID of the rider
+	 * @return Times of the rider, or an empty array if the rider has no result in the stage
+	 */
+	public LocalTime[] getResults(int riderID) {
+		if (!adjustedTimes.containsKey(riderID)) {
+			return new LocalTime[0];
+		}
+		LocalTime[] results = new LocalTime[checkpointTimes.length];
+		for (int i = 0 ; i < checkpointTimes.length ; i++) {
+			results[i] = OrderResults.toLocalTime(checkpointTimes[i].get(riderID, ResultStorage.UNSET));
+		}
+		return results;
+	}
+
+	/** Reads the finish time of every rider out of a set of results
+	 *
+	 * @param results Results of the stage or one of its segments
+	 * @return Finish time of each rider
+	 */
+	private static IntLongHashMap timesOf(OrderResults results) {
+		int[] riders = results.getRankedRiders();
+		long[] times = results.getRankedFinishNanos();
+		IntLongHashMap view = new IntLongHashMap(riders.length);
+		for (int i = 0 ; i < riders.length ; i++) {
+			view.put(riders[i], times[i]);
+		}
+		return view;
+	}
+}
@@ -0,0 +1,65 @@
+package cycling;
+
+/** Changes to the total times of riders caused by changes to the results of stages, built
+ *  up from the old and new adjusted times of each stage and then applied to the general
+ *  classification in one go. Changes built separately can be merged, so stages can be
+ *  compared in parallel.
+ *
+ */
+final class StageTimeChanges {
+
+	// Change in total time of each changed rider
+	private final IntLongHashMap timeChanges = new IntLongHashMap();
+
+	/** Adds the changes between the old and new times of a stage
+	 *
+	 * @param oldTimes Times of the stage applied before, null if none were
+	 * @param newTimes Current times of the stage
+	 */
+	public void addStage(IntLongHashMap oldTimes, IntLongHashMap newTimes) {
+
+		if (oldTimes != null) {
+			// Riders whose time has changed or who no longer have a time in the stage
+			oldTimes.forEach((riderID, oldTime) -> {
+				long newTime = newTimes.get(riderID, ResultStorage.UNSET);
+				if (newTime == oldTime) {
+					return;
+				}
+				if (newTime == ResultStorage.UNSET) {
+					addChange(riderID, -oldTime);
+				} else {
+					addChange(riderID, newTime - oldTime);
+				}
+			});
+		}
+		// Riders who now have a time in the stage
+		newTimes.forEach((riderID, newTime) -> {
+			if (oldTimes == null || !oldTimes.containsKey(riderID)) {
+				addChange(riderID, newTime);
+			}
+		});
+	}
+
+	/** Adds the changes held by another set of changes
+	 *
+	 * @param other Changes to add, not modified
+	 */
+	public void merge(StageTimeChanges other) {
+		other.forEachRider(this::addChange);
+	}
+
+	/** Passes the changes of every changed rider to the given action
+	 *
+	 * @param action Action to perform on the changes of each rider
+	 */
+	public void forEachRider(IntLongHashMap.EntryConsumer action) {
+		timeChanges.forEach(action);
+	}
+
+	// getters
+	public int size() { return timeChanges.size(); }
+
+	private void addChange(int riderID, long timeChange) {
+		timeChanges.put(riderID, timeChanges.get(riderID, 0) + timeChange);
+	}
+}
@@ -4,7 +4,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 
 /** Class stores teams and races and next assignable IDs,
- *  which can then be serialized and deserialized
+ *  which can then be saved to and loaded from a file
  *
  */
 public class Store implements Serializable {
@@ -13,18 +13,16 @@ public class Team implements Serializable {
 	private String teamName;
 	private String description;
 
-	// Holds the latest assigned team ID
-	private static int currentTeamID = 1;
-
 	// riders on the team
 	private ArrayList<Rider> riders = new ArrayList<Rider>();
 
 	/** Constructor for the team class
 	 *
+	 * @param teamID ID given to the team by the portal
 	 * @param teamName Name of the team
 	 * @param description Description of the team
 	 */
-	public Team(String teamName, String description) {
+	public Team(int teamID, String teamName, String description) {
 
 		// Assertion used to check name has had a validity check
 		assert(teamName != null)
@@ -32,8 +30,7 @@ public class Team implements Serializable {
 
 		this.teamName = teamName;
 		this.description = description;
-		// assigns team ID and increments
-		this.teamID = currentTeamID++;
+		this.teamID = teamID;
 	}
 
 	// getters
@@ -45,11 +42,7 @@ public class Team implements Serializable {
 
 	public ArrayList<Rider> getRiders(){ return riders; }
 
-	public static int getCurrentTeamID() { return currentTeamID; }
-
 	// setters
-	public static void setCurrentTeamID(int ID) { currentTeamID = ID; }
-
 	public void setDescription(String description) { this.description = description; }
 
 	public void setTeamName(String teamName) { this.teamName = teamName; }
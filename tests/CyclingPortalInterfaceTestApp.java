@@ -229,8 +229,8 @@ public class CyclingPortalInterfaceTestApp {
 
 		SegmentType newType = SegmentType.C4;
 
-		Sprint newSeg = new Sprint(1);
-		Climb newSegtwo = new Climb(1, newType,1 ,1);
+		Sprint newSeg = new Sprint(1, 1);
+		Climb newSegtwo = new Climb(2, 1, newType,1 ,1);
 
 		System.out.println(newSeg.toString());
 		System.out.println(newSegtwo.toString());
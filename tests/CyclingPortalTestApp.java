@@ -1,5 +1,6 @@
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.*;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -7,9 +8,15 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.io.TempDir;
 
+import cycling.AsyncCyclingPortal;
+import cycling.BatchRegistrationReport;
+import cycling.ConcurrentCyclingPortal;
 import cycling.CyclingPortal;
+import cycling.DuplicatedResultException;
 import cycling.IllegalNameException;
+import cycling.InvalidCheckpointsException;
 import cycling.InvalidLengthException;
 import cycling.InvalidLocationException;
 import cycling.InvalidNameException;
@@ -18,10 +25,31 @@ import cycling.InvalidStageTypeException;
 import cycling.SegmentType;
 import cycling.StageType;
 import cycling.IDNotRecognisedException;
+import cycling.NameNotRecognisedException;
+import cycling.PortalSnapshot;
+import cycling.RaceCommandExecutor;
+import cycling.ResultStorageMode;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.IllegalArgumentException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 // !! DO NOT SUBMIT: Doesn't start with java.
 
 class CyclingPortalTestApp {
@@ -115,6 +143,22 @@ class CyclingPortalTestApp {
 			}
 		}
 
+		@Test
+		public void removeRider() {
+			try {
+				int id = portal.createTeam("Team0", "Test team");
+				int rider = portal.createRider(id, "Maddie", 2000);
+				int other = portal.createRider(id, "Jonathan", 2000);
+				portal.removeRider(rider);
+				assertArrayEquals(portal.getTeamRiders(id), new int[] { other });
+				assertThrows(IDNotRecognisedException.class, () -> {
+					portal.removeRider(rider);
+				});
+			} catch (IDNotRecognisedException | IllegalNameException | InvalidNameException e) {
+				fail(e);
+			}
+		}
+
 		@ParameterizedTest
 		@ValueSource(ints = { 0, 1899, -200 })
 		public void invalidYOB(int invalidYOBs) {
@@ -251,6 +295,1260 @@ class CyclingPortalTestApp {
 		}
 	}
 	
+	@Nested
+	class RankingTests {
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void ranksByTimeThenRegistrationOrder(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				int teamId = portal.createTeam("RankTeam", null);
+				int[] riders = new int[6];
+				for (int i = 0; i < riders.length; i++) {
+					riders[i] = portal.createRider(teamId, "Rider" + i, 1999);
+				}
+				int raceId = portal.createRace("RankRace", null);
+				int stageId = portal.addStageToRace(raceId, "RankStage", null, 10, LocalDateTime.now(),
+						StageType.TT);
+				portal.concludeStagePreparation(stageId);
+				int[] minutes = { 30, 10, 20, 10, 40, 5 };
+				for (int i = riders.length - 1; i >= 0; i--) {
+					portal.registerRiderResultsInStage(stageId, riders[i], LocalTime.of(1, 0),
+							LocalTime.of(1, minutes[i]));
+				}
+				// Riders with equal times stay in the order they were registered
+				assertArrayEquals(portal.getRidersRankInStage(stageId),
+						new int[] { riders[5], riders[3], riders[1], riders[2], riders[0], riders[4] });
+				portal.deleteRiderResultsInStage(stageId, riders[1]);
+				assertArrayEquals(portal.getRidersRankInStage(stageId),
+						new int[] { riders[5], riders[3], riders[2], riders[0], riders[4] });
+				// Result registered again reuses the slot another result was moved out of
+				portal.registerRiderResultsInStage(stageId, riders[1], LocalTime.of(1, 0), LocalTime.of(1, 35));
+				assertArrayEquals(new int[] { riders[5], riders[3], riders[2], riders[0], riders[1], riders[4] },
+						portal.getRidersRankInStage(stageId));
+				// Registered again with an equal time, it goes after the rider it ties with
+				portal.deleteRiderResultsInStage(stageId, riders[1]);
+				portal.registerRiderResultsInStage(stageId, riders[1], LocalTime.of(1, 0), LocalTime.of(1, 10));
+				assertArrayEquals(new int[] { riders[5], riders[3], riders[1], riders[2], riders[0], riders[4] },
+						portal.getRidersRankInStage(stageId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void generalClassificationTiesFollowTheLastStage(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				int teamId = portal.createTeam("TieTeam", null);
+				int[] riders = new int[4];
+				for (int i = 0; i < riders.length; i++) {
+					riders[i] = portal.createRider(teamId, "Tied" + i, 1999);
+				}
+				int raceId = portal.createRace("TieRace", null);
+				int firstId = portal.addStageToRace(raceId, "TieStageOne", null, 10,
+						LocalDateTime.of(2023, 7, 1, 10, 0), StageType.TT);
+				int lastId = portal.addStageToRace(raceId, "TieStageTwo", null, 10,
+						LocalDateTime.of(2023, 7, 2, 10, 0), StageType.TT);
+				portal.concludeStagePreparation(firstId);
+				portal.concludeStagePreparation(lastId);
+				// Every rider takes 50 minutes in total
+				int[] firstMinutes = { 30, 40, 35, 40 };
+				int[] lastMinutes = { 20, 10, 15, 10 };
+				for (int i = 0; i < riders.length; i++) {
+					portal.registerRiderResultsInStage(firstId, riders[i], LocalTime.of(1, 0),
+							LocalTime.of(1, firstMinutes[i]));
+					portal.registerRiderResultsInStage(lastId, riders[i], LocalTime.of(1, 0),
+							LocalTime.of(1, lastMinutes[i]));
+				}
+
+				// Ranked as in the last stage, where equal times are in the order registered
+				assertArrayEquals(new int[] { riders[1], riders[3], riders[2], riders[0] },
+						portal.getRidersGeneralClassificationRank(raceId));
+				// Registered again in the last stage, the rider goes after the one they tie with
+				portal.deleteRiderResultsInStage(lastId, riders[1]);
+				portal.registerRiderResultsInStage(lastId, riders[1], LocalTime.of(1, 0), LocalTime.of(1, 10));
+				assertArrayEquals(new int[] { riders[3], riders[1], riders[2], riders[0] },
+						portal.getRidersGeneralClassificationRank(raceId));
+				// Riders with equal points are ranked as in the general classification
+				assertArrayEquals(new int[] { 33, 32, 32, 33 }, portal.getRidersPointsInRace(raceId));
+				assertArrayEquals(new int[] { riders[3], riders[0], riders[1], riders[2] },
+						portal.getRidersPointClassificationRank(raceId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void removingResultSplitsBunch(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				int teamId = portal.createTeam("BunchTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int rider3Id = portal.createRider(teamId, "Charlie", 1999);
+				int raceId = portal.createRace("BunchRace", null);
+				int stageId = portal.addStageToRace(raceId, "BunchStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				portal.concludeStagePreparation(stageId);
+				portal.registerRiderResultsInStage(stageId, rider1Id, LocalTime.of(1, 0), LocalTime.of(2, 0));
+				portal.registerRiderResultsInStage(stageId, rider3Id, LocalTime.of(1, 0),
+						LocalTime.of(2, 0, 1, 200_000_000));
+				portal.registerRiderResultsInStage(stageId, rider2Id, LocalTime.of(1, 0),
+						LocalTime.of(2, 0, 0, 600_000_000));
+				assertEquals(LocalTime.of(1, 0), portal.getRiderAdjustedElapsedTimeInStage(stageId, rider3Id));
+
+				portal.deleteRiderResultsInStage(stageId, rider2Id);
+				assertArrayEquals(new LocalTime[] { LocalTime.of(1, 0), LocalTime.of(1, 0, 1, 200_000_000) },
+						portal.getRankedAdjustedElapsedTimesInStage(stageId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+	}
+
+	@Nested
+	class RemovalTests {
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void removingRidersRemovesResults(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				int teamId = portal.createTeam("RedTeam", null);
+				int otherTeamId = portal.createTeam("GreenTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int rider3Id = portal.createRider(otherTeamId, "Charlie", 1999);
+				int raceId = portal.createRace("RemovalRace", null);
+				int stageId = portal.addStageToRace(raceId, "RemovalStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				portal.addIntermediateSprintToStage(stageId, 2.0);
+				portal.concludeStagePreparation(stageId);
+				portal.registerRiderResultsInStage(stageId, rider1Id, LocalTime.of(1, 0), LocalTime.of(1, 10),
+						LocalTime.of(2, 0));
+				portal.registerRiderResultsInStage(stageId, rider2Id, LocalTime.of(1, 0), LocalTime.of(1, 11),
+						LocalTime.of(2, 1));
+				portal.registerRiderResultsInStage(stageId, rider3Id, LocalTime.of(1, 0), LocalTime.of(1, 12),
+						LocalTime.of(2, 2));
+
+				portal.removeRider(rider2Id);
+				assertArrayEquals(portal.getRidersRankInStage(stageId), new int[] { rider1Id, rider3Id });
+				portal.removeTeam(teamId);
+				assertArrayEquals(portal.getRidersRankInStage(stageId), new int[] { rider3Id });
+				assertArrayEquals(portal.getRidersPointsInStage(stageId), new int[] { 70 });
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void generalClassificationFollowsDeletedResults(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				int teamId = portal.createTeam("GCTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int raceId = portal.createRace("GCRace", null);
+				int stage1Id = portal.addStageToRace(raceId, "GCStage1", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				int stage2Id = portal.addStageToRace(raceId, "GCStage2", null, 10, LocalDateTime.now().plusDays(1),
+						StageType.FLAT);
+				portal.concludeStagePreparation(stage1Id);
+				portal.concludeStagePreparation(stage2Id);
+				portal.registerRiderResultsInStage(stage1Id, rider1Id, LocalTime.of(1, 0), LocalTime.of(2, 0));
+				portal.registerRiderResultsInStage(stage1Id, rider2Id, LocalTime.of(1, 0), LocalTime.of(2, 5));
+				portal.registerRiderResultsInStage(stage2Id, rider1Id, LocalTime.of(1, 0), LocalTime.of(2, 10));
+				portal.registerRiderResultsInStage(stage2Id, rider2Id, LocalTime.of(1, 0), LocalTime.of(2, 0));
+				assertArrayEquals(new int[] { rider2Id, rider1Id }, portal.getRidersGeneralClassificationRank(raceId));
+
+				// Rider without a time in the last stage has abandoned, so is not ranked on a partial total
+				portal.deleteRiderResultsInStage(stage2Id, rider1Id);
+				assertArrayEquals(new int[] { rider2Id }, portal.getRidersGeneralClassificationRank(raceId));
+				assertArrayEquals(new LocalTime[] { LocalTime.of(2, 5) },
+						portal.getGeneralClassificationTimesInRace(raceId));
+				assertArrayEquals(new int[] { rider2Id }, portal.getRidersPointClassificationRank(raceId));
+
+				// Once the last stage has no results, the riders of the stage before are ranked
+				portal.deleteRiderResultsInStage(stage2Id, rider2Id);
+				assertArrayEquals(new int[] { rider1Id, rider2Id }, portal.getRidersGeneralClassificationRank(raceId));
+				assertArrayEquals(new LocalTime[] { LocalTime.of(1, 0), LocalTime.of(1, 5) },
+						portal.getGeneralClassificationTimesInRace(raceId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void parallelGeneralClassificationFollowsChangedStages() {
+			try {
+				portal.setParallelAggregation(true, 0);
+				int teamId = portal.createTeam("ParallelTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int rider3Id = portal.createRider(teamId, "Carl", 1999);
+				int raceId = portal.createRace("ParallelRace", null);
+				int[] stageIds = new int[4];
+				for (int i = 0; i < stageIds.length; i++) {
+					stageIds[i] = portal.addStageToRace(raceId, "ParallelStage" + i, null, 10,
+							LocalDateTime.now().plusDays(i), StageType.FLAT);
+					portal.concludeStagePreparation(stageIds[i]);
+					portal.registerRiderResultsInStage(stageIds[i], rider1Id, LocalTime.of(1, 0), LocalTime.of(2, i));
+					portal.registerRiderResultsInStage(stageIds[i], rider2Id, LocalTime.of(1, 0), LocalTime.of(2, 2));
+					portal.registerRiderResultsInStage(stageIds[i], rider3Id, LocalTime.of(1, 0), LocalTime.of(2, 4 - i));
+				}
+				assertArrayEquals(new int[] { rider1Id, rider2Id, rider3Id },
+						portal.getRidersGeneralClassificationRank(raceId));
+
+				// Stages are changed after the first read, so only they are read again
+				portal.deleteRiderResultsInStage(stageIds[0], rider3Id);
+				portal.deleteRiderResultsInStage(stageIds[1], rider3Id);
+				assertArrayEquals(new int[] { rider3Id, rider1Id, rider2Id },
+						portal.getRidersGeneralClassificationRank(raceId));
+				assertArrayEquals(new LocalTime[] { LocalTime.of(2, 3), LocalTime.of(4, 6), LocalTime.of(4, 8) },
+						portal.getGeneralClassificationTimesInRace(raceId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+	}
+
+	@Nested
+	class PointsTests {
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void riderPushedOutOfScoringRanksLosesPoints(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				int teamId = portal.createTeam("PointsTeam", null);
+				int raceId = portal.createRace("PointsRace", null);
+				int stageId = portal.addStageToRace(raceId, "PointsStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				portal.concludeStagePreparation(stageId);
+				int[] riders = new int[16];
+				for (int i = 0; i < riders.length; i++) {
+					riders[i] = portal.createRider(teamId, "Rider" + i, 1999);
+				}
+				// First fifteen riders finish a minute apart, filling every scoring rank
+				for (int i = 1; i < riders.length; i++) {
+					portal.registerRiderResultsInStage(stageId, riders[i], LocalTime.of(1, 0), LocalTime.of(2, i));
+				}
+				assertEquals(2, portal.getRidersPointsInStage(stageId)[14]);
+
+				portal.registerRiderResultsInStage(stageId, riders[0], LocalTime.of(1, 0), LocalTime.of(2, 0));
+				int[] points = portal.getRidersPointsInStage(stageId);
+				assertEquals(50, points[0]);
+				assertEquals(0, points[15]);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void removedSprintScorerIsReplacedByTheNextRider(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				final int[] flatPoints = { 50, 30, 20, 18, 16, 14, 12, 10, 8, 7, 6, 5, 4, 3, 2 };
+				final int[] sprintPoints = { 20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
+				int teamId = portal.createTeam("SprintTeam", null);
+				int raceId = portal.createRace("SprintRace", null);
+				int stageId = portal.addStageToRace(raceId, "SprintStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				portal.addIntermediateSprintToStage(stageId, 5.0);
+				portal.concludeStagePreparation(stageId);
+				// More riders than score at the sprint, which is crossed in the opposite order to the finish
+				int[] riders = new int[20];
+				for (int i = 0; i < riders.length; i++) {
+					riders[i] = portal.createRider(teamId, "Sprinter" + i, 1999);
+					portal.registerRiderResultsInStage(stageId, riders[i], LocalTime.of(1, 0),
+							LocalTime.of(1, 30).minusMinutes(i), LocalTime.of(2, i));
+				}
+
+				// Second at the sprint goes, so the sixteenth moves into the scoring ranks. The sprint
+				// winner was registered last, so its result is moved into the freed place, and a
+				// rider registered afterwards reuses the place it was moved from
+				portal.removeRider(riders[18]);
+				int lateId = portal.createRider(teamId, "LateSprinter", 1999);
+				portal.registerRiderResultsInStage(stageId, lateId, LocalTime.of(1, 0), LocalTime.of(1, 31),
+						LocalTime.of(2, 30));
+				int[] points = portal.getRidersPointsInStage(stageId);
+				assertEquals(flatPoints[4] + 1, points[4]);
+				assertArrayEquals(expectedSprintStagePoints(19, flatPoints, sprintPoints), points);
+
+				// Deleting the sprint winner's results moves the next rider in too
+				portal.deleteRiderResultsInStage(stageId, riders[19]);
+				points = portal.getRidersPointsInStage(stageId);
+				assertEquals(flatPoints[3] + 1, points[3]);
+				assertArrayEquals(expectedSprintStagePoints(18, flatPoints, sprintPoints), points);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		/** Gets the stage points of the sprint test, where the riders left finish in the order
+		 *  they were created and cross the sprint the other way, followed by the late rider
+		 *  who is last at both and scores nothing
+		 */
+		private int[] expectedSprintStagePoints(int riders, int[] flatPoints, int[] sprintPoints) {
+			int[] expected = new int[riders + 1];
+			for (int i = 0; i < riders; i++) {
+				int sprintRank = riders - 1 - i;
+				expected[i] = (i < flatPoints.length ? flatPoints[i] : 0)
+						+ (sprintRank < sprintPoints.length ? sprintPoints[sprintRank] : 0);
+			}
+			return expected;
+		}
+
+		@ParameterizedTest
+		@EnumSource(ResultStorageMode.class)
+		public void pointsClassificationBreaksTiesByGeneralClassification(ResultStorageMode mode) {
+			try {
+				portal.setResultStorageMode(mode);
+				int teamId = portal.createTeam("TieTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int raceId = portal.createRace("TieRace", null);
+				int stage1Id = portal.addStageToRace(raceId, "TieStage1", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				int stage2Id = portal.addStageToRace(raceId, "TieStage2", null, 10, LocalDateTime.now().plusDays(1),
+						StageType.FLAT);
+				portal.concludeStagePreparation(stage1Id);
+				portal.concludeStagePreparation(stage2Id);
+				// Each rider wins one stage, rider 2 by more time
+				portal.registerRiderResultsInStage(stage1Id, rider1Id, LocalTime.of(1, 0), LocalTime.of(2, 0));
+				portal.registerRiderResultsInStage(stage1Id, rider2Id, LocalTime.of(1, 0), LocalTime.of(2, 1));
+				portal.registerRiderResultsInStage(stage2Id, rider2Id, LocalTime.of(1, 0), LocalTime.of(2, 0));
+				portal.registerRiderResultsInStage(stage2Id, rider1Id, LocalTime.of(1, 0), LocalTime.of(2, 5));
+
+				int[] expected = { rider2Id, rider1Id };
+				assertArrayEquals(expected, portal.getRidersPointClassificationRank(raceId));
+				assertArrayEquals(expected, portal.getRidersPointClassificationRank(raceId));
+				assertArrayEquals(new int[] { 80, 80 }, portal.getRidersPointsInRace(raceId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+	}
+
+	@Nested
+	class TimeTests {
+		@Test
+		public void generalClassificationDoesNotWrapAfterADay() {
+			try {
+				int teamId = portal.createTeam("TimeTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int raceId = portal.createRace("LongRace", null);
+				int stage1Id = portal.addStageToRace(raceId, "LongStage1", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				int stage2Id = portal.addStageToRace(raceId, "LongStage2", null, 10, LocalDateTime.now().plusDays(1),
+						StageType.FLAT);
+				portal.concludeStagePreparation(stage1Id);
+				portal.concludeStagePreparation(stage2Id);
+				portal.registerRiderResultsInStage(stage1Id, rider1Id, LocalTime.of(0, 0), LocalTime.of(12, 0));
+				portal.registerRiderResultsInStage(stage1Id, rider2Id, LocalTime.of(0, 0), LocalTime.of(12, 30));
+				portal.registerRiderResultsInStage(stage2Id, rider1Id, LocalTime.of(0, 0), LocalTime.of(11, 0));
+				portal.registerRiderResultsInStage(stage2Id, rider2Id, LocalTime.of(0, 0), LocalTime.of(12, 0));
+
+				assertArrayEquals(new int[] { rider1Id, rider2Id }, portal.getRidersGeneralClassificationRank(raceId));
+				assertArrayEquals(new Duration[] { Duration.ofHours(23), Duration.ofMinutes(24 * 60 + 30) },
+						portal.getGeneralClassificationDurationsInRace(raceId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+	}
+
+	@Nested
+	class BatchTests {
+		@Test
+		public void batchRegistersValidRowsAndReportsOthers() {
+			try {
+				int teamId = portal.createTeam("BatchTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int rider3Id = portal.createRider(teamId, "Charlie", 1999);
+				int raceId = portal.createRace("BatchRace", null);
+				int stageId = portal.addStageToRace(raceId, "BatchStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				portal.concludeStagePreparation(stageId);
+				portal.registerRiderResultsInStage(stageId, rider3Id, LocalTime.of(1, 0), LocalTime.of(2, 0, 30));
+
+				BatchRegistrationReport report = portal.registerRiderResultsInStageBatch(stageId,
+						new int[] { rider2Id, rider1Id, -1, rider3Id, rider1Id },
+						new LocalTime[][] {
+								{ LocalTime.of(1, 0), LocalTime.of(2, 0, 0, 500_000_000) },
+								{ LocalTime.of(1, 0), LocalTime.of(2, 0) },
+								{ LocalTime.of(1, 0), LocalTime.of(2, 0) },
+								{ LocalTime.of(1, 0), LocalTime.of(2, 0) },
+								{ LocalTime.of(1, 0) } });
+
+				assertEquals(2, report.getRegistered());
+				assertArrayEquals(new int[] { 2, 3, 4 }, report.getFailedRows());
+				assertInstanceOf(IDNotRecognisedException.class, report.getFailure(2));
+				assertInstanceOf(DuplicatedResultException.class, report.getFailure(3));
+				assertInstanceOf(InvalidCheckpointsException.class, report.getFailure(4));
+				assertArrayEquals(new int[] { rider1Id, rider2Id, rider3Id }, portal.getRidersRankInStage(stageId));
+				assertEquals(LocalTime.of(1, 0), portal.getRiderAdjustedElapsedTimeInStage(stageId, rider2Id));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+	}
+
+	@Nested
+	class CacheTests {
+		@Test
+		public void cachedClassificationIsServedUntilRaceChanges() {
+			try {
+				int teamId = portal.createTeam("CacheTeam", null);
+				int rider1Id = portal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = portal.createRider(teamId, "Bart", 1999);
+				int raceId = portal.createRace("CacheRace", null);
+				int otherRaceId = portal.createRace("OtherRace", null);
+				int stageId = portal.addStageToRace(raceId, "CacheStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				portal.concludeStagePreparation(stageId);
+				portal.registerRiderResultsInStage(stageId, rider1Id, LocalTime.of(1, 0), LocalTime.of(2, 0));
+				portal.registerRiderResultsInStage(stageId, rider2Id, LocalTime.of(1, 0), LocalTime.of(2, 5));
+
+				assertArrayEquals(new int[] { rider1Id, rider2Id }, portal.getRidersGeneralClassificationRank(raceId));
+				portal.getRidersGeneralClassificationRank(raceId)[0] = -1;
+				assertArrayEquals(new int[] { rider1Id, rider2Id }, portal.getRidersGeneralClassificationRank(raceId));
+				assertEquals(1, portal.getClassificationCacheMisses());
+				assertEquals(2, portal.getClassificationCacheHits());
+
+				// Deleting a result changes the race, so the classification is worked out again
+				portal.deleteRiderResultsInStage(stageId, rider1Id);
+				assertArrayEquals(new int[] { rider2Id }, portal.getRidersGeneralClassificationRank(raceId));
+				assertEquals(2, portal.getClassificationCacheMisses());
+
+				// With room for one entry, reading another race evicts the first
+				portal.setClassificationCacheCapacity(1);
+				portal.getRidersGeneralClassificationRank(otherRaceId);
+				portal.getRidersGeneralClassificationRank(raceId);
+				assertEquals(4, portal.getClassificationCacheMisses());
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+	}
+
+	@Nested
+	class IdTests {
+		@Test
+		public void portalsAllocateIdsIndependently() {
+			try {
+				CyclingPortal otherPortal = new CyclingPortal();
+				int firstTeam = portal.createTeam("IdTeam", null);
+				int otherTeam = otherPortal.createTeam("IdTeam", null);
+				assertEquals(firstTeam, otherTeam);
+				int rider = portal.createRider(firstTeam, "Andrew", 1999);
+
+				// Erasing one portal does not restart the IDs of the other
+				otherPortal.eraseCyclingPortal();
+				assertEquals(rider + 1, portal.createRider(firstTeam, "Bart", 1999));
+				assertEquals(1, otherPortal.createTeam("IdTeam", null));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void reservedBlocksGiveUniqueIds() {
+			try {
+				ConcurrentCyclingPortal concurrentPortal = new ConcurrentCyclingPortal();
+				concurrentPortal.setIdBlockSize(8);
+				int teamId = concurrentPortal.createTeam("BlockTeam", null);
+				int[][] created = new int[4][50];
+				Thread[] threads = new Thread[created.length];
+				for (int t = 0; t < threads.length; t++) {
+					int[] ids = created[t];
+					threads[t] = new Thread(() -> {
+						try {
+							for (int i = 0; i < ids.length; i++) {
+								ids[i] = concurrentPortal.createRider(teamId, "Rider", 1999);
+							}
+						} catch (Exception e) {
+							fail(e);
+						}
+					});
+					threads[t].start();
+				}
+				for (Thread thread : threads) {
+					thread.join();
+				}
+				int[] allIds = Arrays.stream(created).flatMapToInt(Arrays::stream).sorted().toArray();
+				assertEquals(200, IntStream.of(allIds).distinct().count());
+				int[] teamRiders = concurrentPortal.getTeamRiders(teamId);
+				Arrays.sort(teamRiders);
+				assertArrayEquals(allIds, teamRiders);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+	}
+
+	@Nested
+	class ConcurrencyTests {
+		@Test
+		public void concurrentWritesAndReadsMatchSequentialResults() {
+			try {
+				ConcurrentCyclingPortal concurrentPortal = new ConcurrentCyclingPortal();
+				final int races = 4;
+				final int stages = 3;
+				final int riders = 200;
+				int teamId = concurrentPortal.createTeam("StressTeam", null);
+				int[] riderIds = new int[riders];
+				for (int i = 0; i < riders; i++) {
+					riderIds[i] = concurrentPortal.createRider(teamId, "Rider" + i, 1999);
+				}
+				int[] raceIds = new int[races];
+				int[][] stageIds = new int[races][stages];
+				for (int r = 0; r < races; r++) {
+					raceIds[r] = concurrentPortal.createRace("StressRace" + r, null);
+					for (int s = 0; s < stages; s++) {
+						stageIds[r][s] = concurrentPortal.addStageToRace(raceIds[r], "StressStage" + r + "x" + s, null,
+								10, LocalDateTime.now().plusDays(s), StageType.FLAT);
+						concurrentPortal.concludeStagePreparation(stageIds[r][s]);
+					}
+				}
+
+				// Two writers share each race, each registering half of the riders
+				ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+				CountDownLatch start = new CountDownLatch(1);
+				CountDownLatch writersDone = new CountDownLatch(races * 2);
+				Thread[] threads = new Thread[races * 2 + 3];
+				for (int w = 0; w < races * 2; w++) {
+					int race = w / 2;
+					int half = w % 2;
+					threads[w] = new Thread(() -> {
+						try {
+							start.await();
+							for (int i = half; i < riders; i += 2) {
+								for (int s = 0; s < stages; s++) {
+									concurrentPortal.registerRiderResultsInStage(stageIds[race][s], riderIds[i],
+											LocalTime.of(1, 0), stressFinish(i, s));
+								}
+							}
+						} catch (Throwable e) {
+							failures.add(e);
+						} finally {
+							writersDone.countDown();
+						}
+					});
+				}
+				// Readers check every classification they see is well formed
+				for (int reader = 0; reader < 2; reader++) {
+					threads[races * 2 + reader] = new Thread(() -> {
+						try {
+							start.await();
+							for (int n = 0; writersDone.getCount() > 0; n++) {
+								int[] ranks = concurrentPortal.getRidersGeneralClassificationRank(raceIds[n % races]);
+								assertEquals(ranks.length, IntStream.of(ranks).distinct().count());
+								concurrentPortal.getRidersPointClassificationRank(raceIds[n % races]);
+							}
+						} catch (Throwable e) {
+							failures.add(e);
+						}
+					});
+				}
+				// Races are created and removed while the others are being written to
+				threads[races * 2 + 2] = new Thread(() -> {
+					try {
+						start.await();
+						for (int n = 0; writersDone.getCount() > 0; n++) {
+							int raceId = concurrentPortal.createRace("ChurnRace" + n, null);
+							concurrentPortal.removeRaceById(raceId);
+						}
+					} catch (Throwable e) {
+						failures.add(e);
+					}
+				});
+				for (Thread thread : threads) {
+					thread.start();
+				}
+				start.countDown();
+				for (Thread thread : threads) {
+					thread.join(30_000);
+					assertFalse(thread.isAlive(), "Thread did not finish");
+				}
+				assertTrue(failures.isEmpty(), () -> "Thread failed: " + failures.peek());
+
+				// Finish times are over a second apart, so totals are just the sums of the times
+				Integer[] expected = new Integer[riders];
+				for (int i = 0; i < riders; i++) {
+					expected[i] = i;
+				}
+				Arrays.sort(expected, Comparator.comparingLong(i -> {
+					long total = 0;
+					for (int s = 0; s < stages; s++) {
+						total += stressFinish(i, s).toNanoOfDay();
+					}
+					return total;
+				}));
+				int[] expectedRanks = Arrays.stream(expected).mapToInt(i -> riderIds[i]).toArray();
+				for (int r = 0; r < races; r++) {
+					assertArrayEquals(expectedRanks, concurrentPortal.getRidersGeneralClassificationRank(raceIds[r]));
+					for (int s = 0; s < stages; s++) {
+						assertEquals(riders, concurrentPortal.getRidersRankInStage(stageIds[r][s]).length);
+					}
+				}
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void publishedReadsFollowWritesAndRemovals() {
+			try {
+				ConcurrentCyclingPortal concurrentPortal = new ConcurrentCyclingPortal();
+				int teamId = concurrentPortal.createTeam("ReadTeam", null);
+				int rider1Id = concurrentPortal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = concurrentPortal.createRider(teamId, "Bart", 1999);
+				int raceId = concurrentPortal.createRace("ReadRace", null);
+				int stageId = concurrentPortal.addStageToRace(raceId, "ReadStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				concurrentPortal.concludeStagePreparation(stageId);
+				concurrentPortal.registerRiderResultsInStage(stageId, rider1Id, LocalTime.of(1, 0), LocalTime.of(2, 0));
+				concurrentPortal.registerRiderResultsInStage(stageId, rider2Id, LocalTime.of(1, 0), LocalTime.of(2, 5));
+				assertArrayEquals(new int[] { rider1Id, rider2Id }, concurrentPortal.getRidersRankInStage(stageId));
+				assertArrayEquals(new int[] { stageId }, concurrentPortal.getRaceStages(raceId));
+
+				// Answers published by the reads above must not be served once they are out of date
+				concurrentPortal.deleteRiderResultsInStage(stageId, rider1Id);
+				assertArrayEquals(new int[] { rider2Id }, concurrentPortal.getRidersRankInStage(stageId));
+				assertArrayEquals(new int[] { rider2Id }, concurrentPortal.getRidersGeneralClassificationRank(raceId));
+				concurrentPortal.removeStageById(stageId);
+				assertEquals(0, concurrentPortal.getRaceStages(raceId).length);
+				assertThrows(IDNotRecognisedException.class, () -> concurrentPortal.getRidersRankInStage(stageId));
+				assertEquals(0, concurrentPortal.getRidersGeneralClassificationRank(raceId).length);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void snapshotsMatchPortalAndDoNotChange() {
+			try {
+				ConcurrentCyclingPortal concurrentPortal = new ConcurrentCyclingPortal();
+				concurrentPortal.setSnapshotPublishing(true);
+				int teamId = concurrentPortal.createTeam("SnapTeam", null);
+				int rider1Id = concurrentPortal.createRider(teamId, "Andrew", 1999);
+				int rider2Id = concurrentPortal.createRider(teamId, "Bart", 1999);
+				int raceId = concurrentPortal.createRace("SnapRace", null);
+				int stageId = concurrentPortal.addStageToRace(raceId, "SnapStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				int sprintId = concurrentPortal.addIntermediateSprintToStage(stageId, 5);
+				concurrentPortal.concludeStagePreparation(stageId);
+				concurrentPortal.registerRiderResultsInStage(stageId, rider1Id, LocalTime.of(1, 0), LocalTime.of(1, 30),
+						LocalTime.of(2, 0));
+				PortalSnapshot first = concurrentPortal.getSnapshot();
+
+				concurrentPortal.registerRiderResultsInStage(stageId, rider2Id, LocalTime.of(1, 0), LocalTime.of(1, 20),
+						LocalTime.of(1, 50));
+				PortalSnapshot second = concurrentPortal.getSnapshot();
+				assertArrayEquals(new int[] { rider1Id }, first.getRidersGeneralClassificationRank(raceId));
+				assertArrayEquals(concurrentPortal.getRidersGeneralClassificationRank(raceId),
+						second.getRidersGeneralClassificationRank(raceId));
+				assertArrayEquals(concurrentPortal.getRidersPointsInRace(raceId), second.getRidersPointsInRace(raceId));
+				assertArrayEquals(concurrentPortal.getRiderResultsInStage(stageId, rider2Id),
+						second.getRiderResultsInStage(stageId, rider2Id));
+				assertArrayEquals(new int[] { sprintId }, second.getStageSegments(stageId));
+				assertEquals(concurrentPortal.viewRaceDetails(raceId), second.viewRaceDetails(raceId));
+
+				// Without publishing after each write, only an explicit publish is seen
+				concurrentPortal.setSnapshotPublishing(false);
+				concurrentPortal.deleteRiderResultsInStage(stageId, rider2Id);
+				assertEquals(2, concurrentPortal.getSnapshot().getRidersRankInStage(stageId).length);
+				concurrentPortal.publishSnapshot();
+				assertArrayEquals(new int[] { rider1Id }, concurrentPortal.getSnapshot().getRidersRankInStage(stageId));
+				assertThrows(IDNotRecognisedException.class, () -> second.getRidersRankInStage(stageId + 1));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void snapshotsKeepFollowingResultsAfterWritesThatChangeNoRegistry(@TempDir Path dir) {
+			try {
+				ConcurrentCyclingPortal concurrentPortal = new ConcurrentCyclingPortal();
+				concurrentPortal.setSnapshotPublishing(true);
+				int teamId = concurrentPortal.createTeam("FollowTeam", null);
+				int[] riderIds = new int[6];
+				for (int i = 0; i < riderIds.length; i++) {
+					riderIds[i] = concurrentPortal.createRider(teamId, "Rider" + i, 1999);
+				}
+				int raceId = concurrentPortal.createRace("FollowRace", null);
+				int stageId = concurrentPortal.addStageToRace(raceId, "FollowStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				concurrentPortal.concludeStagePreparation(stageId);
+				concurrentPortal.registerRiderResultsInStage(stageId, riderIds[0], LocalTime.of(1, 0),
+						LocalTime.of(2, 0));
+
+				// Each of these takes the registries exclusively without changing them
+				Runnable[] writes = {
+					() -> assertThrows(IllegalNameException.class, () -> concurrentPortal.createTeam("FollowTeam", null)),
+					() -> assertThrows(IDNotRecognisedException.class, () -> concurrentPortal.removeRaceById(-1)),
+					() -> assertDoesNotThrow(() -> concurrentPortal.saveCyclingPortal(dir.resolve("follow").toString())),
+					() -> concurrentPortal.setParallelAggregation(true, 1),
+					() -> concurrentPortal.setResultStorageMode(ResultStorageMode.COLUMNAR),
+				};
+				for (int i = 0; i < writes.length; i++) {
+					writes[i].run();
+					concurrentPortal.registerRiderResultsInStage(stageId, riderIds[i + 1], LocalTime.of(1, 0),
+							LocalTime.of(2, i + 1));
+					PortalSnapshot snapshot = concurrentPortal.getSnapshot();
+					assertArrayEquals(concurrentPortal.getRidersRankInStage(stageId), snapshot.getRidersRankInStage(stageId),
+							"Snapshot missed a result after write " + i);
+					assertArrayEquals(concurrentPortal.getRidersGeneralClassificationRank(raceId),
+							snapshot.getRidersGeneralClassificationRank(raceId));
+				}
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void snapshotsAfterAnEraseDoNotReuseRacesWithTheSameID() {
+			try {
+				ConcurrentCyclingPortal concurrentPortal = new ConcurrentCyclingPortal();
+				int oldRaceId = concurrentPortal.createRace("OldRace", null);
+				concurrentPortal.publishSnapshot();
+
+				// IDs start again after an erase, so the new race is given the old one's ID
+				concurrentPortal.eraseCyclingPortal();
+				int newRaceId = concurrentPortal.createRace("NewRace", null);
+				assertEquals(oldRaceId, newRaceId);
+				concurrentPortal.publishSnapshot();
+				assertEquals(concurrentPortal.viewRaceDetails(newRaceId),
+						concurrentPortal.getSnapshot().viewRaceDetails(newRaceId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void raceCommandsRunInOrderOnTheirRace() {
+			try (RaceCommandExecutor executor = new RaceCommandExecutor(new ConcurrentCyclingPortal())) {
+				ConcurrentCyclingPortal concurrentPortal = executor.getPortal();
+				final int races = 3;
+				final int riders = 50;
+				int teamId = concurrentPortal.createTeam("QueueTeam", null);
+				int[] riderIds = new int[riders];
+				for (int i = 0; i < riders; i++) {
+					riderIds[i] = concurrentPortal.createRider(teamId, "Rider" + i, 1999);
+				}
+				int[] raceIds = new int[races];
+				int[] stageIds = new int[races];
+				for (int r = 0; r < races; r++) {
+					raceIds[r] = concurrentPortal.createRace("QueueRace" + r, null);
+					stageIds[r] = executor.addStageToRace(raceIds[r], "QueueStage" + r, null, 10, LocalDateTime.now(),
+							StageType.FLAT).join();
+					executor.concludeStagePreparation(stageIds[r]);
+				}
+
+				// Nothing is waited on, each query must still see the commands queued before it
+				CompletableFuture<?>[] ranks = new CompletableFuture<?>[races];
+				for (int r = 0; r < races; r++) {
+					for (int i = 0; i < riders; i++) {
+						executor.registerRiderResultsInStage(stageIds[r], riderIds[i], LocalTime.of(1, 0),
+								stressFinish(i, r));
+					}
+					executor.deleteRiderResultsInStage(stageIds[r], riderIds[0]);
+					ranks[r] = executor.getRidersGeneralClassificationRank(raceIds[r]);
+				}
+				for (int r = 0; r < races; r++) {
+					int[] queued = (int[]) ranks[r].join();
+					assertEquals(riders - 1, queued.length);
+					assertArrayEquals(concurrentPortal.getRidersRankInStage(stageIds[r]), queued);
+				}
+
+				// Exceptions thrown by commands complete their futures
+				CompletableFuture<Void> duplicate = executor.registerRiderResultsInStage(stageIds[0], riderIds[1],
+						LocalTime.of(1, 0), LocalTime.of(2, 0));
+				ExecutionException thrown = assertThrows(ExecutionException.class, duplicate::get);
+				assertInstanceOf(DuplicatedResultException.class, thrown.getCause());
+				thrown = assertThrows(ExecutionException.class, () -> executor.getRidersRankInStage(-1).get());
+				assertInstanceOf(IDNotRecognisedException.class, thrown.getCause());
+
+				executor.removeRaceById(raceIds[0]).join();
+				thrown = assertThrows(ExecutionException.class,
+						() -> executor.getRidersGeneralClassificationRank(raceIds[0]).get());
+				assertInstanceOf(IDNotRecognisedException.class, thrown.getCause());
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void asyncPortalKeepsRaceOrderAndCompletesWithExceptions() {
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			try (AsyncCyclingPortal asyncPortal = new AsyncCyclingPortal(new ConcurrentCyclingPortal(), pool)) {
+				final int races = 3;
+				final int riders = 50;
+				int teamId = asyncPortal.createTeam("AsyncTeam", null).get();
+				int[] riderIds = new int[riders];
+				for (int i = 0; i < riders; i++) {
+					riderIds[i] = asyncPortal.createRider(teamId, "Rider" + i, 1999).get();
+				}
+				int[] stageIds = new int[races];
+				CompletableFuture<?>[] ranks = new CompletableFuture<?>[races];
+				for (int r = 0; r < races; r++) {
+					int raceId = asyncPortal.createRace("AsyncRace" + r, null).get();
+					stageIds[r] = asyncPortal.addStageToRace(raceId, "AsyncStage" + r, null, 10, LocalDateTime.now(),
+							StageType.FLAT).get();
+					// Nothing below is waited on, the pool may run the races in any order but
+					// each race must see its own operations in the order they were called
+					asyncPortal.concludeStagePreparation(stageIds[r]);
+					for (int i = 0; i < riders; i++) {
+						asyncPortal.registerRiderResultsInStage(stageIds[r], riderIds[i], LocalTime.of(1, 0),
+								stressFinish(i, r));
+					}
+					asyncPortal.deleteRiderResultsInStage(stageIds[r], riderIds[0]);
+					ranks[r] = asyncPortal.getRidersGeneralClassificationRank(raceId);
+				}
+				for (int r = 0; r < races; r++) {
+					int[] queued = (int[]) ranks[r].get();
+					assertEquals(riders - 1, queued.length);
+					assertArrayEquals(asyncPortal.getRidersRankInStage(stageIds[r]).get(), queued);
+				}
+
+				// Checked exceptions are the causes of the failed futures
+				ExecutionException thrown = assertThrows(ExecutionException.class,
+						() -> asyncPortal.registerRiderResultsInStage(stageIds[0], riderIds[1], LocalTime.of(1, 0),
+								LocalTime.of(2, 0)).get());
+				assertInstanceOf(DuplicatedResultException.class, thrown.getCause());
+				thrown = assertThrows(ExecutionException.class, () -> asyncPortal.getStageLength(-1).get());
+				assertInstanceOf(IDNotRecognisedException.class, thrown.getCause());
+				thrown = assertThrows(ExecutionException.class, () -> asyncPortal.createTeam(null, null).get());
+				assertInstanceOf(InvalidNameException.class, thrown.getCause());
+			} catch (Exception e) {
+				fail(e);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void raceCommandsShareOneThreadAndFollowStructuralWrites() {
+			ExecutorService pool = Executors.newSingleThreadExecutor();
+			try (RaceCommandExecutor executor = new RaceCommandExecutor(new ConcurrentCyclingPortal(), pool)) {
+				ConcurrentCyclingPortal concurrentPortal = executor.getPortal();
+				final int races = 20;
+				int teamId = concurrentPortal.createTeam("SharedTeam", null);
+				int riderId = concurrentPortal.createRider(teamId, "Andrew", 1999);
+				int[] stageIds = new int[races];
+				CompletableFuture<?>[] registered = new CompletableFuture<?>[races];
+				// Every race queue runs on the one thread of the pool
+				for (int r = 0; r < races; r++) {
+					int raceId = concurrentPortal.createRace("SharedRace" + r, null);
+					stageIds[r] = concurrentPortal.addStageToRace(raceId, "SharedStage" + r, null, 10,
+							LocalDateTime.now(), StageType.FLAT);
+					concurrentPortal.concludeStagePreparation(stageIds[r]);
+					registered[r] = executor.registerRiderResultsInStage(stageIds[r], riderId, LocalTime.of(1, 0),
+							LocalTime.of(2, 0));
+				}
+				CompletableFuture.allOf(registered).get(10, TimeUnit.SECONDS);
+
+				// Removed stages are no longer routed, so the command fails without being queued
+				concurrentPortal.removeStageById(stageIds[0]);
+				CompletableFuture<int[]> removed = executor.getRidersRankInStage(stageIds[0]);
+				assertTrue(removed.isCompletedExceptionally());
+
+				// Stage IDs start again after an erase, and the new stage is in the second race
+				concurrentPortal.eraseCyclingPortal();
+				ManualExecutor manual = new ManualExecutor();
+				try (RaceCommandExecutor reused = new RaceCommandExecutor(concurrentPortal, manual)) {
+					teamId = concurrentPortal.createTeam("SharedTeam", null);
+					riderId = concurrentPortal.createRider(teamId, "Andrew", 1999);
+					concurrentPortal.createRace("FirstRace", null);
+					int secondRaceId = concurrentPortal.createRace("SecondRace", null);
+					int stageId = concurrentPortal.addStageToRace(secondRaceId, "ReusedStage", null, 10,
+							LocalDateTime.now(), StageType.FLAT);
+					assertEquals(stageIds[0], stageId);
+					concurrentPortal.concludeStagePreparation(stageId);
+					reused.registerRiderResultsInStage(stageId, riderId, LocalTime.of(1, 0), LocalTime.of(2, 0));
+					CompletableFuture<int[]> ranks = reused.getRidersGeneralClassificationRank(secondRaceId);
+					manual.runAll();
+					assertArrayEquals(new int[] { riderId }, ranks.get());
+				}
+			} catch (Exception e) {
+				fail(e);
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		@Test
+		public void asyncRemovalByNameRunsAfterOperationsAlreadyCalledOnTheRace() {
+			ManualExecutor manual = new ManualExecutor();
+			try (AsyncCyclingPortal asyncPortal = new AsyncCyclingPortal(new ConcurrentCyclingPortal(), manual)) {
+				ConcurrentCyclingPortal concurrentPortal = asyncPortal.getPortal();
+				int teamId = concurrentPortal.createTeam("NameTeam", null);
+				int riderId = concurrentPortal.createRider(teamId, "Andrew", 1999);
+				int raceId = concurrentPortal.createRace("NameRace", null);
+				int stageId = concurrentPortal.addStageToRace(raceId, "NameStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				concurrentPortal.concludeStagePreparation(stageId);
+
+				// Executor runs the newest task first, only the race queue keeps these in order
+				CompletableFuture<Void> registered = asyncPortal.registerRiderResultsInStage(stageId, riderId,
+						LocalTime.of(1, 0), LocalTime.of(2, 0));
+				CompletableFuture<int[]> ranks = asyncPortal.getRidersGeneralClassificationRank(raceId);
+				CompletableFuture<Void> removed = asyncPortal.removeRaceByName("NameRace");
+				manual.runAll();
+				registered.get();
+				assertArrayEquals(new int[] { riderId }, ranks.get());
+				removed.get();
+				assertEquals(0, concurrentPortal.getRaceIds().length);
+
+				ExecutionException thrown = assertThrows(ExecutionException.class,
+						() -> asyncPortal.removeRaceByName("NameRace").get());
+				assertInstanceOf(NameNotRecognisedException.class, thrown.getCause());
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void asyncStagesAreRoutedToTheirNewRaceAfterAnErase() {
+			ManualExecutor manual = new ManualExecutor();
+			try (AsyncCyclingPortal asyncPortal = new AsyncCyclingPortal(new ConcurrentCyclingPortal(), manual)) {
+				ConcurrentCyclingPortal concurrentPortal = asyncPortal.getPortal();
+				int raceId = concurrentPortal.createRace("OldRace", null);
+				int oldStageId = concurrentPortal.addStageToRace(raceId, "OldStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				CompletableFuture<Double> length = asyncPortal.getStageLength(oldStageId);
+				manual.runAll();
+				assertEquals(10, length.get());
+
+				// Erased straight on the portal, the async portal must not keep routing the old stage
+				concurrentPortal.eraseCyclingPortal();
+				int teamId = concurrentPortal.createTeam("NewTeam", null);
+				int riderId = concurrentPortal.createRider(teamId, "Andrew", 1999);
+				concurrentPortal.createRace("FirstRace", null);
+				int secondRaceId = concurrentPortal.createRace("SecondRace", null);
+				int stageId = concurrentPortal.addStageToRace(secondRaceId, "NewStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				assertEquals(oldStageId, stageId);
+				concurrentPortal.concludeStagePreparation(stageId);
+
+				CompletableFuture<Void> registered = asyncPortal.registerRiderResultsInStage(stageId, riderId,
+						LocalTime.of(1, 0), LocalTime.of(2, 0));
+				CompletableFuture<int[]> ranks = asyncPortal.getRidersGeneralClassificationRank(secondRaceId);
+				manual.runAll();
+				registered.get();
+				assertArrayEquals(new int[] { riderId }, ranks.get());
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void asyncRiderAndTeamRemovalsKeepTheOrderOfRaceOperations() {
+			ManualExecutor manual = new ManualExecutor();
+			try (AsyncCyclingPortal asyncPortal = new AsyncCyclingPortal(new ConcurrentCyclingPortal(), manual)) {
+				ConcurrentCyclingPortal concurrentPortal = asyncPortal.getPortal();
+				int teamId = concurrentPortal.createTeam("OrderTeam", null);
+				int otherTeamId = concurrentPortal.createTeam("OtherOrderTeam", null);
+				int riderId = concurrentPortal.createRider(teamId, "Andrew", 1999);
+				int otherRiderId = concurrentPortal.createRider(otherTeamId, "Bart", 1999);
+				int raceId = concurrentPortal.createRace("OrderRace", null);
+				concurrentPortal.createRace("UnusedRace", null);
+				int stageId = concurrentPortal.addStageToRace(raceId, "OrderStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				concurrentPortal.concludeStagePreparation(stageId);
+
+				// Executor runs the newest task first, so the removals would run before the race operations
+				CompletableFuture<Void> registered = asyncPortal.registerRiderResultsInStage(stageId, riderId,
+						LocalTime.of(1, 0), LocalTime.of(2, 0));
+				CompletableFuture<Void> otherRegistered = asyncPortal.registerRiderResultsInStage(stageId,
+						otherRiderId, LocalTime.of(1, 0), LocalTime.of(2, 5));
+				CompletableFuture<int[]> before = asyncPortal.getRidersGeneralClassificationRank(raceId);
+				CompletableFuture<Void> riderRemoved = asyncPortal.removeRider(riderId);
+				CompletableFuture<int[]> afterRider = asyncPortal.getRidersGeneralClassificationRank(raceId);
+				CompletableFuture<Void> teamRemoved = asyncPortal.removeTeam(otherTeamId);
+				CompletableFuture<int[]> afterTeam = asyncPortal.getRidersGeneralClassificationRank(raceId);
+				manual.runAll();
+				registered.get();
+				otherRegistered.get();
+				assertArrayEquals(new int[] { riderId, otherRiderId }, before.get());
+				riderRemoved.get();
+				assertArrayEquals(new int[] { otherRiderId }, afterRider.get());
+				teamRemoved.get();
+				assertArrayEquals(new int[0], afterTeam.get());
+
+				// Queues carry on after a removal that fails
+				ExecutionException thrown = assertThrows(ExecutionException.class, () -> {
+					CompletableFuture<Void> failed = asyncPortal.removeRider(riderId);
+					manual.runAll();
+					failed.get();
+				});
+				assertInstanceOf(IDNotRecognisedException.class, thrown.getCause());
+				CompletableFuture<Integer> stages = asyncPortal.getNumberOfStages(raceId);
+				manual.runAll();
+				assertEquals(1, stages.get());
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void asyncCallsOnUnknownRacesFailWithoutBeingQueued() {
+			ManualExecutor manual = new ManualExecutor();
+			try (AsyncCyclingPortal asyncPortal = new AsyncCyclingPortal(new ConcurrentCyclingPortal(), manual)) {
+				// Nothing is run, so a call only completes if it failed without being queued
+				CompletableFuture<int[]> unknown = asyncPortal.getRidersGeneralClassificationRank(42);
+				assertTrue(unknown.isCompletedExceptionally());
+				ExecutionException thrown = assertThrows(ExecutionException.class, unknown::get);
+				assertInstanceOf(IDNotRecognisedException.class, thrown.getCause());
+
+				int raceId = asyncPortal.getPortal().createRace("UnknownRace", null);
+				CompletableFuture<Void> removed = asyncPortal.removeRaceById(raceId);
+				manual.runAll();
+				removed.get();
+				assertTrue(asyncPortal.viewRaceDetails(raceId).isCompletedExceptionally());
+				assertTrue(asyncPortal.addStageToRace(raceId, "UnknownStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT).isCompletedExceptionally());
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		/** Executor that runs its tasks only when asked, newest first, so tasks that are not
+		 *  ordered by a queue run in the opposite order to the one they were given in
+		 */
+		private class ManualExecutor implements Executor {
+
+			private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+			@Override
+			public void execute(Runnable task) {
+				tasks.push(task);
+			}
+
+			public void runAll() {
+				while (!tasks.isEmpty()) {
+					tasks.pop().run();
+				}
+			}
+		}
+
+		/** Gets the finish time of a rider in a stage of the stress test, riders are at least
+		 *  a second apart and a rider's extra milliseconds stop totals from tying
+		 */
+		private LocalTime stressFinish(int rider, int stage) {
+			long seconds = (rider * 7L + stage * 61L) % 200 * 2;
+			return LocalTime.of(2, 0).plusSeconds(seconds).plusNanos(stage == 0 ? rider * 1_000_000L : 0);
+		}
+	}
+
+	@Nested
+	class SaveTests {
+
+		@TempDir
+		Path dir;
+
+		@Test
+		public void savedPortalLoadsWithTheSameContent() {
+			try {
+				fillPortal(portal);
+				String filename = dir.resolve("season").toString();
+				portal.saveCyclingPortal(filename);
+				// Binary format has its own extension, .ser was used for serialised files
+				assertTrue(Files.exists(dir.resolve("season.cycp")));
+				assertFalse(Files.exists(dir.resolve("season.ser")));
+				CyclingPortal loaded = new CyclingPortal();
+				loaded.loadCyclingPortal(filename);
+				assertSameContent(portal, loaded);
+				// Stages are held in order of their start, only the last is still being prepared
+				int[] stageIds = loaded.getRaceStages(loaded.getRaceIds()[0]);
+				assertThrows(InvalidStageStateException.class, () -> loaded.concludeStagePreparation(stageIds[0]));
+				loaded.concludeStagePreparation(stageIds[3]);
+				// IDs carry on from where the saved portal was
+				assertEquals(portal.createTeam("NextTeam", null), loaded.createTeam("NextTeam", null));
+				assertEquals(portal.createRace("NextRace", null), loaded.createRace("NextRace", null));
+
+				Files.write(dir.resolve("bad.cycp"), new byte[] { 1, 2, 3, 4, 5, 6 });
+				assertThrows(IOException.class, () -> loaded.loadCyclingPortal(dir.resolve("bad").toString()));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void tiesKeepTheirOrderOnceLoaded() {
+			try {
+				int teamId = portal.createTeam("TieTeam", null);
+				int first = portal.createRider(teamId, "First", 1999);
+				int second = portal.createRider(teamId, "Second", 1999);
+				int raceId = portal.createRace("TieRace", null);
+				int stageId = portal.addStageToRace(raceId, "TieStage", null, 10, LocalDateTime.now(),
+						StageType.FLAT);
+				portal.addIntermediateSprintToStage(stageId, 5.0);
+				portal.concludeStagePreparation(stageId);
+				// Both reach the sprint together, the rider registered second finishes first
+				portal.registerRiderResultsInStage(stageId, first, LocalTime.of(1, 0), LocalTime.of(1, 30),
+						LocalTime.of(2, 10));
+				portal.registerRiderResultsInStage(stageId, second, LocalTime.of(1, 0), LocalTime.of(1, 30),
+						LocalTime.of(2, 0));
+				int[] points = portal.getRidersPointsInStage(stageId);
+
+				String filename = dir.resolve("ties").toString();
+				portal.saveCyclingPortal(filename);
+				CyclingPortal loaded = new CyclingPortal();
+				loaded.loadCyclingPortal(filename);
+				assertArrayEquals(new int[] { second, first }, loaded.getRidersRankInStage(stageId));
+				assertArrayEquals(points, loaded.getRidersPointsInStage(stageId));
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void binarySaveWithTheOldExtensionLoads() {
+			try {
+				fillPortal(portal);
+				// Binary saves were first written with the .ser extension
+				portal.saveCyclingPortal(dir.resolve("season").toString());
+				Files.move(dir.resolve("season.cycp"), dir.resolve("season.ser"));
+				CyclingPortal loaded = new CyclingPortal();
+				loaded.loadCyclingPortal(dir.resolve("season").toString());
+				assertSameContent(portal, loaded);
+
+				// Once saved again the new file is loaded in its place
+				loaded.createRace("NewRace", null);
+				loaded.saveCyclingPortal(dir.resolve("season").toString());
+				CyclingPortal reloaded = new CyclingPortal();
+				reloaded.loadCyclingPortal(dir.resolve("season").toString());
+				assertSameContent(loaded, reloaded);
+				assertEquals(portal.getRaceIds().length + 1, reloaded.getRaceIds().length);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void stageWithoutStartTimeOrTypeLoads() {
+			try {
+				int raceId = portal.createRace("UntimedRace", null);
+				int stageId = portal.addStageToRace(raceId, "UntimedStage", null, 50, null, null);
+				int sprintId = portal.addIntermediateSprintToStage(stageId, 20);
+				String filename = dir.resolve("untimed").toString();
+				portal.saveCyclingPortal(filename);
+				CyclingPortal loaded = new CyclingPortal();
+				loaded.loadCyclingPortal(filename);
+				assertEquals(portal.viewRaceDetails(raceId), loaded.viewRaceDetails(raceId));
+				assertArrayEquals(new int[] { sprintId }, loaded.getStageSegments(stageId));
+				assertNull(loaded.findStageWithID(stageId).getStartTime());
+				assertNull(loaded.findStageWithID(stageId).getType());
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		@Test
+		public void baselineSerialisedFileIsRejected() {
+			try {
+				// Saved with Java serialization by the first release, before the binary format
+				Path file = dir.resolve("baseline.ser");
+				// Read from the test classpath, so the test does not depend on the working directory
+				try (InputStream fixture = CyclingPortalTestApp.class.getResourceAsStream(
+						"/fixtures/baseline-portal.ser")) {
+					assertNotNull(fixture, "fixtures/baseline-portal.ser is not on the test classpath");
+					Files.copy(fixture, file);
+				}
+				portal.createRace("KeptRace", null);
+				IOException thrown = assertThrows(IOException.class,
+						() -> portal.loadCyclingPortal(dir.resolve("baseline").toString()));
+				assertTrue(thrown.getMessage().contains("Java serialization"));
+				// Portal is left as it was
+				assertEquals(1, portal.getRaceIds().length);
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		/** Fills a portal with two races, with stages of each type, segments, results
+		 *  and a stage still being prepared
+		 */
+		private void fillPortal(CyclingPortal p) throws Exception {
+			int teamId = p.createTeam("SaveTeam", "Saved team");
+			int otherTeamId = p.createTeam("OtherTeam", null);
+			int[] riderIds = new int[12];
+			for (int i = 0; i < riderIds.length; i++) {
+				riderIds[i] = p.createRider(i % 2 == 0 ? teamId : otherTeamId, "Rider" + i, 1980 + i);
+			}
+			p.removeRider(riderIds[3]);
+			int raceId = p.createRace("SaveRace", "Saved race");
+			p.createRace("EmptyRace", null);
+			LocalDateTime start = LocalDateTime.of(2023, 7, 1, 12, 0);
+			int flatId = p.addStageToRace(raceId, "SaveFlat", null, 180.5, start.plusDays(1), StageType.FLAT);
+			int mountainId = p.addStageToRace(raceId, "SaveMountain", "Climbs", 150, start, StageType.HIGH_MOUNTAIN);
+			int trialId = p.addStageToRace(raceId, "SaveTrial", null, 40, start.plusDays(2), StageType.TT);
+			p.addStageToRace(raceId, "SavePreparing", null, 90, start.plusDays(3), StageType.MEDIUM_MOUNTAIN);
+			p.addIntermediateSprintToStage(flatId, 60);
+			p.addCategorizedClimbToStage(mountainId, 120.0, SegmentType.HC, 8.5, 12.0);
+			p.addCategorizedClimbToStage(mountainId, 40.0, SegmentType.C2, 5.0, 4.5);
+			for (int stageId : new int[] { flatId, mountainId, trialId }) {
+				p.concludeStagePreparation(stageId);
+			}
+			for (int i = 0; i < riderIds.length; i++) {
+				if (i == 3) {
+					continue;
+				}
+				// Some riders finish within a second of each other so adjusted times differ
+				LocalTime finish = LocalTime.of(16, 0).plusNanos(i * 400_000_000L);
+				p.registerRiderResultsInStage(flatId, riderIds[i], LocalTime.of(12, 0), LocalTime.of(13, i), finish);
+				p.registerRiderResultsInStage(mountainId, riderIds[i], LocalTime.of(11, 0), LocalTime.of(12, 30 - i),
+						LocalTime.of(14, i), LocalTime.of(17, 0).minusMinutes(i));
+				if (i % 3 != 0) {
+					p.registerRiderResultsInStage(trialId, riderIds[i], LocalTime.of(23, 50),
+							LocalTime.of(0, 40).plusSeconds(i));
+				}
+			}
+		}
+
+		/** Checks two portals give the same answer to every query
+		 */
+		private void assertSameContent(CyclingPortal expected, CyclingPortal actual) throws Exception {
+			assertArrayEquals(expected.getTeams(), actual.getTeams());
+			for (int teamId : expected.getTeams()) {
+				assertArrayEquals(expected.getTeamRiders(teamId), actual.getTeamRiders(teamId));
+			}
+			assertArrayEquals(expected.getRaceIds(), actual.getRaceIds());
+			for (int raceId : expected.getRaceIds()) {
+				assertEquals(expected.viewRaceDetails(raceId), actual.viewRaceDetails(raceId));
+				assertArrayEquals(expected.getRaceStages(raceId), actual.getRaceStages(raceId));
+				for (int stageId : expected.getRaceStages(raceId)) {
+					assertEquals(expected.getStageLength(stageId), actual.getStageLength(stageId));
+					assertArrayEquals(expected.getStageSegments(stageId), actual.getStageSegments(stageId));
+					assertArrayEquals(expected.getRidersRankInStage(stageId), actual.getRidersRankInStage(stageId));
+					assertArrayEquals(expected.getRankedAdjustedElapsedTimesInStage(stageId),
+							actual.getRankedAdjustedElapsedTimesInStage(stageId));
+					assertArrayEquals(expected.getRidersPointsInStage(stageId), actual.getRidersPointsInStage(stageId));
+					assertArrayEquals(expected.getRidersMountainPointsInStage(stageId),
+							actual.getRidersMountainPointsInStage(stageId));
+					for (int riderId : expected.getRidersRankInStage(stageId)) {
+						assertArrayEquals(expected.getRiderResultsInStage(stageId, riderId),
+								actual.getRiderResultsInStage(stageId, riderId));
+					}
+				}
+				assertArrayEquals(expected.getRidersGeneralClassificationRank(raceId),
+						actual.getRidersGeneralClassificationRank(raceId));
+				assertArrayEquals(expected.getGeneralClassificationTimesInRace(raceId),
+						actual.getGeneralClassificationTimesInRace(raceId));
+				assertArrayEquals(expected.getRidersPointsInRace(raceId), actual.getRidersPointsInRace(raceId));
+				assertArrayEquals(expected.getRidersMountainPointsInRace(raceId),
+						actual.getRidersMountainPointsInRace(raceId));
+			}
+		}
+	}
+
 	@Nested
 	class MTests{
 		
@@ -316,6 +1614,33 @@ class CyclingPortalTestApp {
 			assertEquals(portal.getRaceIds().length,2);
 		}
 		
+		@Test
+		public void removeRaceByIdRemovesStages() {
+			try {
+				portal.removeRaceById(race1Id);
+			}catch (Exception e) {}
+			assertThrows(IDNotRecognisedException.class, () -> {
+				portal.getStageLength(stage1Id);
+			});
+			assertThrows(IDNotRecognisedException.class, () -> {
+				portal.removeStageById(stage2Id);
+			});
+		}
+
+		@Test
+		public void removeRaceByNameFreesNames() {
+			try {
+				portal.removeRaceByName("BasicRace");
+				portal.createRace("BasicRace", "Name reused");
+				portal.addStageToRace(race2Id, "Penguin", null, 10, LocalDateTime.now(), StageType.FLAT);
+			}catch (Exception e) {
+				fail(e);
+			}
+			assertThrows(NameNotRecognisedException.class, () -> {
+				portal.removeRaceByName("NotARace");
+			});
+		}
+
 		@Test
 		public void removeRaceByIdthrowId() {
 			assertThrows(IDNotRecognisedException.class, () -> {
@@ -564,6 +1889,22 @@ class CyclingPortalTestApp {
 			});
 		}
 		
+		@Test
+		public void removeSegmentKeepsOrder() {
+			try {
+				int intspr3 = portal.addIntermediateSprintToStage(stage2Id, 8.0);
+				portal.removeSegment(intspr1);
+				assertArrayEquals(portal.getStageSegments(stage2Id), new int[] { intspr2, intspr3 });
+				portal.removeSegment(intspr3);
+				assertArrayEquals(portal.getStageSegments(stage2Id), new int[] { intspr2 });
+			} catch (Exception e) {
+				fail(e);
+			}
+			assertThrows(IDNotRecognisedException.class, () -> {
+				portal.removeSegment(intspr1);
+			});
+		}
+		
 		//concludeStagePreparation
 		
 		@Test
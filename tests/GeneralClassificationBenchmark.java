@@ -0,0 +1,101 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Compares building the general classification sequentially and in parallel, on a race
+ * of 21 flat stages with 5,000 riders. Before each read every stage is made stale, by
+ * deleting and registering again the result of one rider in it, so every stage has to be
+ * read again. The number of cores used in parallel can be set for each run with
+ * -Djava.util.concurrent.ForkJoinPool.common.parallelism=N.
+ *
+ * @version 1.0
+ */
+public class GeneralClassificationBenchmark {
+
+	// Size of the synthetic race
+	private static final int STAGES = 21;
+	private static final int RIDERS = 5_000;
+	// Number of reads that are timed, after the same number of reads to warm up
+	private static final int ITERATIONS = 50;
+
+	/**
+	 * Benchmark method.
+	 *
+	 * @param args not used
+	 */
+	public static void main(String[] args) throws Exception {
+		System.out.printf("%d processors, common pool parallelism %d%n",
+				Runtime.getRuntime().availableProcessors(),
+				java.util.concurrent.ForkJoinPool.getCommonPoolParallelism());
+
+		double sequential = measure(false);
+		double parallel = measure(true);
+		System.out.printf("sequential %8.3f ms per read%n", sequential);
+		System.out.printf("parallel   %8.3f ms per read%n", parallel);
+		System.out.printf("speedup    %8.2fx%n", sequential / parallel);
+	}
+
+	/**
+	 * Builds the race in a fresh portal and times reading the general classification
+	 * after every stage has changed
+	 *
+	 * @param parallel True to read changed stages in parallel
+	 * @return Average milliseconds taken by each read
+	 */
+	private static double measure(boolean parallel) throws Exception {
+		CyclingPortal portal = new CyclingPortal();
+		portal.setParallelAggregation(parallel, 0);
+
+		int teamId = portal.createTeam("Team", null);
+		int[] riders = new int[RIDERS];
+		for (int i = 0; i < RIDERS; i++) {
+			riders[i] = portal.createRider(teamId, "Rider", 1990);
+		}
+		int raceId = portal.createRace("Race", null);
+		int[] stageIds = new int[STAGES];
+		LocalTime start = LocalTime.of(1, 0);
+		for (int s = 0; s < STAGES; s++) {
+			stageIds[s] = portal.addStageToRace(raceId, "Stage" + s, null, 100,
+					LocalDateTime.now().plusDays(s), StageType.FLAT);
+			portal.concludeStagePreparation(stageIds[s]);
+
+			LocalTime[][] checkpoints = new LocalTime[RIDERS][];
+			for (int i = 0; i < RIDERS; i++) {
+				checkpoints[i] = new LocalTime[] {start, finishOf(start, s, i)};
+			}
+			portal.registerRiderResultsInStageBatch(stageIds[s], riders, checkpoints);
+		}
+
+		long total = 0;
+		for (int iteration = 0; iteration < ITERATIONS * 2; iteration++) {
+			// One rider is removed and registered again in every stage, so each is stale
+			int rider = iteration % RIDERS;
+			for (int s = 0; s < STAGES; s++) {
+				portal.deleteRiderResultsInStage(stageIds[s], riders[rider]);
+				portal.registerRiderResultsInStage(stageIds[s], riders[rider], start, finishOf(start, s, rider));
+			}
+			long started = System.nanoTime();
+			portal.getRidersGeneralClassificationRank(raceId);
+			// Only the second half of the reads are timed
+			if (iteration >= ITERATIONS) {
+				total += System.nanoTime() - started;
+			}
+		}
+		return total / (ITERATIONS * 1_000_000.0);
+	}
+
+	/**
+	 * Gets a spread out finish time for a rider in a stage, some riders finish less than a
+	 * second apart so stages have bunches to adjust
+	 *
+	 * @param start Time the stage starts
+	 * @param stage Index of the stage
+	 * @param rider Index of the rider
+	 * @return Finish time of the rider
+	 */
+	private static LocalTime finishOf(LocalTime start, int stage, int rider) {
+		return start.plusNanos(((rider * 7919L + stage * 104_729L) % RIDERS) * 700_000_000L);
+	}
+}
@@ -0,0 +1,134 @@
+import cycling.*;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how many classification and result reads a ConcurrentCyclingPortal serves per
+ * second, with 1, 4, 16 and 64 reader threads reading one race while a single writer
+ * feeds results into the same race. Each reader count is run with optimistic reads turned
+ * off, so every read locks the race, and then on.
+ * The writer deletes and registers again one result every WRITE_INTERVAL_NANOS, like a
+ * timing feed.
+ *
+ * @version 1.0
+ */
+public class ReaderThroughputBenchmark {
+
+	// Size of the race that is read
+	private static final int STAGES = 5;
+	private static final int RIDERS = 1_000;
+	// Reader thread counts measured
+	private static final int[] READERS = {1, 4, 16, 64};
+	// Time between results from the writer, and how long each run lasts
+	private static final long WRITE_INTERVAL_NANOS = 1_000_000L;
+	private static final long RUN_MILLIS = 2_000;
+
+	/**
+	 * Benchmark method.
+	 *
+	 * @param args not used
+	 */
+	public static void main(String[] args) throws Exception {
+		System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-8s %16s %16s%n", "readers", "locking reads/s", "optimistic reads/s");
+		for (int readers : READERS) {
+			// First run of each setting warms up, the second is measured
+			measure(readers, false);
+			double locking = measure(readers, false);
+			measure(readers, true);
+			double optimistic = measure(readers, true);
+			System.out.printf("%-8d %16.0f %16.0f%n", readers, locking, optimistic);
+		}
+	}
+
+	/**
+	 * Builds a race in a fresh portal, then runs the readers against the writer
+	 *
+	 * @param readers Number of reader threads
+	 * @param optimisticReads True to let reads try published answers before locking
+	 * @return Reads served per second across every reader
+	 */
+	private static double measure(int readers, boolean optimisticReads) throws Exception {
+		ConcurrentCyclingPortal portal = new ConcurrentCyclingPortal();
+		portal.setOptimisticReads(optimisticReads);
+
+		int teamId = portal.createTeam("Team", null);
+		int[] riders = new int[RIDERS];
+		for (int i = 0; i < RIDERS; i++) {
+			riders[i] = portal.createRider(teamId, "Rider", 1990);
+		}
+		int raceId = portal.createRace("Race", null);
+		int[] stageIds = new int[STAGES];
+		LocalTime start = LocalTime.of(1, 0);
+		for (int s = 0; s < STAGES; s++) {
+			stageIds[s] = portal.addStageToRace(raceId, "Stage" + s, null, 100,
+					LocalDateTime.now().plusDays(s), StageType.FLAT);
+			portal.concludeStagePreparation(stageIds[s]);
+			LocalTime[][] checkpoints = new LocalTime[RIDERS][];
+			for (int i = 0; i < RIDERS; i++) {
+				checkpoints[i] = new LocalTime[] {start, finishOf(start, s, i)};
+			}
+			portal.registerRiderResultsInStageBatch(stageIds[s], riders, checkpoints);
+		}
+
+		LongAdder reads = new LongAdder();
+		long deadline = System.nanoTime() + RUN_MILLIS * 1_000_000L;
+		CountDownLatch done = new CountDownLatch(readers + 1);
+		Thread writer = new Thread(() -> {
+			try {
+				for (int n = 0; System.nanoTime() < deadline; n++) {
+					int stage = n % STAGES;
+					int rider = n % RIDERS;
+					portal.deleteRiderResultsInStage(stageIds[stage], riders[rider]);
+					portal.registerRiderResultsInStage(stageIds[stage], riders[rider], start,
+							finishOf(start, stage, rider));
+					LockSupport.parkNanos(WRITE_INTERVAL_NANOS);
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			} finally {
+				done.countDown();
+			}
+		});
+		writer.start();
+		for (int r = 0; r < readers; r++) {
+			int reader = r;
+			new Thread(() -> {
+				try {
+					// Readers mix the classification and stage queries
+					for (int n = reader; System.nanoTime() < deadline; n++) {
+						switch (n % 4) {
+							case 0 -> portal.getRidersGeneralClassificationRank(raceId);
+							case 1 -> portal.getRidersPointClassificationRank(raceId);
+							case 2 -> portal.getRidersRankInStage(stageIds[n % STAGES]);
+							default -> portal.getRankedAdjustedElapsedTimesInStage(stageIds[n % STAGES]);
+						}
+						reads.increment();
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				} finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+		return reads.sum() * 1000.0 / RUN_MILLIS;
+	}
+
+	/**
+	 * Gets a spread out finish time for a rider in a stage
+	 *
+	 * @param start Time the stage starts
+	 * @param stage Index of the stage
+	 * @param rider Index of the rider
+	 * @return Finish time of the rider
+	 */
+	private static LocalTime finishOf(LocalTime start, int stage, int rider) {
+		return start.plusNanos(((rider * 7919L + stage * 104_729L) % RIDERS) * 700_000_000L);
+	}
+}
@@ -0,0 +1,84 @@
+import cycling.*;
+
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Measures the heap used per rider by each ResultStorageMode, by registering a large
+ * field of riders in a flat stage with one intermediate sprint and comparing the heap in
+ * use before and after. The time taken to register the field is also reported.
+ * Run with a fixed heap, e.g. java -Xms2g -Xmx2g.
+ *
+ * @version 1.0
+ */
+public class ResultStorageBenchmark {
+
+	// Number of riders registered in the stage
+	private static final int RIDERS = 50_000;
+
+	/**
+	 * Benchmark method.
+	 *
+	 * @param args not used
+	 */
+	public static void main(String[] args) throws Exception {
+		for (ResultStorageMode mode : ResultStorageMode.values()) {
+			// Run once to warm up, then measure
+			measure(mode);
+			long started = System.nanoTime();
+			double bytesPerRider = measure(mode);
+			long millis = (System.nanoTime() - started) / 1_000_000;
+			System.out.printf("%-9s %6.1f bytes per rider, %5d ms%n", mode, bytesPerRider, millis);
+		}
+	}
+
+	/**
+	 * Registers every rider in a fresh portal and measures the heap the results take up
+	 *
+	 * @param mode Storage mode to measure
+	 * @return Average number of bytes for the stage and sprint results of each rider
+	 */
+	private static double measure(ResultStorageMode mode) throws Exception {
+		CyclingPortal portal = new CyclingPortal();
+		portal.setResultStorageMode(mode);
+
+		int teamId = portal.createTeam("Team", null);
+		int[] riders = new int[RIDERS];
+		for (int i = 0; i < RIDERS; i++) {
+			riders[i] = portal.createRider(teamId, "Rider", 1990);
+		}
+		int raceId = portal.createRace("Race", null);
+		int stageId = portal.addStageToRace(raceId, "Stage", null, 100, LocalDateTime.now(), StageType.FLAT);
+		portal.addIntermediateSprintToStage(stageId, 50);
+		portal.concludeStagePreparation(stageId);
+
+		long before = usedHeap();
+		LocalTime start = LocalTime.of(1, 0);
+		for (int i = 0; i < RIDERS; i++) {
+			// Sprint is crossed in a shuffled order, the finish is more than a second apart
+			LocalTime sprint = start.plusNanos((i * 7919L % RIDERS) * 10_000_000L);
+			LocalTime finish = start.plusNanos(i * 1_500_000_000L);
+			portal.registerRiderResultsInStage(stageId, riders[i], start, sprint, finish);
+		}
+		long after = usedHeap();
+		// Portal must stay reachable until the heap has been measured
+		Reference.reachabilityFence(portal);
+
+		return (double) (after - before) / RIDERS;
+	}
+
+	/**
+	 * Gets the heap in use after a garbage collection
+	 *
+	 * @return Bytes of heap in use
+	 */
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}